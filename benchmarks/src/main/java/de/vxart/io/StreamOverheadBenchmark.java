@@ -0,0 +1,74 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.io;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead {@link LimitedInputStream} and
+ * {@link ThrottledInputStream} (with a limit high enough to
+ * never actually sleep) add on top of a plain in-memory stream.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamOverheadBenchmark {
+    @Param({"512", "8192"})
+    public int bufferSize;
+
+    private byte[] data = new byte[4 * 1024 * 1024];
+    private byte[] buf;
+
+
+    @Setup
+    public void setUp() {
+        buf = new byte[bufferSize];
+    }
+
+    @Benchmark
+    public long plain() throws IOException {
+        return drain(new ByteArrayInputStream(data));
+    }
+
+    @Benchmark
+    public long limited() throws IOException {
+        return drain(new LimitedInputStream(new ByteArrayInputStream(data), data.length));
+    }
+
+    @Benchmark
+    public long throttled() throws IOException {
+        return drain(new ThrottledInputStream(new ByteArrayInputStream(data), Integer.MAX_VALUE));
+    }
+
+    private long drain(InputStream in) throws IOException {
+        long total = 0;
+        int len;
+        while ((len = in.read(buf)) != -1) {
+            total += len;
+        }
+        return total;
+    }
+}
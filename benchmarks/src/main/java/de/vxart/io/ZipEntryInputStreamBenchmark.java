@@ -0,0 +1,84 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.io;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures inflating a single ZIP local file block
+ * with {@link ZipEntryInputStream}.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZipEntryInputStreamBenchmark {
+    @Param({"1024", "1048576"})
+    public int size;
+
+    private byte[] block;
+    private byte[] buf = new byte[8192];
+
+
+    @Setup
+    public void setUp() throws IOException {
+        /*
+         * Half text, half noise, written by ZipOutputStream so
+         * the block starts with a proper local file header.
+         */
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        for (int i = 0; i < size / 2; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("entry.bin"));
+            zip.write(data);
+            zip.closeEntry();
+        }
+
+        block = bytes.toByteArray();
+    }
+
+    @Benchmark
+    public long inflate() throws IOException {
+        InputStream in = new ZipEntryInputStream(new DataInputStream(new ByteArrayInputStream(block)));
+
+        long total = 0;
+        int len;
+        while (total < size && (len = in.read(buf)) != -1) {
+            total += len;
+        }
+
+        return total;
+    }
+}
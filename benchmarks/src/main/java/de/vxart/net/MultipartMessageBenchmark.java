@@ -0,0 +1,96 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.net;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of parsing a cached multipart/byteranges
+ * response with {@link MultipartMessage} and draining all parts.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultipartMessageBenchmark {
+    private final static String BOUNDARY = "THIS_STRING_SEPARATES";
+
+    @Param({"100", "10000"})
+    public int parts;
+
+    @Param({"256", "65536"})
+    public int partSize;
+
+    private File file;
+    private byte[] buf = new byte[8192];
+
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("jzipupdate-jmh", ".multipart");
+
+        Random random = new Random(42);
+        byte[] data = new byte[partSize];
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 65536)) {
+            long offset = 0;
+            for (int i = 0; i < parts; i++) {
+                random.nextBytes(data);
+                out.write(("\r\n--" + BOUNDARY + "\r\n" +
+                        "Content-Type: application/octet-stream\r\n" +
+                        "Content-Range: bytes " + offset + "-" + (offset + partSize - 1) + "/*\r\n" +
+                        "\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(data);
+                offset += partSize;
+            }
+            out.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) throws IOException {
+        MultipartMessage message = new MultipartMessage(new FileInputStream(file), BOUNDARY);
+
+        while (message.hasNext()) {
+            InputStream part = message.next().openStream();
+            int len;
+            while ((len = part.read(buf)) != -1) {
+                blackhole.consume(len);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link UpdateEngine#diff(Set, Set)} for resource sets of
+ * different sizes with 10% of the resources changed, added or removed.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiffBenchmark {
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int entries;
+
+    private UpdateEngine engine;
+    private Set<Resource> client;
+    private Set<Resource> server;
+
+
+    @Setup
+    public void setUp() {
+        engine = new UpdateEngine();
+        client = new LinkedHashSet<>();
+        server = new LinkedHashSet<>();
+
+        Random random = new Random(42);
+        for (int i = 0; i < entries; i++) {
+            String name = "de/vxart/package" + (i % 100) + "/Class" + i + ".class";
+            long crc = random.nextInt() & 0xFFFFFFFFL;
+            int dice = random.nextInt(100);
+
+            if (dice >= 2)
+                client.add(new Resource(name, crc));
+
+            if (dice >= 4)
+                server.add(new Resource(name, dice < 10 ? ~crc : crc));
+            else if (dice < 2)
+                server.add(new Resource(name, crc));
+        }
+    }
+
+    @Benchmark
+    public Map<Resource, String> diff() {
+        return engine.diff(client, server);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import de.vxart.zipupdate.bench.ArchiveGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding index files with {@link UpdateLocation#getResources()},
+ * the index is read from a file: URL to take the network out of the picture.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexDecodingBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int entries;
+
+    private File dir;
+    private UpdateLocation location;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("jzipupdate-jmh").toFile();
+        File archive = new File(dir, "new.zip");
+
+        new ArchiveGenerator()
+                .entries(entries)
+                .sizes(16, 256)
+                .generate(new File(dir, "old.zip"), archive);
+        Indexer.index(archive);
+
+        location = new UpdateLocation(archive.toURI().toURL());
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public Set<Resource> getResources() throws IOException {
+        return location.getResources();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates pairs of synthetic archives, an "old" client-side version
+ * and a "new" server-side version, with a reproducible amount of
+ * differences between them.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class ArchiveGenerator {
+    private int entries = 1000;
+    private int minSize = 512;
+    private int maxSize = 64 * 1024;
+    private double compressibility = 0.5;
+    private double changeRatio = 0.1;
+    private long seed = 42;
+
+
+    /**
+     * Sets the number of entries in the old archive.
+     */
+    public ArchiveGenerator entries(int entries) {
+        this.entries = entries;
+        return this;
+    }
+
+    /**
+     * Sets the range of uncompressed entry sizes. Sizes are distributed
+     * log-uniformly so most entries are small and a few are big, just
+     * like the class files and assets in typical archives.
+     */
+    public ArchiveGenerator sizes(int minSize, int maxSize) {
+        if (minSize < 1 || maxSize < minSize)
+            throw new IllegalArgumentException("Invalid size range: " + minSize + "-" + maxSize);
+
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * Sets the share of each entry (0.0 - 1.0) made up of repetitive,
+     * easily compressible text, the rest is random noise.
+     */
+    public ArchiveGenerator compressibility(double compressibility) {
+        this.compressibility = compressibility;
+        return this;
+    }
+
+    /**
+     * Sets the share of entries (0.0 - 1.0) that differ between the old and
+     * the new archive; changed entries are split into updated, added and
+     * removed ones at a ratio of 8:1:1.
+     */
+    public ArchiveGenerator changeRatio(double changeRatio) {
+        this.changeRatio = changeRatio;
+        return this;
+    }
+
+    public ArchiveGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Writes the old and the new version of the archive.
+     *
+     * @param oldArchive the file to write the old version to
+     * @param newArchive the file to write the new version to
+     */
+    public void generate(File oldArchive, File newArchive) throws IOException {
+        Random random = new Random(seed);
+
+        try (ZipOutputStream oldZip = open(oldArchive);
+             ZipOutputStream newZip = open(newArchive)) {
+
+            for (int i = 0; i < entries; i++) {
+                String name = "data/" + (i % 64) + "/entry" + i + ".bin";
+                byte[] data = content(random, i);
+
+                double dice = random.nextDouble();
+                boolean changed = dice < changeRatio;
+
+                if (changed && dice < changeRatio * 0.1) {
+                    /*
+                     * Removed on the server.
+                     */
+                    put(oldZip, name, data);
+                } else if (changed && dice < changeRatio * 0.2) {
+                    /*
+                     * Added on the server.
+                     */
+                    put(newZip, name, data);
+                } else if (changed) {
+                    put(oldZip, name, data);
+                    put(newZip, name, content(random, i + entries));
+                } else {
+                    put(oldZip, name, data);
+                    put(newZip, name, data);
+                }
+            }
+        }
+    }
+
+    private byte[] content(Random random, int salt) {
+        double exponent = Math.log(minSize) + random.nextDouble() * (Math.log(maxSize) - Math.log(minSize));
+        byte[] data = new byte[(int) Math.exp(exponent)];
+
+        int text = (int) (data.length * compressibility);
+        byte[] phrase = ("entry " + salt + " lorem ipsum dolor sit amet ").getBytes();
+        for (int i = 0; i < text; i++) {
+            data[i] = phrase[i % phrase.length];
+        }
+
+        byte[] noise = new byte[data.length - text];
+        random.nextBytes(noise);
+        System.arraycopy(noise, 0, data, text, noise.length);
+
+        return data;
+    }
+
+    private static ZipOutputStream open(File file) throws IOException {
+        return new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+    }
+
+    private static void put(ZipOutputStream zip, String name, byte[] data) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(data);
+        zip.closeEntry();
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate.bench;
+
+import org.openjdk.jmh.Main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the JMH microbenchmarks and, unless told otherwise on the command
+ * line, writes the results as JSON to <code>jmh-result-VERSION.json</code>
+ * so they can be archived and compared across versions.
+ * <p>
+ * All arguments are passed on to JMH, e.g. <code>-p entries=1000</code>
+ * or a regular expression to select benchmarks.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+
+        if (!arguments.contains("-rf") && !arguments.contains("-h") && !arguments.contains("-l")) {
+            String version = Benchmarks.class.getPackage().getImplementationVersion();
+            arguments.add(0, "-rf");
+            arguments.add(1, "json");
+            arguments.add(2, "-rff");
+            arguments.add(3, "jmh-result-" + (version != null ? version : "dev") + ".json");
+        }
+
+        Main.main(arguments.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate.bench;
+
+/**
+ * Describes the network conditions emulated by the {@link RangeServer}.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class NetworkEmulation {
+    /**
+     * Emulates a loopback connection without any limits.
+     */
+    public static final NetworkEmulation NONE = new NetworkEmulation(0, -1, -1);
+
+    /**
+     * Round-trip latency added before every response in milliseconds.
+     */
+    public final long latency;
+
+    /**
+     * Maximum bandwidth in bytes per second per response, -1 for unlimited.
+     */
+    public final long bandwidth;
+
+    /**
+     * Maximum number of ranges per request, -1 for unlimited. Requests
+     * with more ranges get the whole entity like nginx' max_ranges does.
+     */
+    public final int maxRanges;
+
+
+    public NetworkEmulation(long latency, long bandwidth, int maxRanges) {
+        this.latency = latency;
+        this.bandwidth = bandwidth;
+        this.maxRanges = maxRanges;
+    }
+
+    /**
+     * Parses a specification of the form "latency,bandwidth,maxRanges",
+     * e.g. "50,1048576,-1" for 50 ms latency and 1 MB/s.
+     */
+    public static NetworkEmulation parse(String spec) {
+        String[] values = spec.split(",");
+        if (values.length != 3)
+            throw new IllegalArgumentException("Expected latency,bandwidth,maxRanges: " + spec);
+
+        return new NetworkEmulation(
+                Long.parseLong(values[0].trim()),
+                Long.parseLong(values[1].trim()),
+                Integer.parseInt(values[2].trim()));
+    }
+
+    @Override
+    public String toString() {
+        return "latency=" + latency + "ms" +
+                " bandwidth=" + (bandwidth > 0 ? bandwidth + "B/s" : "unlimited") +
+                " maxRanges=" + (maxRanges > 0 ? String.valueOf(maxRanges) : "unlimited");
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate.bench;
+
+import de.vxart.zipupdate.ProgressListener;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Times the phases of an update by listening to the messages an
+ * UpdateEngine and UpdateLocation report when starting a new task.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class PhaseTimer implements ProgressListener {
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    private String phase;
+    private long phaseStart;
+    private int progress;
+
+
+    public void init(String message) {
+        begin(message);
+    }
+
+    public void init(String message, int min, int max) {
+        begin(message);
+        progress = min;
+    }
+
+    public void update(int progress) {
+        this.progress = progress;
+    }
+
+    public int getProgress() {
+        return progress;
+    }
+
+    public void label(String label) {
+    }
+
+    public void finish() {
+        end();
+    }
+
+    /**
+     * Returns the time spent per phase in nanoseconds
+     * in the order in which the phases started.
+     */
+    public Map<String, Long> getPhases() {
+        return phases;
+    }
+
+    public void reset() {
+        phases.clear();
+        phase = null;
+    }
+
+    private void begin(String message) {
+        end();
+        phase = message;
+        phaseStart = System.nanoTime();
+    }
+
+    private void end() {
+        if (phase != null) {
+            phases.merge(phase, System.nanoTime() - phaseStart, Long::sum);
+            phase = null;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A minimal HTTP/1.1 server on the loopback interface serving the files
+ * of a directory including single and multipart byte-range responses,
+ * good enough to stand in for the web server hosting archives and their
+ * index files during benchmarks.
+ * <p>
+ * Latency, bandwidth and the maximum number of ranges per request
+ * can be emulated using a {@link NetworkEmulation}.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class RangeServer {
+    private final static String BOUNDARY = "THIS_STRING_SEPARATES";
+    private final static String CRLF = "\r\n";
+
+    private final File root;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private volatile NetworkEmulation emulation = NetworkEmulation.NONE;
+
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rangesServed = new AtomicLong();
+
+
+    /**
+     * Creates a server for the files in the given directory listening on
+     * an ephemeral port of the loopback interface. Call {@link #start()}
+     * to actually start serving.
+     *
+     * @param root the directory to serve files from
+     */
+    public RangeServer(File root) throws IOException {
+        this.root = root;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.executor = Executors.newCachedThreadPool();
+
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the URL under which the given file of the root directory is served.
+     */
+    public URL getUrl(String name) throws IOException {
+        InetSocketAddress address = server.getAddress();
+        return new URL("http", address.getHostString(), address.getPort(), "/" + name);
+    }
+
+    public void setEmulation(NetworkEmulation emulation) {
+        this.emulation = emulation;
+    }
+
+    public NetworkEmulation getEmulation() {
+        return emulation;
+    }
+
+    /**
+     * Returns the number of body bytes sent since the last reset.
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Returns the number of requests served since the last reset.
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Returns the number of byte ranges served since the last reset.
+     */
+    public long getRangesServed() {
+        return rangesServed.get();
+    }
+
+    public void resetCounters() {
+        bytesSent.set(0);
+        requests.set(0);
+        rangesServed.set(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            NetworkEmulation emulation = this.emulation;
+
+            if (emulation.latency > 0)
+                Thread.sleep(emulation.latency);
+
+            File file = new File(root, exchange.getRequestURI().getPath().substring(1));
+            String method = exchange.getRequestMethod();
+
+            if (!file.isFile() || !file.getCanonicalPath().startsWith(root.getCanonicalPath())) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            long length = file.length();
+            boolean head = "HEAD".equals(method);
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+            List<long[]> ranges = parseRanges(exchange.getRequestHeaders().getFirst("Range"), length);
+
+            if (ranges != null && ranges.isEmpty()) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + length);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+
+            if (ranges != null && emulation.maxRanges > 0 && ranges.size() > emulation.maxRanges)
+                ranges = null;
+
+            try (RandomAccessFile data = new RandomAccessFile(file, "r")) {
+                if (ranges == null) {
+                    exchange.sendResponseHeaders(200, head ? -1 : length);
+                    if (!head)
+                        copy(data, 0, length, body(exchange, emulation));
+                } else if (ranges.size() == 1) {
+                    long[] range = ranges.get(0);
+                    exchange.getResponseHeaders().set("Content-Range",
+                            "bytes " + range[0] + "-" + range[1] + "/" + length);
+                    exchange.sendResponseHeaders(206, head ? -1 : range[1] - range[0] + 1);
+                    if (!head)
+                        copy(data, range[0], range[1] - range[0] + 1, body(exchange, emulation));
+                    rangesServed.incrementAndGet();
+                } else {
+                    sendMultipart(exchange, emulation, data, ranges, length, head);
+                }
+            }
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void sendMultipart(
+            HttpExchange exchange, NetworkEmulation emulation,
+            RandomAccessFile data, List<long[]> ranges, long length, boolean head)
+            throws IOException, InterruptedException {
+        /*
+         * Build all part headers up front so we can
+         * send a proper Content-Length.
+         */
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+
+        for (long[] range : ranges) {
+            byte[] header = (CRLF + "--" + BOUNDARY + CRLF +
+                    "Content-Type: application/octet-stream" + CRLF +
+                    "Content-Range: bytes " + range[0] + "-" + range[1] + "/" + length + CRLF +
+                    CRLF).getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(header);
+            contentLength += header.length + range[1] - range[0] + 1;
+        }
+
+        byte[] trailer = (CRLF + "--" + BOUNDARY + "--" + CRLF).getBytes(StandardCharsets.US_ASCII);
+        contentLength += trailer.length;
+
+        exchange.getResponseHeaders().set("Content-Type", "multipart/byteranges; boundary=" + BOUNDARY);
+        exchange.sendResponseHeaders(206, head ? -1 : contentLength);
+
+        if (head)
+            return;
+
+        OutputStream out = body(exchange, emulation);
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] range = ranges.get(i);
+            out.write(partHeaders.get(i));
+            copy(data, range[0], range[1] - range[0] + 1, out);
+            rangesServed.incrementAndGet();
+        }
+        out.write(trailer);
+        out.flush();
+    }
+
+    /**
+     * Parses a "Range: bytes=..." header into inclusive start/end pairs,
+     * returns null if there's no usable header and an empty list if
+     * none of the ranges is satisfiable.
+     */
+    private static List<long[]> parseRanges(String header, long length) {
+        if (header == null || !header.startsWith("bytes="))
+            return null;
+
+        List<long[]> ranges = new ArrayList<>();
+        for (String spec : header.substring("bytes=".length()).split(",")) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0)
+                return null;
+
+            long start, end;
+            if (dash == 0) {
+                start = length - Long.parseLong(spec.substring(1));
+                end = length - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? length - 1 : Long.parseLong(spec.substring(dash + 1));
+            }
+
+            if (start < 0)
+                start = 0;
+            if (end >= length)
+                end = length - 1;
+            if (start <= end)
+                ranges.add(new long[]{start, end});
+        }
+
+        return ranges;
+    }
+
+    private OutputStream body(HttpExchange exchange, NetworkEmulation emulation) {
+        OutputStream out = new CountingOutputStream(exchange.getResponseBody());
+
+        if (emulation.bandwidth > 0)
+            out = new ThrottledOutputStream(out, emulation.bandwidth);
+
+        return out;
+    }
+
+    private static void copy(RandomAccessFile data, long start, long length, OutputStream out)
+            throws IOException {
+        byte[] buf = new byte[16384];
+        data.seek(start);
+
+        while (length > 0) {
+            int len = data.read(buf, 0, (int) Math.min(buf.length, length));
+            if (len < 0)
+                throw new IOException("Unexpected end of file");
+
+            out.write(buf, 0, len);
+            length -= len;
+        }
+    }
+
+    private class CountingOutputStream extends FilterOutputStream {
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytesSent.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytesSent.addAndGet(len);
+        }
+    }
+
+    /**
+     * Paces writes so the average rate stays at the configured
+     * number of bytes per second since the stream was created.
+     */
+    private static class ThrottledOutputStream extends FilterOutputStream {
+        private final long bytesPerSecond;
+        private final long start = System.nanoTime();
+        private long written;
+
+        ThrottledOutputStream(OutputStream out, long bytesPerSecond) {
+            super(out);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int chunk = (int) Math.max(1, Math.min(len, bytesPerSecond / 50));
+
+            while (len > 0) {
+                int n = Math.min(chunk, len);
+                out.write(b, off, n);
+                off += n;
+                len -= n;
+                written += n;
+
+                long due = start + written * 1000000000L / bytesPerSecond;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                    } catch (InterruptedException iex) {
+                        throw new InterruptedIOException("Interrupted while throttling");
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate.bench;
+
+import de.vxart.zipupdate.Indexer;
+import de.vxart.zipupdate.ProgressListenerManager;
+import de.vxart.zipupdate.Repacker;
+import de.vxart.zipupdate.UpdateEngine;
+import de.vxart.zipupdate.UpdateLocation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Runs complete end-to-end updates of synthetic archives against a
+ * {@link RangeServer} on the loopback interface and reports the time
+ * spent per phase and the bytes transferred compared to downloading
+ * the whole archive.
+ * <p>
+ * Arguments are given as key=value pairs, e.g.
+ * <pre>
+ *   java de.vxart.zipupdate.bench.UpdateBenchmark entries=10000 change=0.05 network=20,10485760,-1
+ * </pre>
+ * Supported keys are <code>entries</code>, <code>minSize</code>,
+ * <code>maxSize</code>, <code>compressibility</code>, <code>change</code>,
+ * <code>network</code> (latency,bandwidth,maxRanges), <code>runs</code>,
+ * <code>seed</code>, <code>dir</code>, <code>repack</code> (true to
+ * repack the reference archive by its changes from the original) and
+ * <code>bundles</code> (true to publish a delta bundle from the original).
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class UpdateBenchmark {
+    private static final String ARCHIVE = "archive.zip";
+
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                System.err.println("Usage: java de.vxart.zipupdate.bench.UpdateBenchmark [key=value]...");
+                System.exit(1);
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+
+        ArchiveGenerator generator = new ArchiveGenerator()
+                .entries(Integer.parseInt(options.getOrDefault("entries", "1000")))
+                .sizes(
+                        Integer.parseInt(options.getOrDefault("minSize", "512")),
+                        Integer.parseInt(options.getOrDefault("maxSize", "65536")))
+                .compressibility(Double.parseDouble(options.getOrDefault("compressibility", "0.5")))
+                .changeRatio(Double.parseDouble(options.getOrDefault("change", "0.1")))
+                .seed(Long.parseLong(options.getOrDefault("seed", "42")));
+
+        NetworkEmulation emulation = NetworkEmulation.parse(options.getOrDefault("network", "0,-1,-1"));
+        int runs = Integer.parseInt(options.getOrDefault("runs", "3"));
+
+        File dir = options.containsKey("dir")
+                ? new File(options.get("dir"))
+                : Files.createTempDirectory("jzipupdate-bench").toFile();
+
+        run(generator, emulation, runs, dir,
+                Boolean.parseBoolean(options.getOrDefault("repack", "false")),
+                Boolean.parseBoolean(options.getOrDefault("bundles", "false")));
+    }
+
+    /**
+     * Generates the archives into the given directory and runs
+     * the given number of updates printing a report for each.
+     */
+    public static void run(ArchiveGenerator generator, NetworkEmulation emulation, int runs, File dir, boolean repack, boolean bundles)
+            throws IOException, InterruptedException {
+        File serverDir = new File(dir, "server");
+        File clientDir = new File(dir, "client");
+        serverDir.mkdirs();
+        clientDir.mkdirs();
+
+        File original = new File(dir, "original.zip");
+        File reference = new File(serverDir, ARCHIVE);
+        File target = new File(clientDir, ARCHIVE);
+
+        generator.generate(original, reference);
+        if (repack)
+            Repacker.repack(reference, original);
+        Indexer.index(reference);
+        if (bundles)
+            Indexer.bundle(reference, original);
+
+        RangeServer server = new RangeServer(serverDir);
+        server.setEmulation(emulation);
+        server.start();
+
+        try {
+            System.out.println("# " + emulation);
+            System.out.println("# original=" + original.length() + " bytes, reference=" + reference.length() + " bytes");
+
+            for (int run = 1; run <= runs; run++) {
+                Files.copy(original.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+                PhaseTimer timer = new PhaseTimer();
+                UpdateEngine engine = new UpdateEngine();
+                engine.addProgressListener(timer);
+
+                server.resetCounters();
+                long start = System.nanoTime();
+                engine.update(new ZipFile(target), new UpdateLocation(server.getUrl(ARCHIVE)));
+                long total = System.nanoTime() - start;
+                ProgressListenerManager.flush();
+
+                verify(target, reference);
+
+                report(run, timer.getPhases(), total, server, reference.length());
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void report(int run, Map<String, Long> phases, long total, RangeServer server, long fullSize) {
+        StringBuilder line = new StringBuilder();
+        line.append("run=").append(run);
+
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            String name = phase.getKey().replaceAll("[^A-Za-z]+", " ").trim().toLowerCase().replace(' ', '-');
+            line.append(' ').append(name).append('=').append(phase.getValue() / 1000000).append("ms");
+        }
+
+        long sent = server.getBytesSent();
+        line.append(" total=").append(total / 1000000).append("ms");
+        line.append(" requests=").append(server.getRequests());
+        line.append(" ranges=").append(server.getRangesServed());
+        line.append(" transferred=").append(sent);
+        line.append(" full=").append(fullSize);
+        line.append(String.format(" saved=%.1f%%", 100.0 * (fullSize - sent) / fullSize));
+
+        System.out.println(line);
+    }
+
+    /**
+     * Makes sure the updated archive has exactly the
+     * same entries and checksums as the reference.
+     */
+    private static void verify(File target, File reference) throws IOException {
+        Map<String, Long> expected = new HashMap<>();
+        try (ZipFile zip = new ZipFile(reference)) {
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                ZipEntry entry = e.nextElement();
+                expected.put(entry.getName(), entry.getCrc());
+            }
+        }
+
+        try (ZipFile zip = new ZipFile(target)) {
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                ZipEntry entry = e.nextElement();
+                Long crc = expected.remove(entry.getName());
+                if (crc == null || crc != entry.getCrc() || crc != checksum(zip, entry))
+                    throw new IOException("Updated archive differs from reference: " + entry.getName());
+            }
+        }
+
+        if (!expected.isEmpty())
+            throw new IOException("Updated archive misses " + expected.size() + " entries");
+    }
+
+    private static long checksum(ZipFile zip, ZipEntry entry) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = zip.getInputStream(entry)) {
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, len);
+            }
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate.cli;
+
+import de.vxart.zipupdate.DirectoryManifest;
+import de.vxart.zipupdate.ProgressListener;
+import de.vxart.zipupdate.ProgressListenerManager;
+import de.vxart.zipupdate.UpdateEngine;
+import de.vxart.zipupdate.UpdateLocation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipFile;
+
+/**
+ * Provides a headless stand-alone way to update archives, suitable for
+ * servers and unattended updaters; it never touches AWT or Swing.
+ * <p>
+ * Progress is printed to standard output as tab-separated lines, each
+ * starting with the kind of line and the name of the archive:
+ * <pre>
+ * init      &lt;archive&gt;  &lt;message&gt;  &lt;min&gt;  &lt;max&gt;   (min and max are -1 if unknown)
+ * progress  &lt;archive&gt;  &lt;value&gt;
+ * label     &lt;archive&gt;  &lt;label&gt;
+ * done      &lt;archive&gt;  updated|current
+ * failed    &lt;archive&gt;  &lt;reason&gt;
+ * </pre>
+ * Log messages go to standard error. The exit code is one of the
+ * <code>EXIT_*</code> constants.
+ * <p>
+ * When updating a directory whose base URL has a {@link DirectoryManifest},
+ * archives whose index is the same one they were last updated from (as
+ * remembered in the {@value #STATE_FILE} file in the directory) and that
+ * weren't changed locally since are reported current without any further
+ * request.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class CommandLineUpdater {
+    private static final Logger logger = Logger.getLogger("de.vxart.zipupdate");
+
+    /**
+     * All archives have been updated or were up to date already.
+     */
+    public final static int EXIT_OK = 0;
+
+    /**
+     * The arguments were missing or malformed.
+     */
+    public final static int EXIT_USAGE = 1;
+
+    /**
+     * The update URL was invalid.
+     */
+    public final static int EXIT_INVALID_URL = 2;
+
+    /**
+     * The directory given didn't contain any ZIP/JAR files.
+     */
+    public final static int EXIT_NO_ARCHIVES = 3;
+
+    /**
+     * At least one archive failed to update, see its failed line.
+     */
+    public final static int EXIT_FAILED = 4;
+
+    /**
+     * Remembers which index each archive in a directory was last updated from.
+     */
+    public final static String STATE_FILE = "jzipupdate.state";
+
+    private final PrintStream out;
+
+
+    /**
+     * Creates a new CommandLineUpdater printing progress to the given stream.
+     */
+    public CommandLineUpdater(PrintStream out) {
+        this.out = out;
+    }
+
+    public static void main(String[] args) {
+        System.exit(new CommandLineUpdater(System.out).run(args));
+    }
+
+    /**
+     * Updates the archives given by the arguments.
+     *
+     * @param args either a ZIP file and its update URL or a directory
+     *             and the base URL to update the ZIP/JAR files in it from
+     * @return the exit code
+     */
+    public int run(String[] args) {
+        if (args.length != 2) {
+            System.err.println(
+                    "Usage: java de.vxart.zipupdate.cli.CommandLineUpdater" +
+                            " <ZIP file> <update URL>");
+            System.err.println(
+                    "   or: java de.vxart.zipupdate.cli.CommandLineUpdater" +
+                            " <directory> <update base URL>");
+            return EXIT_USAGE;
+        }
+
+        File input = new File(args[0]);
+
+        URL url;
+        try {
+            url = new URL(args[1]);
+        } catch (MalformedURLException ex) {
+            logger.log(Level.SEVERE, "Invalid URL: " + args[1]);
+            return EXIT_INVALID_URL;
+        }
+
+        if (!input.isDirectory())
+            return update(new UpdateEngine(), input, new UpdateLocation(url)) ? EXIT_OK : EXIT_FAILED;
+
+        /*
+         * Filter out anything but ZIP and JAR files
+         */
+        File[] files = input.listFiles(
+                (dir, name) -> {
+                    name = name.toLowerCase();
+                    return name.endsWith(".zip") || name.endsWith(".jar");
+                });
+
+        if (files == null || files.length < 1) {
+            logger.log(Level.WARNING, "No ZIP/JAR files found at " + input.getAbsolutePath());
+            return EXIT_NO_ARCHIVES;
+        }
+
+        Arrays.sort(files);
+
+        /*
+         * Keep going after a failed archive, the others
+         * may well be updated successfully.
+         */
+        DirectoryManifest manifest = null;
+        try {
+            manifest = DirectoryManifest.fetch(url);
+        } catch (IOException ex) {
+            logger.log(Level.FINE, "No directory manifest at " + url + ", checking every archive", ex);
+        }
+
+        File stateFile = new File(input, STATE_FILE);
+        Properties state = loadState(stateFile);
+        boolean stateChanged = false;
+
+        UpdateEngine engine = new UpdateEngine();
+        int exitCode = EXIT_OK;
+
+        for (File file : files) {
+            String name = file.getName();
+            boolean listed = manifest != null && manifest.contains(name);
+
+            UpdateLocation location;
+            try {
+                if (listed) {
+                    if (getState(manifest.getIndexChecksum(name), file).equals(state.getProperty(name))) {
+                        print("done", name, "current");
+                        continue;
+                    }
+                    location = manifest.getLocation(name);
+                } else {
+                    location = new UpdateLocation(new URL(url, name));
+                }
+            } catch (MalformedURLException ex) {
+                print("failed", name, "invalid URL");
+                exitCode = EXIT_FAILED;
+                continue;
+            }
+
+            if (!update(engine, file, location)) {
+                exitCode = EXIT_FAILED;
+            } else if (listed) {
+                state.setProperty(name, getState(manifest.getIndexChecksum(name), file));
+                stateChanged = true;
+            }
+        }
+
+        if (stateChanged)
+            saveState(stateFile, state);
+
+        return exitCode;
+    }
+
+    /**
+     * Describes an archive as updated from the index with the given checksum.
+     */
+    private static String getState(long indexChecksum, File file) {
+        return Long.toHexString(indexChecksum) + "," + file.length() + "," + file.lastModified();
+    }
+
+    private static Properties loadState(File file) {
+        Properties state = new Properties();
+
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                state.load(in);
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Ignoring unreadable state file: " + file, ex);
+                state.clear();
+            }
+        }
+
+        return state;
+    }
+
+    private static void saveState(File file, Properties state) {
+        File tmp = new File(file.getPath() + ".tmp");
+
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                state.store(out, "Indexes the archives were last updated from");
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Failed to write state file: " + file, ex);
+        }
+    }
+
+    /**
+     * Updates a single archive printing its progress.
+     *
+     * @return true if the archive is up to date now, false if updating failed
+     */
+    private boolean update(UpdateEngine engine, File file, UpdateLocation location) {
+        String name = file.getName();
+        LineProgressListener listener = new LineProgressListener(name);
+
+        engine.addProgressListener(listener);
+        try {
+            boolean patched;
+            try (ZipFile archive = UpdateEngine.openArchive(file)) {
+                patched = engine.update(archive, location);
+            }
+
+            /*
+             * Progress is delivered asynchronously, make sure
+             * it's all out before reporting the result.
+             */
+            ProgressListenerManager.flush();
+            print("done", name, patched ? "updated" : "current");
+            return true;
+        } catch (IOException | RuntimeException ex) {
+            logger.log(Level.SEVERE, "Failed to update " + file.getAbsolutePath(), ex);
+            flushQuietly();
+            print("failed", name, String.valueOf(ex.getMessage()));
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            print("failed", name, "interrupted");
+            return false;
+        } finally {
+            engine.removeProgressListener(listener);
+        }
+    }
+
+    private static void flushQuietly() {
+        try {
+            ProgressListenerManager.flush();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void print(String kind, String archive, Object... fields) {
+        StringBuilder line = new StringBuilder(kind).append('\t').append(clean(archive));
+        for (Object field : fields) {
+            line.append('\t').append(clean(String.valueOf(field)));
+        }
+        out.println(line);
+    }
+
+    /**
+     * Keeps free-form text from breaking the line format.
+     */
+    private static String clean(String text) {
+        return text.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+    }
+
+    /**
+     * Prints the progress of a single archive.
+     */
+    private class LineProgressListener implements ProgressListener {
+        private final String archive;
+        private volatile int progress;
+
+        LineProgressListener(String archive) {
+            this.archive = archive;
+        }
+
+        public void init(String message) {
+            print("init", archive, message, -1, -1);
+        }
+
+        public void init(String message, int min, int max) {
+            progress = min;
+            print("init", archive, message, min, max);
+        }
+
+        public void update(int progress) {
+            this.progress = progress;
+            print("progress", archive, progress);
+        }
+
+        public int getProgress() {
+            return progress;
+        }
+
+        public void label(String label) {
+            print("label", archive, label);
+        }
+
+        public void finish() {
+            // The result is printed once the update returns
+        }
+    }
+}
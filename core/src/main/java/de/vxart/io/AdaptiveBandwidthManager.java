@@ -0,0 +1,300 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.io;
+
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+
+/**
+ * A BandwidthManager that keeps adapting its rate to stay out of the way
+ * of any other traffic on the network, similar to LEDBAT (RFC 6817).
+ * <p>
+ * Streams can't see the round-trip times of the underlying connection, so
+ * the time reads block waiting for data serves as the delay signal instead:
+ * while there's bandwidth to spare, data arrives faster than the current rate
+ * lets it be read, piles up in the socket buffers and reads return without
+ * blocking. Once the link is busy with other traffic, data arrives slower
+ * and reads start to block.
+ * <p>
+ * Delays are sampled over roughly one target delay's worth of data at the
+ * current rate, the delay of a sample being the average time a read blocked,
+ * no matter how many reads of how many streams the sample spans. The lowest
+ * delay seen within the last minutes serves as base delay; as long as the
+ * current delay stays less than half the target delay above it the rate ramps
+ * up, beyond that the rate backs off in proportion to how far off target the
+ * delay is.
+ * <p>
+ * Given a parent BandwidthManager, the rate never exceeds the one of the
+ * parent, following any changes to it, and all transfers also count against
+ * the limit of the parent.
+ * <p>
+ * Use the <code>de.vxart.io.AdaptiveBandwidthManager.targetDelay</code>
+ * system property to set the default target delay in milliseconds; it
+ * defaults to 100 ms.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class AdaptiveBandwidthManager extends BandwidthManager {
+    private static final long DEFAULT_TARGET_DELAY = Long.getLong(
+            "de.vxart.io.AdaptiveBandwidthManager.targetDelay", 100);
+
+    /*
+     * Minimum number of bytes per delay sample, the gain applied
+     * per sample and how much the rate may grow at once.
+     */
+    private static final long MIN_SAMPLE_SIZE = 8 * 1024;
+    private static final double GAIN = 2.0;
+    private static final double MAX_GROWTH = 1.25;
+
+    /*
+     * The base delay is the minimum of the last BASE_HISTORY
+     * minutes, the current delay the minimum of the last
+     * CURRENT_FILTER samples to filter out noise.
+     */
+    private static final int BASE_HISTORY = 10;
+    private static final long BASE_INTERVAL = 60_000_000_000L;
+    private static final int CURRENT_FILTER = 4;
+
+    private final BandwidthManager parent;
+    private final long minRate;
+    private final long maxRate;
+    private final long targetDelay;
+
+    private final long[] baseDelays = new long[BASE_HISTORY];
+    private int baseIndex;
+    private long baseStarted;
+
+    private final long[] currentDelays = new long[CURRENT_FILTER];
+    private int currentIndex;
+
+    private long sampleBytes;
+    private long sampleNanos;
+    private long sampleReads;
+
+    private long adaptiveRate;
+
+
+    /**
+     * Creates a new AdaptiveBandwidthManager adapting its rate between
+     * the given bounds with the default target delay, starting at four
+     * times the minimum rate.
+     *
+     * @param minRate the minimum rate in bytes per second
+     * @param maxRate the maximum rate in bytes per second, 0 or less for no limit
+     */
+    public AdaptiveBandwidthManager(long minRate, long maxRate) {
+        this(minRate, maxRate, DEFAULT_TARGET_DELAY);
+    }
+
+    /**
+     * Creates a new AdaptiveBandwidthManager adapting its rate between the
+     * given bounds to the given target delay, starting at four times the
+     * minimum rate.
+     *
+     * @param minRate     the minimum rate in bytes per second
+     * @param maxRate     the maximum rate in bytes per second, 0 or less for no limit
+     * @param targetDelay the queuing delay in milliseconds to stay below
+     */
+    public AdaptiveBandwidthManager(long minRate, long maxRate, long targetDelay) {
+        this(null, minRate, maxRate, targetDelay);
+    }
+
+    /**
+     * Creates a new AdaptiveBandwidthManager adapting its rate between the
+     * given minimum and the rate of the given parent with the default target
+     * delay, starting at four times the minimum rate.
+     *
+     * @param parent  the BandwidthManager whose limit to stay within
+     * @param minRate the minimum rate in bytes per second
+     */
+    public AdaptiveBandwidthManager(BandwidthManager parent, long minRate) {
+        this(parent, minRate, DEFAULT_TARGET_DELAY);
+    }
+
+    /**
+     * Creates a new AdaptiveBandwidthManager adapting its rate between the
+     * given minimum and the rate of the given parent to the given target
+     * delay, starting at four times the minimum rate.
+     *
+     * @param parent      the BandwidthManager whose limit to stay within
+     * @param minRate     the minimum rate in bytes per second
+     * @param targetDelay the queuing delay in milliseconds to stay below
+     */
+    public AdaptiveBandwidthManager(BandwidthManager parent, long minRate, long targetDelay) {
+        this(parent, minRate, 0, targetDelay);
+
+        if (parent == null)
+            throw new IllegalArgumentException("Parent must not be null");
+    }
+
+    private AdaptiveBandwidthManager(BandwidthManager parent, long minRate, long maxRate, long targetDelay) {
+        super(Math.max(1, minRate));
+
+        if (targetDelay < 1)
+            throw new IllegalArgumentException("Target delay must be positive: " + targetDelay);
+
+        this.parent = parent;
+        this.minRate = Math.max(1, minRate);
+        this.maxRate = maxRate > 0 ? Math.max(this.minRate, maxRate) : Long.MAX_VALUE;
+        this.targetDelay = targetDelay * 1000000;
+        this.adaptiveRate = Math.min(getMaxRate(), 4 * this.minRate);
+        adapt();
+
+        Arrays.fill(baseDelays, Long.MAX_VALUE);
+        Arrays.fill(currentDelays, Long.MAX_VALUE);
+        this.baseStarted = System.nanoTime();
+    }
+
+    /**
+     * Returns the queuing delay the rate is adapted to in milliseconds.
+     */
+    public long getTargetDelay() {
+        return targetDelay / 1000000;
+    }
+
+    /**
+     * Returns the parent BandwidthManager whose limit
+     * this one stays within, null if there is none.
+     */
+    public BandwidthManager getParent() {
+        return parent;
+    }
+
+    @Override
+    public int getGeneration() {
+        return parent != null ? super.getGeneration() + parent.getGeneration() : super.getGeneration();
+    }
+
+    @Override
+    public void register() {
+        super.register();
+        if (parent != null)
+            parent.register();
+    }
+
+    @Override
+    public void unregister() {
+        super.unregister();
+        if (parent != null)
+            parent.unregister();
+    }
+
+    @Override
+    public int getQuantum() {
+        int quantum = super.getQuantum();
+        return parent != null ? Math.min(quantum, parent.getQuantum()) : quantum;
+    }
+
+    /*
+     * Tokens are taken from this bucket first and the parent's
+     * next, never holding the locks of both at once.
+     */
+    @Override
+    public void acquire(long bytes)
+            throws InterruptedIOException {
+        super.acquire(bytes);
+        if (parent != null)
+            parent.acquire(bytes);
+    }
+
+    @Override
+    public void release(long bytes) {
+        super.release(bytes);
+        if (parent != null)
+            parent.release(bytes);
+    }
+
+    @Override
+    public synchronized void transferred(long bytes, long nanos) {
+        sampleBytes += bytes;
+        sampleNanos += nanos;
+        sampleReads++;
+
+        if (sampleBytes < Math.max(MIN_SAMPLE_SIZE, adaptiveRate * targetDelay / 1000000000))
+            return;
+
+        /*
+         * Summing up the time of all reads would make the delay grow
+         * with the size of the sample and thus the rate itself.
+         */
+        long delay = sampleNanos / sampleReads;
+        long sampled = sampleBytes;
+        sampleBytes = 0;
+        sampleNanos = 0;
+        sampleReads = 0;
+
+        updateBaseDelay(delay);
+
+        currentDelays[currentIndex] = delay;
+        currentIndex = (currentIndex + 1) % CURRENT_FILTER;
+
+        long target = targetDelay / 2;
+        long queuingDelay = min(currentDelays) - min(baseDelays);
+        double offTarget = (target - queuingDelay) / (double) target;
+
+        /*
+         * Grow by twice the amount of data sampled per second at
+         * the most, shrink in proportion to the delay beyond target.
+         */
+        double next = adaptiveRate + GAIN * offTarget * sampled;
+        next = Math.min(next, adaptiveRate * MAX_GROWTH);
+        next = Math.max(next, adaptiveRate / 2.0);
+
+        adaptiveRate = Math.max(minRate, Math.min(getMaxRate(), (long) next));
+        adapt();
+    }
+
+    /*
+     * The parent's rate may change any time, so it's looked up again
+     * whenever adapting.
+     */
+    private long getMaxRate() {
+        if (parent != null && parent.isLimited())
+            return Math.max(minRate, Math.min(maxRate, parent.getRate()));
+
+        return maxRate;
+    }
+
+    /*
+     * Bursts are limited to a target delay's worth of data,
+     * which keeps the amount of data in flight low and the
+     * reaction to changing delays quick.
+     */
+    private void adapt() {
+        setRate(adaptiveRate);
+        setBurst(Math.max(MIN_SAMPLE_SIZE, adaptiveRate * targetDelay / 1000000000));
+    }
+
+    private void updateBaseDelay(long delay) {
+        long now = System.nanoTime();
+
+        if (now - baseStarted > BASE_INTERVAL) {
+            baseIndex = (baseIndex + 1) % BASE_HISTORY;
+            baseDelays[baseIndex] = Long.MAX_VALUE;
+            baseStarted = now;
+        }
+
+        baseDelays[baseIndex] = Math.min(baseDelays[baseIndex], delay);
+    }
+
+    private static long min(long[] values) {
+        long min = Long.MAX_VALUE;
+        for (long value : values) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.io;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Limits the combined throughput of any number of streams to a common rate
+ * using a token bucket.
+ * <p>
+ * Every byte transferred takes a token from the bucket, which is refilled at
+ * the configured rate and holds up to a burst size of tokens; as long as the
+ * bucket isn't empty transfers proceed at full speed. Transfers wait in the
+ * order they acquired their tokens, and each transfer is only supposed to take
+ * its fair share of the burst at once (see {@link #getQuantum()}), so the
+ * available bandwidth gets split evenly between all active transfers while
+ * the total never exceeds the configured rate.
+ * <p>
+ * The rate can be changed at any time and takes effect immediately, even for
+ * transfers already waiting or holding on to a share acquired at the old rate
+ * (see {@link #getGeneration()}). Streams are usually throttled by wrapping
+ * them in a {@link ThrottledInputStream}, also while there is no limit.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class BandwidthManager {
+    private static final BandwidthManager SHARED = new BandwidthManager(-1);
+
+    /*
+     * The smallest amount of bytes a transfer may read at once,
+     * no matter how many transfers share the bucket.
+     */
+    private static final int MIN_QUANTUM = 1024;
+
+    private long rate;
+    private long burst;
+    private boolean customBurst;
+
+    /*
+     * Total number of tokens put into and taken out of the bucket;
+     * a transfer that took its tokens from an empty bucket waits
+     * until enough tokens have been put in to pay them back.
+     */
+    private double credited;
+    private long consumed;
+    private long lastRefill;
+
+    private int transfers;
+
+    /*
+     * Counts changes of the rate or burst size, so streams
+     * can give back tokens acquired under the old settings.
+     */
+    private volatile int generation;
+
+
+    /**
+     * Creates a new BandwidthManager limited to the given rate with a burst
+     * size of a second's worth of data.
+     *
+     * @param bytesPerSecond the maximum rate in bytes per second, 0 or less for no limit
+     */
+    public BandwidthManager(long bytesPerSecond) {
+        this.lastRefill = System.nanoTime();
+        setRate(bytesPerSecond);
+        this.credited = burst;
+    }
+
+    /**
+     * Creates a new BandwidthManager limited to the given rate
+     * allowing bursts of the given size.
+     *
+     * @param bytesPerSecond the maximum rate in bytes per second, 0 or less for no limit
+     * @param burst          the number of bytes that may be transferred at full speed
+     */
+    public BandwidthManager(long bytesPerSecond, long burst) {
+        this(bytesPerSecond);
+        setBurst(burst);
+        this.credited = burst;
+    }
+
+    /**
+     * Returns the BandwidthManager shared by all UpdateLocations unless
+     * they've been given their own; it isn't limited unless configured to.
+     */
+    public static BandwidthManager getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Changes the maximum rate; transfers waiting
+     * for tokens are woken up to adapt to it.
+     *
+     * @param bytesPerSecond the maximum rate in bytes per second, 0 or less for no limit
+     */
+    public synchronized void setRate(long bytesPerSecond) {
+        refill(System.nanoTime());
+
+        this.rate = Math.max(0, bytesPerSecond);
+        if (!customBurst)
+            this.burst = Math.max(MIN_QUANTUM, rate);
+        generation++;
+
+        notifyAll();
+    }
+
+    /**
+     * Returns the maximum rate in bytes per second, 0 if there is no limit.
+     */
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    /**
+     * Returns whether this BandwidthManager limits transfers at all.
+     */
+    public synchronized boolean isLimited() {
+        return rate > 0;
+    }
+
+    /**
+     * Changes the maximum number of bytes that may be transferred at full
+     * speed after transfers have been idle for a while.
+     *
+     * @param burst the burst size in bytes
+     */
+    public synchronized void setBurst(long burst) {
+        if (burst < 1)
+            throw new IllegalArgumentException("Burst size must be positive: " + burst);
+
+        refill(System.nanoTime());
+
+        this.burst = burst;
+        this.customBurst = true;
+        generation++;
+    }
+
+    /**
+     * Returns the burst size in bytes.
+     */
+    public synchronized long getBurst() {
+        return burst;
+    }
+
+    /**
+     * Returns a number that changes whenever the rate or burst size
+     * changes; transfers holding on to tokens acquired before should
+     * release them and acquire a new share.
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Registers a transfer sharing the bandwidth.
+     */
+    public synchronized void register() {
+        transfers++;
+    }
+
+    /**
+     * Unregisters a transfer registered before.
+     */
+    public synchronized void unregister() {
+        if (transfers > 0)
+            transfers--;
+    }
+
+    /**
+     * Returns the number of transfers currently registered.
+     */
+    public synchronized int getActiveTransfers() {
+        return transfers;
+    }
+
+    /**
+     * Returns the maximum number of bytes a single transfer should acquire
+     * at once to leave its fair share of the bandwidth to all other transfers.
+     */
+    public synchronized int getQuantum() {
+        if (rate <= 0)
+            return Integer.MAX_VALUE;
+
+        long quantum = burst / Math.max(1, transfers);
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_QUANTUM, quantum));
+    }
+
+    /**
+     * Takes the tokens for the given number of bytes from the bucket, waiting
+     * until they've been paid back if the bucket ran empty; transfers are
+     * served in the order they called this method.
+     *
+     * @param bytes the number of bytes about to be transferred
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public synchronized void acquire(long bytes)
+            throws InterruptedIOException {
+        if (bytes <= 0)
+            return;
+
+        refill(System.nanoTime());
+
+        consumed += bytes;
+        long target = consumed;
+
+        while (rate > 0 && credited < target) {
+            long nanos = (long) Math.ceil((target - credited) * 1e9 / rate);
+            try {
+                wait(nanos / 1000000, (int) (nanos % 1000000));
+            } catch (InterruptedException iex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling");
+            }
+            refill(System.nanoTime());
+        }
+    }
+
+    /**
+     * Puts back tokens acquired but not used up by a transfer.
+     *
+     * @param bytes the number of bytes acquired but not transferred
+     */
+    public synchronized void release(long bytes) {
+        if (bytes <= 0)
+            return;
+
+        refill(System.nanoTime());
+        credited = Math.min(credited + bytes, consumed + burst);
+
+        notifyAll();
+    }
+
+    /**
+     * Called by transfers after reading data with the time they spent
+     * waiting for the data to arrive, not counting any time spent waiting
+     * for tokens; this implementation does nothing, subclasses may use it
+     * to adapt the rate to the network.
+     *
+     * @param bytes the number of bytes read
+     * @param nanos the time spent reading them in nanoseconds
+     */
+    public void transferred(long bytes, long nanos) {
+        // Nothing to adapt
+    }
+
+    /**
+     * Puts tokens for the time elapsed since the last call into the bucket,
+     * without ever holding more than the burst size.
+     */
+    private void refill(long now) {
+        if (rate > 0) {
+            credited += (now - lastRefill) * (double) rate / 1e9;
+        } else {
+            credited = consumed;
+        }
+
+        credited = Math.min(credited, consumed + burst);
+        lastRefill = now;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getClass().getName() + "[rate=" + (rate > 0 ? rate + " B/s" : "unlimited")
+                + ";burst=" + burst + ";transfers=" + transfers + "]";
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.io;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps a bounded number of idle Inflaters and Deflaters in "nowrap" mode
+ * (raw deflate data as used in ZIP entries) for reuse.
+ * <p>
+ * Both classes hold on to native zlib memory which is only freed by calling
+ * <code>end()</code> or, much later, by finalization. Every instance acquired
+ * from this pool has to be given back with the matching <code>release()</code>
+ * method, which either keeps it for reuse or ends it right away if the pool
+ * is full.
+ * <p>
+ * Use the <code>de.vxart.io.CodecPool.size</code> system property to set
+ * the maximum number of idle instances kept per type; by default that's
+ * twice the number of available processors.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class CodecPool {
+    private static final int SIZE = Integer.getInteger(
+            "de.vxart.io.CodecPool.size",
+            2 * Runtime.getRuntime().availableProcessors());
+
+    private static final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(Math.max(1, SIZE));
+    private static final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(Math.max(1, SIZE));
+
+
+    private CodecPool() {
+        // Empty private constructor
+    }
+
+    /**
+     * Returns an idle Inflater in nowrap mode from the pool or a new one.
+     */
+    public static Inflater acquireInflater() {
+        Inflater inflater = inflaters.poll();
+        return inflater != null ? inflater : new Inflater(true);
+    }
+
+    /**
+     * Gives an Inflater acquired from this pool back for reuse.
+     */
+    public static void release(Inflater inflater) {
+        inflater.reset();
+        if (!inflaters.offer(inflater))
+            inflater.end();
+    }
+
+    /**
+     * Returns an idle Deflater in nowrap mode set to the given
+     * compression level from the pool or a new one.
+     *
+     * @param level the compression level (0-9)
+     */
+    public static Deflater acquireDeflater(int level) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null)
+            return new Deflater(level, true);
+
+        deflater.setLevel(level);
+        return deflater;
+    }
+
+    /**
+     * Gives a Deflater acquired from this pool back for reuse.
+     */
+    public static void release(Deflater deflater) {
+        deflater.reset();
+        deflater.setLevel(Deflater.DEFAULT_COMPRESSION);
+        deflater.setStrategy(Deflater.DEFAULT_STRATEGY);
+        if (!deflaters.offer(deflater))
+            deflater.end();
+    }
+}
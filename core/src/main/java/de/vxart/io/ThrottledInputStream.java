@@ -0,0 +1,151 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Provides a throttled InputStream whose throughput is limited by a
+ * {@link BandwidthManager}, possibly shared with other streams.
+ * <p>
+ * The stream registers as an active transfer with its BandwidthManager
+ * when created and unregisters when it's closed or has been read to its
+ * end. Tokens are acquired one fair share at a time and used up by as
+ * many reads as it takes, whatever their size; any tokens left over are
+ * given back when the stream is done or the rate changes, so a stream
+ * created while there was no limit doesn't keep reading at full speed
+ * on the unlimited share it acquired.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class ThrottledInputStream extends FilterInputStream {
+    private final BandwidthManager manager;
+    private boolean registered;
+    private long allowance;
+    private int generation;
+
+
+    /**
+     * Wraps the given InputStream while throttling the reading speed
+     * to the specified number of KBytes per second.
+     * <p>
+     * This class might cause timeouts on network connections
+     * when too much throttling is used.
+     *
+     * @param in                 the stream to throttle reading from
+     * @param kiloBytesPerSecond the maximum speed in KBytes per second (1024 B/s)
+     */
+    public ThrottledInputStream(InputStream in, long kiloBytesPerSecond) {
+        this(in, new BandwidthManager(1024 * kiloBytesPerSecond));
+    }
+
+    /**
+     * Wraps the given InputStream while throttling the reading
+     * speed by the given BandwidthManager.
+     *
+     * @param in      the stream to throttle reading from
+     * @param manager the BandwidthManager limiting the speed
+     */
+    public ThrottledInputStream(InputStream in, BandwidthManager manager) {
+        super(in);
+        this.manager = manager;
+        this.registered = true;
+        this.generation = manager.getGeneration();
+        manager.register();
+    }
+
+    @Override
+    public int read() throws IOException {
+        throttle();
+
+        int b = in.read();
+
+        if (b == -1)
+            unregister();
+        else
+            allowance--;
+
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+
+        throttle();
+
+        long start = System.nanoTime();
+        int read = in.read(b, off, (int) Math.min(len, allowance));
+
+        if (read == -1) {
+            unregister();
+        } else {
+            allowance -= read;
+            manager.transferred(read, System.nanoTime() - start);
+        }
+
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0)
+            return 0;
+
+        throttle();
+
+        long skipped = in.skip(Math.min(n, allowance));
+        allowance -= skipped;
+
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        unregister();
+        super.close();
+    }
+
+    /**
+     * Waits for the next share of bandwidth once the last one is used up.
+     */
+    private void throttle() throws IOException {
+        int current = manager.getGeneration();
+        if (current != generation) {
+            generation = current;
+            manager.release(allowance);
+            allowance = 0;
+        }
+
+        if (allowance <= 0) {
+            long quantum = manager.getQuantum();
+            manager.acquire(quantum);
+            allowance += quantum;
+        }
+    }
+
+    private void unregister() {
+        if (registered) {
+            registered = false;
+            manager.unregister();
+            manager.release(allowance);
+            allowance = 0;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.io;
+
+import de.vxart.zip.LocalFileHeaderView;
+
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static de.vxart.zip.ZipConstants.*;
+
+/**
+ * Extracts the data from a ZIP file block.
+ * <p>
+ * Deflated data is inflated with an Inflater from the {@link CodecPool}
+ * which is given back as soon as the end of the data has been reached or
+ * the stream gets closed. The Inflater is only fed as many bytes as the
+ * local file header says the compressed data is long, unless the entry
+ * has been written in non-seekable mode with sizes trailing the data.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class ZipEntryInputStream extends FilterInputStream {
+    /*
+     * Inflater.setInput(ByteBuffer) only exists since Java 11, when
+     * available we use it to inflate straight from mapped buffers.
+     */
+    private static final MethodHandle SET_INPUT_BUFFER;
+
+    static {
+        MethodHandle setInput = null;
+        try {
+            setInput = MethodHandles.publicLookup().findVirtual(
+                    Inflater.class, "setInput",
+                    MethodType.methodType(void.class, ByteBuffer.class));
+        } catch (ReflectiveOperationException ignored) {
+            // Older JDK, copy into a byte array instead
+        }
+        SET_INPUT_BUFFER = setInput;
+    }
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+
+    private ByteBuffer source;
+    private Inflater inflater;
+    private byte[] buf;
+    private final byte[] single = new byte[1];
+    private boolean dummyFed, done;
+
+    /*
+     * The number of bytes of entry data left to read from
+     * the source or -1 if not known from the header.
+     */
+    private long remaining;
+
+
+    /**
+     * Creates am InputStream that will read the uncompressed data
+     * of a ZIP entry. This class expects the given InputStream to
+     * be a complete ZIP local file block, starting with the magical
+     * number 0x04034B50.
+     *
+     * @param in
+     * @throws IOException
+     */
+    public ZipEntryInputStream(DataInputStream in)
+            throws IOException {
+        super(in);
+
+        byte[] headerBytes = new byte[LOCAL_FILE_HEADER_LENGTH];
+        in.readFully(headerBytes);
+        LocalFileHeaderView header = new LocalFileHeaderView().wrap(ByteBuffer.wrap(headerBytes), 0);
+
+        in.skipBytes(header.getNameLength());
+        in.skipBytes(header.getExtraLength());
+
+        init(header);
+    }
+
+    /**
+     * Creates am InputStream that will read the uncompressed data of
+     * a ZIP entry from a buffer, e.g. a slice of a memory-mapped file.
+     * The buffer is expected to contain a complete ZIP local file block
+     * from its position on, starting with the magical number 0x04034B50.
+     *
+     * @param block the buffer containing the local file block
+     * @throws IOException
+     */
+    public ZipEntryInputStream(ByteBuffer block)
+            throws IOException {
+        super(null);
+
+        LocalFileHeaderView header = new LocalFileHeaderView().wrap(block, block.position());
+
+        source = block.duplicate();
+        ((Buffer) source).position(header.getDataOffset());
+
+        init(header);
+    }
+
+    private void init(LocalFileHeaderView header)
+            throws IOException {
+        boolean sizesKnown = (header.getFlag() & FLAG_DATA_DESCRIPTOR) == 0;
+        remaining = sizesKnown ? header.getCompressedSize() : -1;
+
+        switch (header.getCompressionMethod()) {
+            case METHOD_STORED:
+                if (!sizesKnown)
+                    throw new IOException("Stored entry without size: " + header.getName());
+                break;
+
+            case METHOD_DEFLATED:
+                inflater = CodecPool.acquireInflater();
+
+                if (source != null && remaining >= 0 && SET_INPUT_BUFFER != null) {
+                    ByteBuffer input = source.slice();
+                    ((Buffer) input).limit((int) remaining);
+                    setInput(input);
+                    remaining = 0;
+                }
+                break;
+
+            default:
+                throw new IOException(
+                        "Unsupported compression method: " +
+                                Integer.toHexString(header.getCompressionMethod()));
+        }
+    }
+
+    private void setInput(ByteBuffer input)
+            throws IOException {
+        try {
+            SET_INPUT_BUFFER.invokeExact(inflater, input);
+        } catch (Throwable t) {
+            throw new IOException("Failed to set Inflater input", t);
+        }
+    }
+
+    /**
+     * Reads up to len bytes of the raw entry data, never more than
+     * the known compressed size, returns -1 at the end.
+     */
+    private int readRaw(byte[] b, int off, int len)
+            throws IOException {
+        if (remaining == 0)
+            return -1;
+
+        if (remaining > 0)
+            len = (int) Math.min(len, remaining);
+
+        int read;
+        if (source != null) {
+            if (!source.hasRemaining())
+                return -1;
+
+            read = Math.min(len, source.remaining());
+            source.get(b, off, read);
+        } else {
+            read = in.read(b, off, len);
+        }
+
+        if (read > 0 && remaining > 0)
+            remaining -= read;
+
+        return read;
+    }
+
+    /**
+     * Feeds the next chunk of compressed data to the Inflater.
+     *
+     * This supplies one extra "dummy" byte at the end of the data,
+     * from the javadoc of the Inflater(boolean) constructor:
+     *     "When using the 'nowrap' option it is also
+     *      necessary to provide an extra 'dummy' byte
+     *      as input."
+     */
+    private void fill()
+            throws IOException {
+        if (buf == null)
+            buf = new byte[8192];
+
+        int len = readRaw(buf, 0, buf.length);
+
+        if (len > 0) {
+            inflater.setInput(buf, 0, len);
+        } else if (!dummyFed) {
+            buf[0] = 0;
+            inflater.setInput(buf, 0, 1);
+            dummyFed = true;
+        } else {
+            throw new EOFException("Unexpected end of ZIP entry data");
+        }
+    }
+
+    /*
+     * Gives the Inflater back to the pool as soon as we're done with it.
+     */
+    private void release() {
+        if (inflater != null) {
+            CodecPool.release(inflater);
+            inflater = null;
+        }
+    }
+
+    @Override
+    public int read()
+            throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+            throws IOException {
+        if (done)
+            return -1;
+
+        if (len == 0)
+            return 0;
+
+        if (inflater == null)
+            return readRaw(b, off, len);
+
+        try {
+            while (true) {
+                int n = inflater.inflate(b, off, len);
+                if (n > 0)
+                    return n;
+
+                if (inflater.finished()) {
+                    done = true;
+                    release();
+                    return -1;
+                }
+
+                if (inflater.needsDictionary())
+                    throw new IOException("Inflater needs a dictionary");
+
+                if (inflater.needsInput())
+                    fill();
+            }
+        } catch (DataFormatException dfex) {
+            done = true;
+            release();
+            throw new IOException("Invalid ZIP entry data: " + dfex.getMessage(), dfex);
+        }
+    }
+
+    @Override
+    public int read(byte[] b)
+            throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public long skip(long n)
+            throws IOException {
+        byte[] skipBuf = new byte[(int) Math.min(n, 4096)];
+        long skipped = 0;
+
+        int len;
+        while (skipped < n && (len = read(skipBuf, 0, (int) Math.min(skipBuf.length, n - skipped))) != -1) {
+            skipped += len;
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public int available()
+            throws IOException {
+        if (done)
+            return 0;
+
+        if (inflater != null)
+            return inflater.finished() ? 0 : 1;
+
+        if (source != null)
+            return remaining >= 0 ? (int) Math.min(remaining, source.remaining()) : source.remaining();
+
+        return super.available();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close()
+            throws IOException {
+        done = true;
+        release();
+
+        if (in != null)
+            in.close();
+    }
+}
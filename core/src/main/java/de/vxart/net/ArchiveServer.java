@@ -0,0 +1,1120 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A small embeddable HTTP/1.1 server for the files of a directory, meant
+ * to serve archives, their index files, bundles and objects to
+ * UpdateLocations; it's the server-side counterpart of {@link MultipartMessage}.
+ * <p>
+ * All connections are multiplexed over a few selector threads, so thousands
+ * of concurrent clients don't need thousands of threads. Single byte ranges
+ * and multipart/byteranges responses with any number of ranges are streamed
+ * straight from the files with {@link FileChannel#transferTo} (sendfile on
+ * most platforms), only the part headers are built in memory. Overlapping
+ * and adjacent ranges are coalesced, and requests asking for more bytes
+ * than the whole file get the whole file instead. Open file
+ * channels and their metadata are cached and only checked for changes once
+ * a second; responses in progress keep reading the version of a file they
+ * started with, even if it's replaced meanwhile.
+ * <p>
+ * Strong ETags and Last-Modified are sent with every file, If-None-Match,
+ * If-Modified-Since and If-Range are honored. Only GET and HEAD are supported.
+ * <p>
+ * Use the <code>de.vxart.net.ArchiveServer.threads</code> system property to
+ * set the default number of selector threads (the number of processors, at
+ * most 4, by default) and <code>de.vxart.net.ArchiveServer.maxRanges</code>
+ * to set the maximum number of ranges per request above which the whole
+ * file is sent instead (1000 by default).
+ * <p>
+ * Run it stand-alone with
+ * <pre>
+ *   java de.vxart.net.ArchiveServer &lt;directory&gt; [port [address]]
+ * </pre>
+ * which serves on the loopback interface unless an address is given.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class ArchiveServer {
+    private static final Logger logger = Logger.getLogger("de.vxart.net");
+
+    private final static int DEFAULT_THREADS = Integer.getInteger("de.vxart.net.ArchiveServer.threads",
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private final static int DEFAULT_MAX_RANGES = Integer.getInteger("de.vxart.net.ArchiveServer.maxRanges", 1000);
+
+    private final static String CRLF = "\r\n";
+
+    /*
+     * Request headers may be large because of long Range headers,
+     * but not larger than this.
+     */
+    private final static int MAX_HEADER_SIZE = 1024 * 1024;
+
+    /*
+     * Bytes written to a single connection before turning to the
+     * others, so large responses don't starve them.
+     */
+    private final static long WRITE_BUDGET = 1024 * 1024;
+
+    private final static long IDLE_TIMEOUT = 60 * 1000;
+    private final static long STAT_INTERVAL = 1000;
+
+    private final static DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+    private final Path root;
+    private final InetSocketAddress address;
+    private int threads = DEFAULT_THREADS;
+    private int maxRanges = DEFAULT_MAX_RANGES;
+
+    private ServerSocketChannel serverChannel;
+    private Worker[] workers;
+    private volatile boolean running;
+
+    private final ConcurrentMap<Path, CachedFile> files = new ConcurrentHashMap<>();
+
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rangesServed = new AtomicLong();
+
+
+    /**
+     * Creates a server for the files in the given directory listening on
+     * an ephemeral port of the loopback interface. Call {@link #start()}
+     * to actually start serving.
+     *
+     * @param root the directory to serve files from
+     */
+    public ArchiveServer(File root) {
+        this(root, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    /**
+     * Creates a server for the files in the given directory listening on
+     * the given address. Call {@link #start()} to actually start serving.
+     *
+     * @param root    the directory to serve files from
+     * @param address the address to listen on
+     */
+    public ArchiveServer(File root, InetSocketAddress address) {
+        this.root = root.toPath().toAbsolutePath().normalize();
+        this.address = address;
+    }
+
+    /**
+     * Sets the number of selector threads serving connections,
+     * must be called before the server is started.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Illegal number of threads: " + threads);
+
+        this.threads = threads;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the maximum number of ranges per request; requests for more
+     * ranges are answered with the whole file.
+     */
+    public void setMaxRanges(int maxRanges) {
+        if (maxRanges < 1)
+            throw new IllegalArgumentException("Illegal maximum number of ranges: " + maxRanges);
+
+        this.maxRanges = maxRanges;
+    }
+
+    public int getMaxRanges() {
+        return maxRanges;
+    }
+
+    /**
+     * Binds the server socket and starts the selector threads.
+     *
+     * @throws IOException if binding the socket fails
+     */
+    public synchronized void start()
+            throws IOException {
+        if (running)
+            throw new IllegalStateException("Already started");
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address, 1024);
+        serverChannel.configureBlocking(false);
+
+        running = true;
+        workers = new Worker[threads];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i);
+        }
+
+        serverChannel.register(workers[0].selector, SelectionKey.OP_ACCEPT);
+
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+
+        logger.log(Level.INFO, "Serving " + root + " at " + getAddress());
+    }
+
+    /**
+     * Closes all connections and stops the selector threads.
+     */
+    public synchronized void stop() {
+        if (!running)
+            return;
+
+        running = false;
+
+        for (Worker worker : workers) {
+            worker.selector.wakeup();
+        }
+
+        for (Worker worker : workers) {
+            try {
+                worker.thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        try {
+            serverChannel.close();
+        } catch (IOException ex) {
+            logger.log(Level.FINE, "Failed to close server socket", ex);
+        }
+
+        for (CachedFile file : files.values()) {
+            if (files.remove(file.path, file))
+                file.release();
+        }
+    }
+
+    /**
+     * Returns the address the server is listening on.
+     */
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) serverChannel.getLocalAddress();
+        } catch (IOException ex) {
+            return address;
+        }
+    }
+
+    /**
+     * Returns the URL under which the given file of the root directory is served.
+     */
+    public URL getUrl(String name)
+            throws IOException {
+        InetSocketAddress address = getAddress();
+        return new URL("http", address.getHostString(), address.getPort(), "/" + name);
+    }
+
+    /**
+     * Returns the number of body bytes sent since the last reset.
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Returns the number of requests served since the last reset.
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Returns the number of byte ranges served since the last reset.
+     */
+    public long getRangesServed() {
+        return rangesServed.get();
+    }
+
+    public void resetCounters() {
+        bytesSent.set(0);
+        requests.set(0);
+        rangesServed.set(0);
+    }
+
+    /**
+     * Returns the cached file at the given path with a reference held
+     * for the caller, checking it for changes at most once a second.
+     *
+     * @return the file or null if there's no regular file at the path
+     */
+    private CachedFile acquire(Path path)
+            throws IOException {
+        CachedFile cached = files.get(path);
+        long now = System.currentTimeMillis();
+
+        if (cached != null && now - cached.checked < STAT_INTERVAL && cached.retain())
+            return cached;
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException ex) {
+            attributes = null;
+        }
+
+        if (attributes == null || !attributes.isRegularFile()) {
+            if (cached != null && files.remove(path, cached))
+                cached.release();
+            return null;
+        }
+
+        if (cached != null
+                && cached.length == attributes.size()
+                && cached.lastModified == attributes.lastModifiedTime().toMillis()
+                && cached.retain()) {
+            cached.checked = now;
+            return cached;
+        }
+
+        /*
+         * Replace the cached file, responses still using
+         * the old one close it when they're done.
+         */
+        CachedFile file = new CachedFile(path, attributes, now);
+        file.retain();
+
+        boolean replaced = cached == null
+                ? files.putIfAbsent(path, file) == null
+                : files.replace(path, cached, file);
+
+        if (!replaced)
+            file.release();
+        else if (cached != null)
+            cached.release();
+
+        return file;
+    }
+
+    /**
+     * Resolves the path of a request target against the root directory.
+     *
+     * @return the path or null if it's invalid or outside the root
+     */
+    private Path resolve(String target) {
+        try {
+            String path = new URI(target).getPath();
+            if (path == null || !path.startsWith("/"))
+                return null;
+
+            Path resolved = root.resolve(path.substring(1)).normalize();
+            return resolved.startsWith(root) ? resolved : null;
+        } catch (URISyntaxException | IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses a "Range: bytes=..." header into inclusive start/end pairs,
+     * returns null if there's no usable header and an empty list if
+     * none of the ranges is satisfiable (see RFC 7233).
+     */
+    static List<long[]> parseRanges(String header, long length) {
+        if (header == null || !header.regionMatches(true, 0, "bytes=", 0, 6))
+            return null;
+
+        List<long[]> ranges = new ArrayList<>();
+        try {
+            for (String spec : header.substring(6).split(",")) {
+                spec = spec.trim();
+                if (spec.isEmpty())
+                    continue;
+
+                int dash = spec.indexOf('-');
+                if (dash < 0)
+                    return null;
+
+                long start, end;
+                if (dash == 0) {
+                    long suffix = parseNumber(spec.substring(1));
+                    start = Math.max(0, length - suffix);
+                    end = suffix > 0 ? length - 1 : -1;
+                } else {
+                    start = parseNumber(spec.substring(0, dash));
+                    if (dash == spec.length() - 1) {
+                        end = length - 1;
+                    } else {
+                        end = parseNumber(spec.substring(dash + 1));
+                        if (end < start)
+                            return null;
+                    }
+                }
+
+                if (end >= length)
+                    end = length - 1;
+                if (start <= end)
+                    ranges.add(new long[]{start, end});
+            }
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+
+        return ranges;
+    }
+
+    /**
+     * Sorts the given ranges and merges overlapping and adjacent ones,
+     * so no byte is sent twice; returns null if they add up to more
+     * than the whole file, which is then cheaper to send.
+     */
+    static List<long[]> coalesce(List<long[]> ranges, long length) {
+        long total = 0;
+        for (long[] range : ranges) {
+            total += range[1] - range[0] + 1;
+            if (total > length)
+                return null;
+        }
+
+        List<long[]> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(range -> range[0]));
+
+        List<long[]> coalesced = new ArrayList<>(sorted.size());
+        long[] last = null;
+
+        for (long[] range : sorted) {
+            if (last != null && range[0] <= last[1] + 1) {
+                last[1] = Math.max(last[1], range[1]);
+            } else {
+                last = new long[]{range[0], range[1]};
+                coalesced.add(last);
+            }
+        }
+
+        return coalesced;
+    }
+
+    /**
+     * Creates a random multipart boundary, so it can't
+     * accidentally be contained in the files served.
+     */
+    private static String newBoundary() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return "jzipupdate-" + Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong());
+    }
+
+    private static long parseNumber(String digits) {
+        for (int i = 0; i < digits.length(); i++) {
+            char c = digits.charAt(i);
+            if (c < '0' || c > '9')
+                throw new NumberFormatException(digits);
+        }
+
+        return Long.parseLong(digits);
+    }
+
+    /**
+     * Checks whether a list of entity tags as in If-None-Match
+     * contains the given one, using weak comparison.
+     */
+    private static boolean containsTag(String tags, String tag) {
+        if (tags.trim().equals("*"))
+            return true;
+
+        for (String candidate : tags.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/"))
+                candidate = candidate.substring(2);
+            if (candidate.equals(tag))
+                return true;
+        }
+
+        return false;
+    }
+
+    private static boolean notModifiedSince(String date, long lastModified) {
+        try {
+            return ZonedDateTime.parse(date.trim(), HTTP_DATE).toEpochSecond() >= lastModified / 1000;
+        } catch (DateTimeParseException ex) {
+            return false;
+        }
+    }
+
+    private static String formatDate(long millis) {
+        return HTTP_DATE.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+    }
+
+    private static String getReason(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 206:
+                return "Partial Content";
+            case 304:
+                return "Not Modified";
+            case 400:
+                return "Bad Request";
+            case 404:
+                return "Not Found";
+            case 405:
+                return "Method Not Allowed";
+            case 416:
+                return "Range Not Satisfiable";
+            case 431:
+                return "Request Header Fields Too Large";
+            case 505:
+                return "HTTP Version Not Supported";
+            default:
+                return "Internal Server Error";
+        }
+    }
+
+    /**
+     * An open file and its metadata shared by all responses sending it,
+     * closed once it's neither cached nor used by any response.
+     */
+    private static final class CachedFile {
+        final Path path;
+        final FileChannel channel;
+        final long length;
+        final long lastModified;
+        final String etag;
+        final String lastModifiedHeader;
+        volatile long checked;
+
+        private int references = 1;
+
+
+        CachedFile(Path path, BasicFileAttributes attributes, long checked)
+                throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.length = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+            this.lastModifiedHeader = formatDate(lastModified);
+            this.checked = checked;
+        }
+
+        synchronized boolean retain() {
+            if (references == 0)
+                return false;
+
+            references++;
+            return true;
+        }
+
+        synchronized void release() {
+            if (--references == 0) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    logger.log(Level.FINE, "Failed to close " + path, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * A section of a file still to be sent.
+     */
+    private static final class Region {
+        final FileChannel channel;
+        long position;
+        long remaining;
+
+        Region(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+    }
+
+    /**
+     * A selector thread serving its share of the connections;
+     * the first one also accepts new connections.
+     */
+    private final class Worker implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+
+        private int next;
+        private long lastSweep = System.currentTimeMillis();
+        private long dateSecond = -1;
+        private String date;
+
+
+        Worker(int index)
+                throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "ArchiveServer-" + (index + 1));
+            this.thread.setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(STAT_INTERVAL);
+
+                    SocketChannel channel;
+                    while ((channel = accepted.poll()) != null) {
+                        Connection connection = new Connection(channel);
+                        try {
+                            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                        } catch (ClosedChannelException ex) {
+                            connection.close();
+                        }
+                    }
+
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        if (!key.isValid())
+                            continue;
+
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable())
+                                connection.read();
+                            else if (key.isWritable())
+                                connection.write();
+                        } catch (IOException | RuntimeException ex) {
+                            logger.log(Level.FINE, "Closing connection: " + connection, ex);
+                            connection.close();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+
+                    sweep();
+                }
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "Selector failed, stopping " + thread.getName(), ex);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection)
+                        ((Connection) key.attachment()).close();
+                }
+
+                try {
+                    selector.close();
+                } catch (IOException ex) {
+                    logger.log(Level.FINE, "Failed to close selector", ex);
+                }
+            }
+        }
+
+        /**
+         * Accepts all pending connections and
+         * hands them out to the workers in turn.
+         */
+        private void accept()
+                throws IOException {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                /*
+                 * Headers and bodies are written separately, Nagle's
+                 * algorithm would hold back the second write.
+                 */
+                channel.socket().setTcpNoDelay(true);
+
+                Worker worker = workers[next++ % workers.length];
+                worker.accepted.add(channel);
+                if (worker != this)
+                    worker.selector.wakeup();
+            }
+        }
+
+        /**
+         * Closes connections that haven't made any progress for too long.
+         */
+        private void sweep() {
+            long now = System.currentTimeMillis();
+            if (now - lastSweep < STAT_INTERVAL)
+                return;
+
+            lastSweep = now;
+            for (SelectionKey key : selector.keys()) {
+                Object attachment = key.attachment();
+                if (attachment instanceof Connection && now - ((Connection) attachment).lastActive > IDLE_TIMEOUT)
+                    ((Connection) attachment).close();
+            }
+        }
+
+        private String getDate() {
+            long now = System.currentTimeMillis();
+            if (now / 1000 != dateSecond) {
+                dateSecond = now / 1000;
+                date = formatDate(now);
+            }
+            return date;
+        }
+
+        /**
+         * A client connection, reading one request at a time
+         * and writing its response before reading the next.
+         */
+        private final class Connection {
+            final SocketChannel channel;
+            SelectionKey key;
+
+            ByteBuffer in = ByteBuffer.allocate(8192);
+            int scanFrom;
+
+            final ArrayDeque<Object> out = new ArrayDeque<>();
+            CachedFile file;
+            long body;
+            int ranges;
+            boolean close;
+
+            long lastActive = System.currentTimeMillis();
+
+
+            Connection(SocketChannel channel) {
+                this.channel = channel;
+            }
+
+            void read()
+                    throws IOException {
+                if (!in.hasRemaining()) {
+                    if (in.capacity() >= MAX_HEADER_SIZE) {
+                        error(431);
+                        key.interestOps(SelectionKey.OP_WRITE);
+                        write();
+                        return;
+                    }
+
+                    ByteBuffer larger = ByteBuffer.allocate(Math.min(MAX_HEADER_SIZE, in.capacity() * 2));
+                    ((Buffer) in).flip();
+                    larger.put(in);
+                    in = larger;
+                }
+
+                int read = channel.read(in);
+                if (read < 0) {
+                    close();
+                    return;
+                }
+
+                lastActive = System.currentTimeMillis();
+                process();
+            }
+
+            /**
+             * Handles the next complete request in the input buffer, if any.
+             */
+            void process()
+                    throws IOException {
+                if (!out.isEmpty() || close)
+                    return;
+
+                int end = findHeaderEnd();
+                if (end < 0)
+                    return;
+
+                String head = new String(in.array(), 0, end - 4, StandardCharsets.ISO_8859_1);
+
+                ((Buffer) in).flip();
+                ((Buffer) in).position(end);
+                in.compact();
+                scanFrom = 0;
+
+                requests.incrementAndGet();
+                handle(head);
+
+                key.interestOps(SelectionKey.OP_WRITE);
+                write();
+            }
+
+            private int findHeaderEnd() {
+                byte[] data = in.array();
+                int limit = in.position();
+
+                for (int i = Math.max(0, scanFrom - 3); i + 3 < limit; i++) {
+                    if (data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r' && data[i + 3] == '\n')
+                        return i + 4;
+                }
+
+                scanFrom = limit;
+                return -1;
+            }
+
+            void write()
+                    throws IOException {
+                long budget = WRITE_BUDGET;
+
+                while (!out.isEmpty() && budget > 0) {
+                    Object next = out.peek();
+                    long written;
+
+                    if (next instanceof ByteBuffer) {
+                        ByteBuffer buffer = (ByteBuffer) next;
+                        written = channel.write(buffer);
+                        if (!buffer.hasRemaining())
+                            out.poll();
+                    } else {
+                        Region region = (Region) next;
+                        written = region.channel.transferTo(region.position, Math.min(region.remaining, budget), channel);
+                        region.position += written;
+                        region.remaining -= written;
+                        if (region.remaining == 0)
+                            out.poll();
+                    }
+
+                    if (written == 0)
+                        break;
+
+                    budget -= written;
+                    lastActive = System.currentTimeMillis();
+                }
+
+                if (!out.isEmpty())
+                    return;
+
+                /*
+                 * The response is complete.
+                 */
+                bytesSent.addAndGet(body);
+                rangesServed.addAndGet(ranges);
+                body = 0;
+                ranges = 0;
+                releaseFile();
+
+                if (close) {
+                    close();
+                    return;
+                }
+
+                key.interestOps(SelectionKey.OP_READ);
+                process();
+            }
+
+            private void handle(String message) {
+                String[] lines = message.split("\r\n");
+                String[] request = lines[0].split(" ");
+
+                if (request.length != 3 || !request[2].startsWith("HTTP/1.")) {
+                    error(request.length == 3 && request[2].startsWith("HTTP/") ? 505 : 400);
+                    return;
+                }
+
+                Map<String, String> headers = new HashMap<>();
+                for (int i = 1; i < lines.length; i++) {
+                    int colon = lines[i].indexOf(':');
+                    if (colon <= 0) {
+                        error(400);
+                        return;
+                    }
+
+                    String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                    String value = lines[i].substring(colon + 1).trim();
+                    headers.merge(name, value, (a, b) -> a + "," + b);
+                }
+
+                String connection = headers.getOrDefault("connection", "").toLowerCase(Locale.ROOT);
+                close = "HTTP/1.0".equals(request[2])
+                        ? !connection.contains("keep-alive")
+                        : connection.contains("close");
+
+                /*
+                 * Requests with a body are not expected,
+                 * skipping over them isn't worth it.
+                 */
+                if (headers.containsKey("transfer-encoding")
+                        || !"0".equals(headers.getOrDefault("content-length", "0"))) {
+                    error(400);
+                    return;
+                }
+
+                String method = request[0];
+                boolean head = "HEAD".equals(method);
+
+                if (!head && !"GET".equals(method)) {
+                    StringBuilder response = status(405);
+                    response.append("Allow: GET, HEAD").append(CRLF);
+                    send(response, 0);
+                    return;
+                }
+
+                String target = request[1];
+                if (!target.startsWith("/")) {
+                    /*
+                     * Absolute form, as sent to proxies.
+                     */
+                    int slash = target.indexOf('/', target.indexOf("://") + 3);
+                    target = target.indexOf("://") > 0 && slash > 0 ? target.substring(slash) : "";
+                }
+
+                Path path = resolve(target);
+                if (path == null) {
+                    error(404);
+                    return;
+                }
+
+                try {
+                    file = acquire(path);
+                } catch (IOException ex) {
+                    logger.log(Level.WARNING, "Failed to open " + path, ex);
+                    error(500);
+                    return;
+                }
+
+                if (file == null) {
+                    error(404);
+                    return;
+                }
+
+                serve(headers, head);
+            }
+
+            /**
+             * Sends the acquired file or the ranges of it requested.
+             */
+            private void serve(Map<String, String> headers, boolean head) {
+                long length = file.length;
+
+                String ifNoneMatch = headers.get("if-none-match");
+                String ifModifiedSince = headers.get("if-modified-since");
+                if (ifNoneMatch != null
+                        ? containsTag(ifNoneMatch, file.etag)
+                        : ifModifiedSince != null && notModifiedSince(ifModifiedSince, file.lastModified)) {
+                    send(validators(status(304)), -1);
+                    return;
+                }
+
+                /*
+                 * Only send ranges of the version the client already
+                 * has parts of, otherwise send the whole file.
+                 */
+                String ifRange = headers.get("if-range");
+                List<long[]> ranges = ifRange == null || ifRange.equals(file.etag) || ifRange.equals(file.lastModifiedHeader)
+                        ? parseRanges(headers.get("range"), length)
+                        : null;
+
+                if (ranges != null && ranges.isEmpty()) {
+                    StringBuilder response = validators(status(416));
+                    response.append("Content-Range: bytes */").append(length).append(CRLF);
+                    send(response, 0);
+                    return;
+                }
+
+                if (ranges != null)
+                    ranges = coalesce(ranges, length);
+
+                if (ranges != null && ranges.size() > maxRanges)
+                    ranges = null;
+
+                if (ranges == null) {
+                    StringBuilder response = validators(status(200));
+                    response.append("Content-Type: application/octet-stream").append(CRLF);
+                    send(response, length);
+                    if (!head && length > 0)
+                        out.add(new Region(file.channel, 0, length));
+                } else if (ranges.size() == 1) {
+                    long[] range = ranges.get(0);
+                    StringBuilder response = validators(status(206));
+                    response.append("Content-Type: application/octet-stream").append(CRLF);
+                    response.append("Content-Range: bytes ").append(range[0]).append('-').append(range[1])
+                            .append('/').append(length).append(CRLF);
+                    send(response, range[1] - range[0] + 1);
+                    if (!head) {
+                        out.add(new Region(file.channel, range[0], range[1] - range[0] + 1));
+                        this.ranges = 1;
+                    }
+                } else {
+                    sendMultipart(ranges, head);
+                }
+            }
+
+            private void sendMultipart(List<long[]> ranges, boolean head) {
+                long length = file.length;
+
+                /*
+                 * Build all part headers up front so we can
+                 * send a proper Content-Length.
+                 */
+                String boundary = newBoundary();
+                List<ByteBuffer> partHeaders = new ArrayList<>(ranges.size());
+                long contentLength = 0;
+
+                for (long[] range : ranges) {
+                    byte[] header = (CRLF + "--" + boundary + CRLF +
+                            "Content-Type: application/octet-stream" + CRLF +
+                            "Content-Range: bytes " + range[0] + "-" + range[1] + "/" + length + CRLF +
+                            CRLF).getBytes(StandardCharsets.US_ASCII);
+                    partHeaders.add(ByteBuffer.wrap(header));
+                    contentLength += header.length + range[1] - range[0] + 1;
+                }
+
+                ByteBuffer trailer = ByteBuffer.wrap((CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII));
+                contentLength += trailer.remaining();
+
+                StringBuilder response = validators(status(206));
+                response.append("Content-Type: multipart/byteranges; boundary=").append(boundary).append(CRLF);
+                send(response, contentLength);
+
+                if (head)
+                    return;
+
+                for (int i = 0; i < ranges.size(); i++) {
+                    long[] range = ranges.get(i);
+                    out.add(partHeaders.get(i));
+                    out.add(new Region(file.channel, range[0], range[1] - range[0] + 1));
+                }
+                out.add(trailer);
+                this.ranges = ranges.size();
+            }
+
+            private StringBuilder status(int status) {
+                StringBuilder response = new StringBuilder(256);
+                response.append("HTTP/1.1 ").append(status).append(' ').append(getReason(status)).append(CRLF);
+                response.append("Date: ").append(getDate()).append(CRLF);
+                response.append("Server: jzipupdate").append(CRLF);
+                return response;
+            }
+
+            private StringBuilder validators(StringBuilder response) {
+                response.append("Accept-Ranges: bytes").append(CRLF);
+                response.append("ETag: ").append(file.etag).append(CRLF);
+                response.append("Last-Modified: ").append(file.lastModifiedHeader).append(CRLF);
+                return response;
+            }
+
+            /**
+             * Queues the headers of a response, counting the
+             * body in the statistics once it's been sent.
+             *
+             * @param contentLength the length of the body, -1 if there's none at all
+             */
+            private void send(StringBuilder response, long contentLength) {
+                if (contentLength >= 0)
+                    response.append("Content-Length: ").append(contentLength).append(CRLF);
+                if (close)
+                    response.append("Connection: close").append(CRLF);
+                response.append(CRLF);
+
+                out.add(ByteBuffer.wrap(response.toString().getBytes(StandardCharsets.ISO_8859_1)));
+                body = Math.max(0, contentLength);
+            }
+
+            /**
+             * Sends an empty error response and closes the connection,
+             * unless the request has been read completely.
+             */
+            private void error(int status) {
+                if (status == 400 || status == 431 || status == 505)
+                    close = true;
+
+                send(status(status), 0);
+            }
+
+            private void releaseFile() {
+                if (file != null) {
+                    file.release();
+                    file = null;
+                }
+            }
+
+            void close() {
+                if (key != null)
+                    key.cancel();
+
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    logger.log(Level.FINE, "Failed to close connection", ex);
+                }
+
+                out.clear();
+                releaseFile();
+            }
+
+            @Override
+            public String toString() {
+                return getClass().getName() + "[" + channel + "]";
+            }
+        }
+    }
+
+    public static void main(String[] args)
+            throws IOException, InterruptedException {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: java de.vxart.net.ArchiveServer <directory> [port [address]]");
+            System.exit(1);
+        }
+
+        File root = new File(args[0]);
+        if (!root.isDirectory()) {
+            System.err.println("Not a directory: " + root);
+            System.exit(1);
+        }
+
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        InetAddress address = args.length > 2 ? InetAddress.getByName(args[2]) : InetAddress.getLoopbackAddress();
+
+        ArchiveServer server = new ArchiveServer(root, new InetSocketAddress(address, port));
+        server.start();
+
+        System.out.println("Serving " + root.getAbsolutePath() + " at " + server.getUrl(""));
+
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        Thread.currentThread().join();
+    }
+}
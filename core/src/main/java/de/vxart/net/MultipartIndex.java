@@ -0,0 +1,376 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.net;
+
+import de.vxart.io.ByteBufferInputStream;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Indexes a multipart MIME message stored in a file into a table of
+ * parts with the offset and length of their data and memory-maps the
+ * file, so the data of any part can be accessed in any order and by
+ * several threads at once without parsing the message again.
+ * <p>
+ * Note that on some platforms a mapped file can't be deleted until
+ * the mapping has been released, so {@link #close()} the index as soon
+ * as the data of its parts isn't needed anymore. Closing unmaps the file
+ * right away, so it has to happen after every use of the buffers and
+ * streams of the parts, e.g. once all threads reading them have been
+ * joined; reading them after that may crash the JVM rather than throw.
+ * Files larger than 2 GB can't be mapped and are rejected.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class MultipartIndex implements Iterable<MultipartIndex.Entry>, Closeable {
+    private final File file;
+    private final List<Entry> entries;
+    private volatile MappedByteBuffer data;
+
+
+    private MultipartIndex(File file, List<Entry> entries)
+            throws IOException {
+        this.file = file;
+        this.entries = Collections.unmodifiableList(entries);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+
+            /*
+             * A single mapping is addressed by int offsets.
+             */
+            if (length > Integer.MAX_VALUE)
+                throw new IOException("Can't map more than 2 GB, file has " + length + " bytes: " + file);
+
+            this.data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+    }
+
+    /**
+     * Indexes a file containing a multipart MIME message in a single
+     * sequential pass, skipping over the data of all parts.
+     *
+     * @param file     the file containing the multipart message
+     * @param boundary the boundary used to delimit the MIME parts
+     * @return the index of all parts
+     * @throws IOException if reading or parsing the file fails
+     */
+    public static MultipartIndex index(File file, String boundary)
+            throws IOException {
+        List<Entry> entries = new ArrayList<>();
+
+        try (InputStream input = new FileInputStream(file)) {
+            for (MultipartMessage.Part part : new MultipartMessage(input, boundary)) {
+                part.skip();
+                entries.add(new Entry(part.getHeaders(), part.getOffset(), part.getLength()));
+            }
+        } catch (RuntimeException rex) {
+            if (rex.getCause() instanceof IOException)
+                throw (IOException) rex.getCause();
+            throw rex;
+        }
+
+        return new MultipartIndex(file, entries);
+    }
+
+    /**
+     * Creates an index for a file containing a single, non-multipart
+     * body (e.g. the response to a request for a single byte-range),
+     * treating it as a message with exactly one part.
+     *
+     * @param file    the file containing the body
+     * @param headers the headers to associate with the single part
+     * @return an index with a single part spanning the whole file
+     * @throws IOException if mapping the file fails
+     */
+    public static MultipartIndex single(File file, Map<String, String> headers)
+            throws IOException {
+        List<Entry> entries = new ArrayList<>(1);
+        entries.add(new Entry(headers, 0, file.length()));
+
+        return new MultipartIndex(file, entries);
+    }
+
+    /**
+     * Creates an index for a file containing consecutive parts of known
+     * lengths without any delimiters or headers between them.
+     *
+     * @param file    the file containing the parts
+     * @param lengths the lengths of the parts in the order they appear
+     * @return an index with one part per length given
+     * @throws IOException if the lengths don't add up to the file length
+     *                     or mapping the file fails
+     */
+    public static MultipartIndex split(File file, long[] lengths)
+            throws IOException {
+        List<Entry> entries = new ArrayList<>(lengths.length);
+
+        long offset = 0;
+        for (long length : lengths) {
+            entries.add(new Entry(Collections.<String, String>emptyMap(), offset, length));
+            offset += length;
+        }
+
+        if (offset != file.length())
+            throw new IOException("Expected " + offset + " bytes of parts, found " + file.length() + ": " + file);
+
+        return new MultipartIndex(file, entries);
+    }
+
+    /**
+     * Creates a part for an arbitrary section of the file, e.g. to address
+     * data located by other means than the structure of the file.
+     *
+     * @param offset the offset of the part in the file
+     * @param length the length of the part
+     * @return the part
+     * @throws IOException if the part exceeds the file
+     */
+    public Entry part(long offset, long length)
+            throws IOException {
+        long capacity = mapping().capacity();
+        if (offset < 0 || length < 0 || offset + length > capacity)
+            throw new IOException("Part " + offset + "+" + length + " exceeds " + capacity + " bytes: " + file);
+
+        return new Entry(Collections.<String, String>emptyMap(), offset, length);
+    }
+
+    /**
+     * Splits a part into consecutive parts of known lengths, e.g. to
+     * get the data of several adjacent byte ranges requested as one.
+     *
+     * @param part    the part to split
+     * @param lengths the lengths of the parts in the order they appear
+     * @return one part per length given, sharing the headers of the part split
+     * @throws IOException if the lengths don't add up to the length of the part
+     */
+    public List<Entry> split(Entry part, long[] lengths)
+            throws IOException {
+        List<Entry> parts = new ArrayList<>(lengths.length);
+
+        long offset = part.getOffset();
+        for (long length : lengths) {
+            parts.add(new Entry(part.getHeaders(), offset, length));
+            offset += length;
+        }
+
+        if (offset != part.getOffset() + part.getLength())
+            throw new IOException("Expected " + (offset - part.getOffset()) + " bytes of parts, found " + part.getLength() + ": " + part);
+
+        return parts;
+    }
+
+    /**
+     * Returns the file this index has been created from, e.g. to transfer
+     * the data of parts with {@link FileChannel#transferTo} directly.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of parts in the message.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the part at the given position in the message.
+     */
+    public Entry get(int index) {
+        return entries.get(index);
+    }
+
+    /**
+     * Returns an Iterator over all parts in the order of the message.
+     */
+    public Iterator<Entry> iterator() {
+        return entries.iterator();
+    }
+
+    /**
+     * Returns the data of a part as a read-only slice of the mapped file.
+     * Every call returns an independent buffer, so this method can be
+     * used by several threads at once. The buffer must not be used
+     * anymore once the index has been closed, see {@link #close()}.
+     *
+     * @param entry the part to get the data for
+     * @return a buffer containing exactly the data of the part
+     * @throws IllegalStateException if the index has been closed
+     */
+    public ByteBuffer slice(Entry entry) {
+        ByteBuffer slice = ((ByteBuffer) mapping()).duplicate();
+        ((Buffer) slice).position((int) entry.offset);
+        ((Buffer) slice).limit((int) (entry.offset + entry.length));
+
+        return slice.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Provides a stream reading the data of a part from the mapped file.
+     *
+     * @param entry the part to read the data of
+     * @return a stream containing the data of the part
+     */
+    public InputStream openStream(Entry entry) {
+        return new ByteBufferInputStream(slice(entry));
+    }
+
+    /**
+     * Writes the data of a part straight from the mapped
+     * file to the given channel.
+     *
+     * @param entry  the part to transfer the data of
+     * @param target the channel to write the data to
+     * @return the number of bytes written
+     * @throws IOException if writing to the channel fails
+     */
+    public long transferTo(Entry entry, WritableByteChannel target)
+            throws IOException {
+        ByteBuffer slice = slice(entry);
+        long written = 0;
+
+        while (slice.hasRemaining()) {
+            written += target.write(slice);
+        }
+
+        return written;
+    }
+
+    /**
+     * Releases the mapping of the file so it can be deleted right away,
+     * also on platforms keeping mapped files open until the mapping has
+     * been garbage collected.
+     * <p>
+     * This isn't guarded against concurrent reads: the caller has to make
+     * sure that every use of the buffers returned by {@link #slice} and the
+     * streams returned by {@link #openStream} happens-before closing, as
+     * touching an unmapped buffer may crash the JVM.
+     */
+    public void close() {
+        MappedByteBuffer mapping;
+
+        synchronized (this) {
+            mapping = data;
+            data = null;
+        }
+
+        if (mapping != null)
+            unmap(mapping);
+    }
+
+    private MappedByteBuffer mapping() {
+        MappedByteBuffer mapping = data;
+        if (mapping == null)
+            throw new IllegalStateException("Index has been closed: " + file);
+
+        return mapping;
+    }
+
+    /**
+     * Unmaps a buffer right away instead of waiting for the garbage
+     * collector, through the cleaner of Java 9+ or the one of Java 8.
+     * If neither is accessible, the mapping is left to the collector.
+     */
+    private static void unmap(MappedByteBuffer mapping) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException nsmex) {
+                invokeCleaner = null;
+            }
+
+            if (invokeCleaner != null) {
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), mapping);
+            } else {
+                Method getCleaner = mapping.getClass().getMethod("cleaner");
+                getCleaner.setAccessible(true);
+                Object cleaner = getCleaner.invoke(mapping);
+                if (cleaner != null)
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception | LinkageError ex) {
+            /*
+             * Not fatal, the file just can't be deleted as early.
+             */
+        }
+    }
+
+    /**
+     * Describes a single part of an indexed multipart message.
+     */
+    public static class Entry {
+        private final Map<String, String> headers;
+        private final long offset;
+        private final long length;
+
+
+        Entry(Map<String, String> headers, long offset, long length) {
+            this.headers = headers;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Returns the headers of the part with lower-cased names.
+         */
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * Returns the offset of the data of the part in the file.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Returns the length of the data of the part.
+         */
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getName() + "[offset=" + offset + ";length=" + length + "]";
+        }
+    }
+}
@@ -0,0 +1,651 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Parses Multipart MIME Messages as defined in RFC 2046.
+ * <p>
+ * The message is read in big chunks into a single buffer which is reused
+ * for the whole message. Part headers are parsed straight from the buffer
+ * and the data payload of each part is delimited by searching for the next
+ * "CRLF--boundary" delimiter in the buffer (using the Boyer-Moore-Horspool
+ * algorithm), so optional headers like "Content-Length" or "Content-Range"
+ * are not needed to find the end of a part.
+ * <p>
+ * The data of a part can be read either through {@link Part#openStream()}
+ * or as read-only slices of the internal buffer using {@link Part#nextSlice()},
+ * neither of which copies the data more than once.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class MultipartMessage
+        implements
+        Iterable<MultipartMessage.Part>,
+        Iterator<MultipartMessage.Part> {
+    /**
+     * The default size of the parse buffer. Part header
+     * sections have to fit into the buffer as a whole.
+     */
+    public final static int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final static byte[] CRLF = {0x0D, 0x0A};
+    private final static byte[] DASH_DELIM = {0x2D, 0x2D};
+
+    /*
+     * The delimiter between parts is CRLF, two dashes and the
+     * boundary; the shift table is used by the Horspool search.
+     */
+    private final byte[] delimiter;
+    private final int[] shift = new int[256];
+
+    private final InputStream input;
+    private final byte[] buf;
+    private int pos, limit;
+    private boolean eof;
+
+    /*
+     * The offset in the message of the first byte in the buffer,
+     * starting out negative because of the virtual CRLF prefix.
+     */
+    private long base = -CRLF.length;
+
+    /*
+     * No delimiter starts before scanFrom, delimiterAt
+     * is the start of the delimiter if already found.
+     */
+    private int scanFrom;
+    private int delimiterAt = -1;
+
+    private boolean started, finished, lookahead;
+    private Part previousPart;
+
+
+    /**
+     * Constructs a MultipartMessage that parses from the given
+     * stream using the specified boundary to separate parts.
+     *
+     * @param input    the stream to read the multipart MIME message from
+     * @param boundary the boundary used to delimit the MIME parts
+     */
+    public MultipartMessage(InputStream input, String boundary) {
+        this(input, boundary, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a MultipartMessage that parses from the given stream
+     * using the specified boundary and a parse buffer of the given size.
+     *
+     * @param input      the stream to read the multipart MIME message from
+     * @param boundary   the boundary used to delimit the MIME parts
+     * @param bufferSize the size of the parse buffer
+     */
+    public MultipartMessage(InputStream input, String boundary, int bufferSize) {
+        byte[] boundaryBytes = boundary.getBytes(StandardCharsets.US_ASCII);
+
+        delimiter = new byte[CRLF.length + DASH_DELIM.length + boundaryBytes.length];
+        System.arraycopy(CRLF, 0, delimiter, 0, CRLF.length);
+        System.arraycopy(DASH_DELIM, 0, delimiter, CRLF.length, DASH_DELIM.length);
+        System.arraycopy(boundaryBytes, 0, delimiter, CRLF.length + DASH_DELIM.length, boundaryBytes.length);
+
+        if (bufferSize < 4 * delimiter.length)
+            throw new IllegalArgumentException("Buffer too small for boundary: " + bufferSize);
+
+        for (int i = 0; i < shift.length; i++) {
+            shift[i] = delimiter.length;
+        }
+        for (int i = 0; i < delimiter.length - 1; i++) {
+            shift[delimiter[i] & 0xFF] = delimiter.length - 1 - i;
+        }
+
+        this.input = input;
+        this.buf = new byte[bufferSize];
+
+        /*
+         * The first boundary may appear at the very beginning of
+         * the message without a preceding CRLF; pretending there
+         * was one lets us always search for the full delimiter.
+         */
+        buf[0] = CRLF[0];
+        buf[1] = CRLF[1];
+        limit = 2;
+    }
+
+    /**
+     * Reads more data into the buffer, moving any unconsumed data to the
+     * front first. Returns false if the end of the input has been reached.
+     */
+    private boolean fill()
+            throws IOException {
+        if (eof)
+            return false;
+
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            base += pos;
+            scanFrom -= pos;
+            if (delimiterAt >= 0)
+                delimiterAt -= pos;
+            pos = 0;
+        }
+
+        if (limit == buf.length)
+            throw new IOException("Multipart buffer exhausted, header section too long?");
+
+        int read = input.read(buf, limit, buf.length - limit);
+        if (read < 0) {
+            eof = true;
+            return false;
+        }
+
+        limit += read;
+        return true;
+    }
+
+    /**
+     * Makes sure at least the given number of bytes is
+     * available in the buffer, returns false on EOF.
+     */
+    private boolean ensure(int bytes)
+            throws IOException {
+        while (limit - pos < bytes) {
+            if (!fill())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Searches the buffered data for the next delimiter using
+     * the Boyer-Moore-Horspool algorithm without reading more.
+     *
+     * @return the buffer index of the delimiter or -1 if not (yet) found
+     */
+    private int findDelimiter() {
+        if (delimiterAt >= pos)
+            return delimiterAt;
+
+        int m = delimiter.length;
+        int i = Math.max(pos, scanFrom);
+
+        while (i + m <= limit) {
+            int j = m - 1;
+            while (buf[i + j] == delimiter[j]) {
+                if (j == 0) {
+                    scanFrom = i;
+                    delimiterAt = i;
+                    return i;
+                }
+                j--;
+            }
+            i += shift[buf[i + m - 1] & 0xFF];
+        }
+
+        scanFrom = i;
+        return -1;
+    }
+
+    /**
+     * Returns the number of bytes at the current position which are part
+     * of the current part's data, reading more data as necessary. Returns
+     * zero if the current position is at the delimiter.
+     */
+    private int payloadAvailable()
+            throws IOException {
+        while (true) {
+            int at = findDelimiter();
+            if (at >= 0)
+                return at - pos;
+
+            /*
+             * Everything before scanFrom can't be the start of
+             * a delimiter, so it's safe to hand it out as data.
+             */
+            if (scanFrom > pos)
+                return scanFrom - pos;
+
+            if (!fill())
+                throw new IOException("Unexpected end of multipart message, missing boundary");
+        }
+    }
+
+    /**
+     * Consumes the delimiter at the current position.
+     */
+    private void consumeDelimiter() {
+        pos += delimiter.length;
+        scanFrom = pos;
+        delimiterAt = -1;
+    }
+
+    /**
+     * Discards anything up to and including the next delimiter.
+     *
+     * @return the number of bytes discarded before the delimiter
+     */
+    private long skipToDelimiter()
+            throws IOException {
+        long skipped = 0;
+        int available;
+        while ((available = payloadAvailable()) > 0) {
+            pos += available;
+            skipped += available;
+        }
+        consumeDelimiter();
+        return skipped;
+    }
+
+    /**
+     * Reads the rest of the boundary line right after a delimiter.
+     *
+     * @return true if another part follows, false if this was the close delimiter
+     */
+    private boolean readBoundarySuffix()
+            throws IOException {
+        if (!ensure(2))
+            return false;
+
+        if (buf[pos] == '-' && buf[pos + 1] == '-') {
+            pos += 2;
+            return false;
+        }
+
+        /*
+         * Skip any transport padding up to the CRLF.
+         */
+        while (ensure(1) && (buf[pos] == ' ' || buf[pos] == '\t')) {
+            pos++;
+        }
+
+        if (ensure(2) && buf[pos] == '\r' && buf[pos + 1] == '\n') {
+            pos += 2;
+        } else if (ensure(1) && buf[pos] == '\n') {
+            pos++;
+        } else {
+            throw new IOException("Malformed multipart boundary line");
+        }
+
+        scanFrom = pos;
+        delimiterAt = -1;
+        return true;
+    }
+
+    /**
+     * Parses the header lines of a part up to the empty line
+     * separating them from the data.
+     */
+    private Map<String, String> readHeaders()
+            throws IOException {
+        Map<String, String> headers = new HashMap<>();
+
+        while (true) {
+            int eol = -1;
+            int from = 0;
+            while (eol < 0) {
+                for (int i = pos + from; i < limit; i++) {
+                    if (buf[i] == '\n') {
+                        eol = i;
+                        break;
+                    }
+                }
+
+                if (eol < 0) {
+                    from = limit - pos;
+                    if (!fill())
+                        throw new IOException("Unexpected end of multipart message in part headers");
+                }
+            }
+
+            int end = (eol > pos && buf[eol - 1] == '\r') ? eol - 1 : eol;
+            if (end == pos) {
+                pos = eol + 1;
+                break;
+            }
+
+            String line = new String(buf, pos, end - pos, StandardCharsets.US_ASCII);
+            pos = eol + 1;
+
+            int colon = line.indexOf(':');
+            if (colon < 0)
+                throw new IOException("Malformed part header: " + line);
+
+            // TODO lower-casing header names might be a problem
+            String headerName = line.substring(0, colon).trim().toLowerCase();
+            String headerValue = line.substring(colon + 1).trim();
+
+            headers.put(headerName, headerValue);
+        }
+
+        scanFrom = pos;
+        delimiterAt = -1;
+        return headers;
+    }
+
+    /**
+     * Returns an Iterator over all parts of this multipart message.
+     *
+     * @return an Iterator over all parts
+     */
+    public Iterator<MultipartMessage.Part> iterator() {
+        return this;
+    }
+
+    /**
+     * Returns true if there's a next part available.
+     *
+     * @return true if there's a next part available, false otherwise
+     */
+    public boolean hasNext() {
+        if (finished)
+            return false;
+
+        if (lookahead)
+            return true;
+
+        try {
+            if (previousPart != null) {
+                /*
+                 * Ensure that the parser is right after the
+                 * delimiter following the previous part.
+                 */
+                previousPart.skip();
+                previousPart = null;
+            } else if (!started) {
+                /*
+                 * Find the boundary preceding the first part
+                 * (discarding the preamble if there is one)
+                 */
+                skipToDelimiter();
+                started = true;
+            }
+
+            if (!readBoundarySuffix()) {
+                /*
+                 * This closes any streams to the tmp file so deleteOnExit works,
+                 * see http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4171239.
+                 * Thanks pepe :)
+                 */
+                finished = true;
+                input.close();
+                return false;
+            }
+
+            lookahead = true;
+            return true;
+        } catch (IOException ioex) {
+            throw new RuntimeException(ioex);
+        }
+    }
+
+    /**
+     * Returns the next part from this multipart message.
+     *
+     * @return the next part from this multipart message
+     */
+    public MultipartMessage.Part next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        try {
+            lookahead = false;
+
+            Part part = new Part(readHeaders());
+
+            previousPart = part;
+
+            return part;
+        } catch (IOException ioex) {
+            throw new RuntimeException(ioex);
+        }
+    }
+
+    /**
+     * This method is unsupported for MultipartMessages.
+     *
+     * @throws UnsupportedOperationException
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    public class Part {
+        private final Map<String, String> headers;
+        private final InputStream data;
+        private final long offset;
+        private long length = -1;
+        private boolean done;
+
+
+        /**
+         * Constructs a new Part with the specified headers whose
+         * data starts at the current position of the parser.
+         *
+         * @param headers the multipart headers for this Part
+         */
+        private Part(Map<String, String> headers) {
+            this.headers = headers;
+            this.data = new PartInputStream();
+            this.offset = base + pos;
+        }
+
+        /*
+         * Records the length of the data once the parser reached
+         * the delimiter following this part and consumes it.
+         */
+        private void finish() {
+            length = base + pos - offset;
+            consumeDelimiter();
+            done = true;
+        }
+
+        /**
+         * Skips over the data of this Part. Calling this
+         * method more than once does not have any effect.
+         *
+         * @return true if any actually data has been skipped, false otherwise
+         */
+        public boolean skip() {
+            if (done)
+                return false;
+
+            try {
+                boolean skipped = false;
+                int available;
+                while ((available = payloadAvailable()) > 0) {
+                    pos += available;
+                    skipped = true;
+                }
+                finish();
+                return skipped;
+            } catch (IOException ioex) {
+                throw new RuntimeException("Failed to skip data", ioex);
+            }
+        }
+
+        /**
+         * Returns the next chunk of data of this part as a read-only
+         * slice of the parser's internal buffer, or null at the end of
+         * the part. The slice is only valid until the next call to any
+         * method of this part or its message.
+         *
+         * @return the next chunk of data or null if there is no more data
+         * @throws IOException if reading the message fails
+         */
+        public ByteBuffer nextSlice()
+                throws IOException {
+            if (done)
+                return null;
+
+            int available = payloadAvailable();
+            if (available == 0) {
+                finish();
+                return null;
+            }
+
+            ByteBuffer slice = ByteBuffer.wrap(buf, pos, available).slice().asReadOnlyBuffer();
+            pos += available;
+            return slice;
+        }
+
+        /**
+         * Writes the remaining data of this part straight from the
+         * parser's buffer to the given stream.
+         *
+         * @param out the stream to write the data to
+         * @return the number of bytes written
+         * @throws IOException if reading the message or writing the data fails
+         */
+        public long transferTo(OutputStream out)
+                throws IOException {
+            long transferred = 0;
+
+            if (done)
+                return transferred;
+
+            int available;
+            while ((available = payloadAvailable()) > 0) {
+                out.write(buf, pos, available);
+                pos += available;
+                transferred += available;
+            }
+
+            finish();
+
+            return transferred;
+        }
+
+        /**
+         * Provides a stream containing the data of this part.
+         *
+         * @return a stream containing the data of this part
+         */
+        public InputStream openStream() {
+            return data;
+        }
+
+        /**
+         * Returns the offset of the first data byte of this
+         * part relative to the start of the message.
+         *
+         * @return the offset of the data of this part
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Returns the length of the data of this part, which is only
+         * known once the data has been read completely or skipped.
+         *
+         * @return the length of the data or -1 if not known yet
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Returns all headers associated with this part.
+         *
+         * @return all headers associated with this part
+         */
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * Reads the data of the enclosing part straight from the
+         * parser's buffer and signals EOF at the next delimiter.
+         */
+        private class PartInputStream extends InputStream {
+
+            @Override
+            public int read()
+                    throws IOException {
+                if (done)
+                    return -1;
+
+                if (payloadAvailable() == 0) {
+                    finish();
+                    return -1;
+                }
+
+                return buf[pos++] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len)
+                    throws IOException {
+                if (done)
+                    return -1;
+
+                if (len == 0)
+                    return 0;
+
+                int available = payloadAvailable();
+                if (available == 0) {
+                    finish();
+                    return -1;
+                }
+
+                int n = Math.min(len, available);
+                System.arraycopy(buf, pos, b, off, n);
+                pos += n;
+
+                return n;
+            }
+
+            @Override
+            public long skip(long n)
+                    throws IOException {
+                if (done || n <= 0)
+                    return 0;
+
+                int available = payloadAvailable();
+                int skipped = (int) Math.min(n, available);
+                pos += skipped;
+
+                return skipped;
+            }
+
+            @Override
+            public int available() {
+                if (done)
+                    return 0;
+
+                int at = delimiterAt >= pos ? delimiterAt : scanFrom;
+                return Math.max(0, at - pos);
+            }
+
+            /**
+             * "Closes" the InputStream by skipping all remaining data.
+             */
+            @Override
+            public void close() {
+                Part.this.skip();
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zip;
+
+import java.nio.ByteBuffer;
+
+import static de.vxart.zip.ZipConstants.CENTRAL_DIRECTORY;
+import static de.vxart.zip.ZipConstants.CENTRAL_DIRECTORY_LENGTH;
+import static de.vxart.zip.ZipConstants.ZIP64_EXTRA_FIELD;
+
+/**
+ * A reusable view onto "Central Directory Record" blocks, see
+ * {@link ZipHeaderView} and {@link CentralDirectoryRecord}.
+ * <p>
+ * Sizes and offsets too large for their 32-bit fields are read from the
+ * ZIP64 extended information in the extra field instead.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class CentralDirectoryRecordView extends ZipHeaderView {
+
+    public CentralDirectoryRecordView() {
+        super(CENTRAL_DIRECTORY, CENTRAL_DIRECTORY_LENGTH);
+    }
+
+    /**
+     * Positions this view on the CDR starting at the given offset.
+     *
+     * @param buffer the buffer containing the CDR block
+     * @param offset the absolute offset of the CDR in the buffer
+     * @return this view
+     */
+    public CentralDirectoryRecordView wrap(ByteBuffer buffer, int offset) {
+        position(buffer, offset);
+        return this;
+    }
+
+    public int getVersionMadeBy() {
+        return u16(4);
+    }
+
+    public int getVersionNeededToExtract() {
+        return u16(6);
+    }
+
+    public int getFlag() {
+        return u16(8);
+    }
+
+    public int getCompressionMethod() {
+        return u16(10);
+    }
+
+    public int getLastModificationTime() {
+        return u16(12);
+    }
+
+    public int getLastModificationDate() {
+        return u16(14);
+    }
+
+    public long getCrc() {
+        return u32(16);
+    }
+
+    public long getCompressedSize() {
+        long size = u32(20);
+        if (size != 0xFFFFFFFFL)
+            return size;
+
+        return zip64(u32(24) == 0xFFFFFFFFL ? 1 : 0);
+    }
+
+    public long getUncompressedSize() {
+        long size = u32(24);
+        if (size != 0xFFFFFFFFL)
+            return size;
+
+        return zip64(0);
+    }
+
+    public int getNameLength() {
+        return u16(28);
+    }
+
+    public int getExtraLength() {
+        return u16(30);
+    }
+
+    public int getFileCommentLength() {
+        return u16(32);
+    }
+
+    public int getStartDiskNumber() {
+        return u16(34);
+    }
+
+    public int getInternalFileAttributes() {
+        return u16(36);
+    }
+
+    public long getExternalFileAttributes() {
+        return u32(38);
+    }
+
+    public long getOffsetToLocalFileHeader() {
+        long offset = u32(42);
+        if (offset != 0xFFFFFFFFL)
+            return offset;
+
+        int index = 0;
+        if (u32(24) == 0xFFFFFFFFL)
+            index++;
+        if (u32(20) == 0xFFFFFFFFL)
+            index++;
+
+        return zip64(index);
+    }
+
+    /**
+     * Reads the given 64-bit value from the ZIP64 extended information
+     * in the extra field; it only contains the values whose 32-bit fields
+     * overflowed, in the order uncompressed size, compressed size, offset.
+     */
+    private long zip64(int index) {
+        int field = size + getNameLength();
+        int end = field + getExtraLength();
+
+        while (field + 4 <= end) {
+            int id = u16(field);
+            int length = u16(field + 2);
+
+            if (id == ZIP64_EXTRA_FIELD) {
+                if (8 * (index + 1) > length || field + 4 + length > end)
+                    break;
+                return buffer.getLong(offset + field + 4 + 8 * index);
+            }
+
+            field += 4 + length;
+        }
+
+        throw new IllegalStateException("ZIP64 extended information missing: " + getName());
+    }
+
+    /**
+     * Decodes the name of the entry following the fixed-size block.
+     */
+    public String getName() {
+        return string(size, getNameLength());
+    }
+
+    /**
+     * Returns the total length of the current record including the
+     * variable-length name, extra field and comment, i.e. the distance
+     * to the next record in the Central Directory.
+     */
+    public int getTotalLength() {
+        return size + getNameLength() + getExtraLength() + getFileCommentLength();
+    }
+}
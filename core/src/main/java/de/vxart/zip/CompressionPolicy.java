@@ -0,0 +1,50 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zip;
+
+/**
+ * Decides how entries get compressed when writing ZIP files.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public interface CompressionPolicy {
+    /**
+     * Returned by {@link #getLevel(String, long)} to store an entry uncompressed.
+     */
+    int STORED = -2;
+
+    /**
+     * Returns the Deflater compression level (0-9 or -1 for the
+     * default level) to use for an entry, or {@link #STORED} to
+     * store the entry without even trying to compress it.
+     *
+     * @param name the name of the entry
+     * @param size the uncompressed size of the entry or -1 if not known
+     * @return the compression level or STORED
+     */
+    int getLevel(String name, long size);
+
+    /**
+     * Decides whether compressing an entry actually pays off, based on
+     * a sample of its data; if not, the entry will be stored instead.
+     *
+     * @param name           the name of the entry
+     * @param sampleSize     the uncompressed size of the sample
+     * @param compressedSize the compressed size of the sample
+     * @return true to compress the entry, false to store it
+     */
+    boolean isWorthCompressing(String name, long sampleSize, long compressedSize);
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zip;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Stores entries with extensions of already compressed formats (images,
+ * audio, video and archives), uses the best compression for small entries
+ * and faster levels for big ones, and stores any entry that doesn't shrink
+ * by at least 5% when compressed.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class DefaultCompressionPolicy implements CompressionPolicy {
+    /**
+     * Extensions of formats that are compressed already.
+     */
+    public static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "png", "gif", "jpg", "jpeg", "webp",
+            "ogg", "oga", "mp3", "m4a", "flac", "opus",
+            "mp4", "m4v", "webm", "mkv",
+            "zip", "jar", "gz", "tgz", "bz2", "xz", "7z", "rar", "pack"));
+
+    private final Set<String> storedExtensions;
+    private final double minSavings;
+
+
+    /**
+     * Creates a policy storing entries with the default extensions.
+     */
+    public DefaultCompressionPolicy() {
+        this(COMPRESSED_EXTENSIONS, 0.05);
+    }
+
+    /**
+     * Creates a policy storing entries with the given (lower-case) extensions
+     * and any entry whose compressed size saves less than the given share.
+     *
+     * @param storedExtensions the extensions of entries to store
+     * @param minSavings       the minimum share (0.0 - 1.0) compression has to save
+     */
+    public DefaultCompressionPolicy(Set<String> storedExtensions, double minSavings) {
+        this.storedExtensions = storedExtensions;
+        this.minSavings = minSavings;
+    }
+
+    public int getLevel(String name, long size) {
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0 && dot > name.lastIndexOf('/')
+                && storedExtensions.contains(name.substring(dot + 1).toLowerCase(Locale.ENGLISH)))
+            return STORED;
+
+        if (size < 0)
+            return Deflater.DEFAULT_COMPRESSION;
+        else if (size < 64 * 1024)
+            return Deflater.BEST_COMPRESSION;
+        else if (size < 16 * 1024 * 1024)
+            return Deflater.DEFAULT_COMPRESSION;
+        else
+            return Deflater.BEST_SPEED;
+    }
+
+    public boolean isWorthCompressing(String name, long sampleSize, long compressedSize) {
+        return compressedSize <= sampleSize * (1.0 - minSavings);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import static de.vxart.zip.ZipConstants.*;
+
+/**
+ * A reusable view onto "End of Central Directory" blocks, see
+ * {@link ZipHeaderView} and {@link EndOfCentralDirectory}.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class EndOfCentralDirectoryView extends ZipHeaderView {
+    /**
+     * The maximum length of the ZIP file comment following the EOCD.
+     */
+    public static final int MAX_COMMENT_LENGTH = 0xFFFF;
+
+    /*
+     * Size and offset of the Central Directory from the ZIP64
+     * End of Central Directory, -1 if there is none.
+     */
+    private long zip64Size = -1;
+    private long zip64Offset = -1;
+
+
+    public EndOfCentralDirectoryView() {
+        super(END_OF_CENTRAL_DIRECTORY, END_OF_CENTRAL_DIRECTORY_LENGTH);
+    }
+
+    /**
+     * Positions this view on the EOCD starting at the given offset.
+     *
+     * @param buffer the buffer containing the EOCD block
+     * @param offset the absolute offset of the EOCD in the buffer
+     * @return this view
+     */
+    public EndOfCentralDirectoryView wrap(ByteBuffer buffer, int offset) {
+        position(buffer, offset);
+        zip64Size = -1;
+        zip64Offset = -1;
+        return this;
+    }
+
+    /**
+     * Locates the EOCD of a ZIP file with a single bulk read of the file's
+     * tail and positions a new view on it.
+     * <p>
+     * The EOCD is followed by a ZIP file comment of up to 64 KB, so we
+     * read the last 22 + 65535 bytes (or the whole file if it's shorter)
+     * and search backwards for the signature, accepting the first
+     * candidate whose comment length reaches exactly to the end of the
+     * file (or at least doesn't reach past it).
+     * <p>
+     * If the EOCD says the Central Directory is too large or too far
+     * into the file for its 32-bit fields, its size and offset are read
+     * from the ZIP64 End of Central Directory the locator right in front
+     * of the EOCD points to.
+     *
+     * @param channel the channel to the ZIP file
+     * @return a view positioned on the EOCD
+     * @throws IOException if the EOCD couldn't be found
+     */
+    public static EndOfCentralDirectoryView find(FileChannel channel)
+            throws IOException {
+        long fileLength = channel.size();
+        int tailLength = (int) Math.min(fileLength, END_OF_CENTRAL_DIRECTORY_LENGTH + MAX_COMMENT_LENGTH);
+
+        ByteBuffer tail = ByteBuffer.allocate(tailLength);
+        long position = fileLength - tailLength;
+        while (tail.hasRemaining()) {
+            if (channel.read(tail, position + tail.position()) < 0)
+                throw new IOException("Unexpected end of ZIP file while reading EOCD");
+        }
+
+        EndOfCentralDirectoryView eocd = new EndOfCentralDirectoryView();
+        int candidate = -1;
+
+        for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_LENGTH; i >= 0; i--) {
+            if (tail.get(i) != 0x50 || tail.get(i + 1) != 0x4B ||
+                    tail.get(i + 2) != 0x05 || tail.get(i + 3) != 0x06)
+                continue;
+
+            eocd.wrap(tail, i);
+            int end = i + END_OF_CENTRAL_DIRECTORY_LENGTH + eocd.getCommentLength();
+
+            if (end == tailLength)
+                return eocd.resolveZip64(channel, tail, position);
+
+            if (end < tailLength && candidate == -1)
+                candidate = i;
+        }
+
+        if (candidate == -1)
+            throw new IOException("No End of Central Directory found, not a ZIP file?");
+
+        return eocd.wrap(tail, candidate).resolveZip64(channel, tail, position);
+    }
+
+    /**
+     * Reads the ZIP64 End of Central Directory if this EOCD needs one.
+     *
+     * @param tail         the buffer this view is positioned in
+     * @param tailPosition the position of the buffer in the file
+     */
+    private EndOfCentralDirectoryView resolveZip64(FileChannel channel, ByteBuffer tail, long tailPosition)
+            throws IOException {
+        boolean overflow = u32(12) == 0xFFFFFFFFL || u32(16) == 0xFFFFFFFFL;
+
+        int locator = offset - ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_LENGTH;
+        if (locator < 0 || tail.getInt(locator) != ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR) {
+            if (overflow)
+                throw new IOException("ZIP64 End of Central Directory Locator missing");
+
+            /*
+             * Just too many entries for the 16-bit count,
+             * the size of the Central Directory is all we need.
+             */
+            return this;
+        }
+
+        long recordOffset = tail.getLong(locator + 8);
+        if (recordOffset < 0 || recordOffset > tailPosition + locator - ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH)
+            throw new IOException("Invalid ZIP64 End of Central Directory offset: " + recordOffset);
+
+        ByteBuffer record = ByteBuffer.allocate(ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH);
+        record.order(ByteOrder.LITTLE_ENDIAN);
+        while (record.hasRemaining()) {
+            if (channel.read(record, recordOffset + record.position()) < 0)
+                throw new IOException("Unexpected end of ZIP file while reading ZIP64 EOCD");
+        }
+
+        if (record.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY)
+            throw new IOException("No ZIP64 End of Central Directory at offset " + recordOffset);
+
+        zip64Size = record.getLong(40);
+        zip64Offset = record.getLong(48);
+
+        if (zip64Size < 0 || zip64Offset < 0 || zip64Offset + zip64Size > recordOffset)
+            throw new IOException("Invalid Central Directory in ZIP64 End of Central Directory");
+
+        return this;
+    }
+
+    public int getCurrentDiskNumber() {
+        return u16(4);
+    }
+
+    public int getCdStartDiskNumber() {
+        return u16(6);
+    }
+
+    public int getCentralDirectoryRecordsThisDisk() {
+        return u16(8);
+    }
+
+    /**
+     * Returns the number of CDRs; note this will be 0xFFFF for
+     * archives with more than 65534 entries (ZIP64), callers should
+     * rely on {@link #getCentralDirectorySize()} instead.
+     */
+    public int getCentralDirectoryRecordsAllDisks() {
+        return u16(10);
+    }
+
+    /**
+     * Returns the size of the Central Directory, taken from the
+     * ZIP64 End of Central Directory if there is one.
+     */
+    public long getCentralDirectorySize() {
+        return zip64Size >= 0 ? zip64Size : u32(12);
+    }
+
+    /**
+     * Returns the offset of the Central Directory, taken from the
+     * ZIP64 End of Central Directory if there is one.
+     */
+    public long getCentralDirectoryOffset() {
+        return zip64Offset >= 0 ? zip64Offset : u32(16);
+    }
+
+    public int getCommentLength() {
+        return u16(20);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zip;
+
+import java.nio.ByteBuffer;
+
+import static de.vxart.zip.ZipConstants.LOCAL_FILE_HEADER;
+import static de.vxart.zip.ZipConstants.LOCAL_FILE_HEADER_LENGTH;
+
+/**
+ * A reusable view onto "Local File Header" blocks, see
+ * {@link ZipHeaderView} and {@link LocalFileHeader}.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class LocalFileHeaderView extends ZipHeaderView {
+
+    public LocalFileHeaderView() {
+        super(LOCAL_FILE_HEADER, LOCAL_FILE_HEADER_LENGTH);
+    }
+
+    /**
+     * Positions this view on the LFH starting at the given offset.
+     *
+     * @param buffer the buffer containing the LFH block
+     * @param offset the absolute offset of the LFH in the buffer
+     * @return this view
+     */
+    public LocalFileHeaderView wrap(ByteBuffer buffer, int offset) {
+        position(buffer, offset);
+        return this;
+    }
+
+    public int getVersionNeededToExtract() {
+        return u16(4);
+    }
+
+    public int getFlag() {
+        return u16(6);
+    }
+
+    public int getCompressionMethod() {
+        return u16(8);
+    }
+
+    public int getLastModificationTime() {
+        return u16(10);
+    }
+
+    public int getLastModificationDate() {
+        return u16(12);
+    }
+
+    public long getCrc() {
+        return u32(14);
+    }
+
+    public long getCompressedSize() {
+        return u32(18);
+    }
+
+    public long getUncompressedSize() {
+        return u32(22);
+    }
+
+    public int getNameLength() {
+        return u16(26);
+    }
+
+    public int getExtraLength() {
+        return u16(28);
+    }
+
+    /**
+     * Decodes the name of the entry following the fixed-size block.
+     */
+    public String getName() {
+        return string(size, getNameLength());
+    }
+
+    /**
+     * Returns the absolute offset of the entry data in the buffer,
+     * i.e. the first byte after the name and extra field.
+     */
+    public int getDataOffset() {
+        return offset + size + getNameLength() + getExtraLength();
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zip;
+
+import de.vxart.io.CodecPool;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static de.vxart.zip.ZipConstants.METHOD_DEFLATED;
+import static de.vxart.zip.ZipConstants.METHOD_STORED;
+
+/**
+ * Writes ZIP files compressing entries on several threads at once.
+ * <p>
+ * The data of every entry is read on the calling thread in chunks of
+ * 128 KB which are deflated independently on a pool of worker threads
+ * (each chunk ending with a sync flush, so the compressed chunks simply
+ * concatenate into one valid deflate stream, like pigz does). A single
+ * writer thread writes the chunks into the archive in their original
+ * order as soon as they're done.
+ * <p>
+ * How entries get compressed is decided by a {@link CompressionPolicy}.
+ * The first chunk of every entry serves as sample to decide whether
+ * compressing the entry pays off at all.
+ * <p>
+ * If reading the data of an entry fails, the writer stops and every
+ * further call fails as well; {@link #abort()} it to stop its threads
+ * and close the incomplete file.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class ParallelZipWriter implements Closeable {
+    private static final int CHUNK_SIZE = 128 * 1024;
+
+    /*
+     * An empty, final block of fixed Huffman codes ending the deflate
+     * stream after the last sync-flushed chunk of an entry.
+     */
+    private static final byte[] FINAL_BLOCK = {0x03, 0x00};
+
+    private final ZipFileWriter out;
+    private final CompressionPolicy policy;
+    private final ExecutorService workers;
+    private final ExecutorService writer;
+
+    /*
+     * Chunk buffers waiting to be filled; taking one from here
+     * limits the number of chunks in flight.
+     */
+    private final BlockingQueue<byte[]> buffers;
+
+    private final CRC32 crc = new CRC32();
+    private volatile Throwable failure;
+
+
+    /**
+     * Creates a new ZIP file written by a pool of the given number of threads.
+     *
+     * @param file    the file to write to
+     * @param policy  the policy deciding how to compress entries
+     * @param threads the number of threads compressing data
+     * @throws IOException if the file can't be created
+     */
+    public ParallelZipWriter(File file, CompressionPolicy policy, int threads)
+            throws IOException {
+        this.out = new ZipFileWriter(file);
+        this.policy = policy;
+
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread thread = new Thread(r, "ParallelZipWriter-deflate-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "ParallelZipWriter-write");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        int inFlight = 4 * Math.max(1, threads) + 4;
+        this.buffers = new ArrayBlockingQueue<>(inFlight);
+        for (int i = 0; i < inFlight; i++) {
+            buffers.add(new byte[CHUNK_SIZE]);
+        }
+    }
+
+    /**
+     * Adds an entry with the data read from the given stream; the
+     * stream is read completely but not closed by this method.
+     *
+     * @param name the name of the entry
+     * @param size the uncompressed size of the entry if known, -1 otherwise
+     * @param in   the stream to read the uncompressed data from
+     * @throws IOException if reading the data or writing the archive failed
+     */
+    public void putEntry(String name, long size, InputStream in)
+            throws IOException {
+        checkFailure();
+
+        Entry entry = new Entry(name);
+        writer.execute(() -> write(entry));
+
+        try {
+            crc.reset();
+            long total = 0;
+            int level = Integer.MIN_VALUE;
+
+            while (true) {
+                byte[] raw = takeBuffer();
+                int length = readFully(in, raw);
+
+                if (length == 0) {
+                    buffers.add(raw);
+                    break;
+                }
+
+                crc.update(raw, 0, length);
+
+                if (level == Integer.MIN_VALUE) {
+                    /*
+                     * An entry ending within the first chunk
+                     * has a known size, whatever we've been told.
+                     */
+                    level = policy.getLevel(name, length < CHUNK_SIZE ? total + length : size);
+                }
+
+                total += length;
+
+                Chunk chunk = new Chunk(raw, length);
+                if (level != CompressionPolicy.STORED) {
+                    final int chunkLevel = level;
+                    chunk.deflated = workers.submit(() -> entry.stored ? null : deflate(raw, length, chunkLevel));
+                }
+
+                entry.chunks.add(chunk);
+
+                if (length < CHUNK_SIZE)
+                    break;
+            }
+
+            /*
+             * Handing over the END marker publishes checksum and size.
+             */
+            entry.crc = crc.getValue();
+            entry.size = total;
+            entry.chunks.add(Chunk.END);
+        } catch (Throwable t) {
+            /*
+             * The writer thread would wait for the rest of the entry forever.
+             */
+            fail(t);
+            entry.chunks.add(Chunk.ABORT);
+            throw t;
+        }
+    }
+
+    /**
+     * Waits for all entries to be written, then writes the
+     * Central Directory and closes the file.
+     */
+    public void close()
+            throws IOException {
+        boolean completed = false;
+
+        try {
+            writer.shutdown();
+            if (!writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS))
+                throw new IOException("Timed out waiting for ZIP writer");
+
+            checkFailure();
+            completed = true;
+        } catch (InterruptedException iex) {
+            throw new IOException("Interrupted while waiting for ZIP writer", iex);
+        } finally {
+            workers.shutdownNow();
+            writer.shutdownNow();
+
+            if (completed)
+                out.close();
+            else
+                out.abort();
+        }
+    }
+
+    /**
+     * Stops compressing and writing right away and closes the file
+     * without completing it, e.g. after adding an entry failed.
+     */
+    public void abort() {
+        fail(new IOException("ZIP writer aborted"));
+
+        workers.shutdownNow();
+        writer.shutdownNow();
+
+        try {
+            /*
+             * Interrupting the writer thread ends it soon, and the
+             * file mustn't be closed while it's still writing.
+             */
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            out.abort();
+        } catch (IOException ioex) {
+            /*
+             * Nothing left to save, the file is incomplete anyway.
+             */
+        }
+    }
+
+    /**
+     * Writes a single entry on the writer thread.
+     */
+    private void write(Entry entry) {
+        if (failure != null)
+            return;
+
+        try {
+            Chunk first = take(entry);
+
+            if (first == Chunk.END) {
+                /*
+                 * No data at all, store the empty entry.
+                 */
+                out.beginEntry(entry.name, METHOD_STORED);
+                out.endEntry(entry.crc, 0);
+                return;
+            }
+
+            byte[] sample = first.deflated != null ? first.deflated.get() : null;
+            if (sample != null && !policy.isWorthCompressing(entry.name, first.length, sample.length)) {
+                entry.stored = true;
+                sample = null;
+            }
+
+            boolean deflated = sample != null;
+            out.beginEntry(entry.name, deflated ? METHOD_DEFLATED : METHOD_STORED);
+
+            for (Chunk chunk = first; chunk != Chunk.END; chunk = take(entry)) {
+                byte[] data = chunk.deflated != null ? chunk.deflated.get() : null;
+
+                if (deflated)
+                    out.write(data, 0, data.length);
+                else
+                    out.write(chunk.raw, 0, chunk.length);
+
+                buffers.add(chunk.raw);
+            }
+
+            if (deflated)
+                out.write(FINAL_BLOCK, 0, FINAL_BLOCK.length);
+
+            out.endEntry(entry.crc, entry.size);
+        } catch (Throwable t) {
+            fail(t);
+
+            /*
+             * Unblock the reading thread waiting for buffers.
+             */
+            buffers.clear();
+            for (int i = 0; i < 64; i++) {
+                buffers.offer(new byte[0]);
+            }
+        }
+    }
+
+    /**
+     * Takes the next chunk of an entry on the writer thread.
+     */
+    private static Chunk take(Entry entry)
+            throws IOException, InterruptedException {
+        Chunk chunk = entry.chunks.take();
+        if (chunk == Chunk.ABORT)
+            throw new IOException("Reading entry failed: " + entry.name);
+
+        return chunk;
+    }
+
+    /**
+     * Records the first failure, later ones are mostly caused by it.
+     */
+    private synchronized void fail(Throwable t) {
+        if (failure == null)
+            failure = t;
+    }
+
+    /**
+     * Deflates a chunk into a byte-aligned, non-final sequence of blocks.
+     */
+    private static byte[] deflate(byte[] raw, int length, int level) {
+        Deflater deflater = CodecPool.acquireDeflater(level);
+        try {
+            deflater.setInput(raw, 0, length);
+
+            byte[] out = new byte[length + length / 16 + 64];
+            int written = 0;
+
+            /*
+             * A flush is only complete once all input has been consumed
+             * and the output buffer wasn't filled up; a pending level
+             * change may make the first call return early.
+             */
+            while (true) {
+                written += deflater.deflate(out, written, out.length - written, Deflater.SYNC_FLUSH);
+
+                if (written == out.length)
+                    out = Arrays.copyOf(out, out.length * 2);
+                else if (deflater.needsInput())
+                    break;
+            }
+
+            return Arrays.copyOf(out, written);
+        } finally {
+            CodecPool.release(deflater);
+        }
+    }
+
+    private byte[] takeBuffer()
+            throws IOException {
+        try {
+            byte[] buffer = buffers.take();
+            checkFailure();
+            return buffer;
+        } catch (InterruptedException iex) {
+            throw new IOException("Interrupted while waiting for ZIP writer", iex);
+        }
+    }
+
+    private void checkFailure()
+            throws IOException {
+        Throwable t = failure;
+        if (t == null)
+            return;
+
+        if (t instanceof ExecutionException && t.getCause() != null)
+            t = t.getCause();
+
+        if (t instanceof IOException)
+            throw (IOException) t;
+
+        throw new IOException("Failed to write ZIP file", t);
+    }
+
+    private static int readFully(InputStream in, byte[] buffer)
+            throws IOException {
+        int length = 0;
+        int read;
+        while (length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+        }
+        return length;
+    }
+
+    /**
+     * A chunk of raw entry data and its (future) deflated form.
+     */
+    private static class Chunk {
+        static final Chunk END = new Chunk(null, 0);
+        static final Chunk ABORT = new Chunk(null, 0);
+
+        final byte[] raw;
+        final int length;
+        Future<byte[]> deflated;
+
+        Chunk(byte[] raw, int length) {
+            this.raw = raw;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The chunks of an entry handed from the reading to the writer thread.
+     */
+    private static class Entry {
+        final String name;
+        final BlockingQueue<Chunk> chunks = new LinkedBlockingQueue<>();
+        volatile boolean stored;
+        long crc;
+        long size;
+
+        Entry(String name) {
+            this.name = name;
+        }
+    }
+}
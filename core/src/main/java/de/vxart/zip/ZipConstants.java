@@ -25,11 +25,16 @@ public class ZipConstants {
     public static final int CENTRAL_DIRECTORY = 0x02014B50;
     public static final int EXTENDED_FILE_HEADER = 0x08074B50;
     public static final int END_OF_CENTRAL_DIRECTORY = 0x06054B50;
+    public static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064B50;
+    public static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR = 0x07064B50;
+    public static final int ZIP64_EXTRA_FIELD = 0x0001;
 
     public static final int CENTRAL_DIRECTORY_LENGTH = 46;
     public static final int LOCAL_FILE_HEADER_LENGTH = 30;
     public static final int EXTENDED_FILE_HEADER_LENGTH = 16;
     public static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+    public static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH = 56;
+    public static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_LENGTH = 20;
 
     public static final int METHOD_STORED = 0;
     public static final int METHOD_SRHUNK = 1;
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zip;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import static de.vxart.zip.ZipConstants.*;
+
+/**
+ * Writes ZIP files sequentially from already compressed (or stored) entry
+ * data, unlike java.util.zip.ZipOutputStream which insists on compressing
+ * everything itself.
+ * <p>
+ * The writer works in seekable mode: the local file header of an entry is
+ * written with empty sizes and checksum first and patched once the entry
+ * has been completed, so entries can be streamed without knowing their
+ * sizes in advance and without trailing data descriptors.
+ * <p>
+ * Archives with more than 65534 entries get a ZIP64 End of Central
+ * Directory; archives larger than 4 GB are not supported.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class ZipFileWriter implements Closeable {
+    private static final int FLAG_UTF8 = 0x800;
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+    private static final int VERSION_ZIP64 = 45;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int dosTime, dosDate;
+
+    private final List<Record> records = new ArrayList<>();
+    private Record current;
+    private long position;
+
+
+    /**
+     * Creates a new ZIP file, overwriting any existing file.
+     *
+     * @param file the file to write to
+     * @throws IOException if the file can't be created
+     */
+    public ZipFileWriter(File file)
+            throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        this.channel = this.file.getChannel();
+        this.buffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+        Calendar now = Calendar.getInstance();
+        dosTime = now.get(Calendar.HOUR_OF_DAY) << 11 | now.get(Calendar.MINUTE) << 5 | now.get(Calendar.SECOND) >> 1;
+        dosDate = (now.get(Calendar.YEAR) - 1980) << 9 | (now.get(Calendar.MONTH) + 1) << 5 | now.get(Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * Starts a new entry by writing a preliminary local file header,
+     * using the time this writer has been created as modification time.
+     *
+     * @param name   the name of the entry
+     * @param method either METHOD_STORED or METHOD_DEFLATED
+     * @throws IOException if writing fails
+     */
+    public void beginEntry(String name, int method)
+            throws IOException {
+        beginEntry(name, method, dosTime, dosDate);
+    }
+
+    /**
+     * Starts a new entry by writing a preliminary local file header.
+     *
+     * @param name    the name of the entry
+     * @param method  either METHOD_STORED or METHOD_DEFLATED
+     * @param dosTime the modification time in MS-DOS format
+     * @param dosDate the modification date in MS-DOS format
+     * @throws IOException if writing fails
+     */
+    public void beginEntry(String name, int method, int dosTime, int dosDate)
+            throws IOException {
+        if (current != null)
+            throw new IllegalStateException("Entry not completed: " + current.name);
+
+        if (method != METHOD_STORED && method != METHOD_DEFLATED)
+            throw new IllegalArgumentException("Unsupported compression method: " + method);
+
+        current = new Record();
+        current.name = name.getBytes(StandardCharsets.UTF_8);
+        current.flag = current.name.length != name.length() ? FLAG_UTF8 : 0;
+        current.method = method;
+        current.dosTime = dosTime;
+        current.dosDate = dosDate;
+        current.offset = position;
+
+        ensure(LOCAL_FILE_HEADER_LENGTH + current.name.length);
+        buffer.putInt(LOCAL_FILE_HEADER);
+        buffer.putShort((short) (method == METHOD_DEFLATED ? VERSION_DEFLATED : VERSION_STORED));
+        buffer.putShort((short) current.flag);
+        buffer.putShort((short) method);
+        buffer.putShort((short) current.dosTime);
+        buffer.putShort((short) current.dosDate);
+        buffer.putInt(0); // crc, patched later
+        buffer.putInt(0); // compressed size, patched later
+        buffer.putInt(0); // uncompressed size, patched later
+        buffer.putShort((short) current.name.length);
+        buffer.putShort((short) 0);
+        buffer.put(current.name);
+        position += LOCAL_FILE_HEADER_LENGTH + current.name.length;
+    }
+
+    /**
+     * Writes (compressed) data of the current entry.
+     */
+    public void write(byte[] b, int off, int len)
+            throws IOException {
+        if (current == null)
+            throw new IllegalStateException("No current entry");
+
+        while (len > 0) {
+            if (!buffer.hasRemaining())
+                flush();
+
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(b, off, n);
+            off += n;
+            len -= n;
+            position += n;
+            current.compressedSize += n;
+        }
+    }
+
+    /**
+     * Completes the current entry and patches its local file header.
+     *
+     * @param crc              the CRC-32 of the uncompressed data
+     * @param uncompressedSize the size of the uncompressed data
+     * @throws IOException if writing fails
+     */
+    public void endEntry(long crc, long uncompressedSize)
+            throws IOException {
+        if (current == null)
+            throw new IllegalStateException("No current entry");
+
+        if (position > 0xFFFFFFFFL || uncompressedSize > 0xFFFFFFFFL)
+            throw new IOException("ZIP64 sizes and offsets are not supported");
+
+        current.crc = crc;
+        current.uncompressedSize = uncompressedSize;
+
+        /*
+         * Patch crc and sizes in place, the header might
+         * still be in the buffer or already on disk.
+         */
+        ByteBuffer patch = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        patch.putInt((int) crc);
+        patch.putInt((int) current.compressedSize);
+        patch.putInt((int) uncompressedSize);
+        ((Buffer) patch).flip();
+
+        long at = current.offset + 14;
+        long flushed = position - buffer.position();
+        if (at >= flushed) {
+            int index = (int) (at - flushed);
+            for (int i = 0; i < 12; i++) {
+                buffer.put(index + i, patch.get(i));
+            }
+        } else {
+            flush();
+            while (patch.hasRemaining()) {
+                channel.write(patch, at + patch.position());
+            }
+        }
+
+        records.add(current);
+        current = null;
+    }
+
+    /**
+     * Writes the Central Directory and closes the file.
+     */
+    public void close()
+            throws IOException {
+        try {
+            if (current != null)
+                throw new IOException("Entry not completed: " + new String(current.name, StandardCharsets.UTF_8));
+
+            long centralDirectoryOffset = position;
+
+            for (Record record : records) {
+                ensure(CENTRAL_DIRECTORY_LENGTH + record.name.length);
+                buffer.putInt(CENTRAL_DIRECTORY);
+                buffer.putShort((short) VERSION_DEFLATED);
+                buffer.putShort((short) (record.method == METHOD_DEFLATED ? VERSION_DEFLATED : VERSION_STORED));
+                buffer.putShort((short) record.flag);
+                buffer.putShort((short) record.method);
+                buffer.putShort((short) record.dosTime);
+                buffer.putShort((short) record.dosDate);
+                buffer.putInt((int) record.crc);
+                buffer.putInt((int) record.compressedSize);
+                buffer.putInt((int) record.uncompressedSize);
+                buffer.putShort((short) record.name.length);
+                buffer.putShort((short) 0); // extra length
+                buffer.putShort((short) 0); // comment length
+                buffer.putShort((short) 0); // disk number start
+                buffer.putShort((short) 0); // internal attributes
+                buffer.putInt(0); // external attributes
+                buffer.putInt((int) record.offset);
+                buffer.put(record.name);
+                position += CENTRAL_DIRECTORY_LENGTH + record.name.length;
+            }
+
+            long centralDirectorySize = position - centralDirectoryOffset;
+            int count = records.size();
+
+            if (position > 0xFFFFFFFFL)
+                throw new IOException("ZIP64 sizes and offsets are not supported");
+
+            if (count >= 0xFFFF) {
+                long zip64Offset = position;
+
+                ensure(ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH + ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_LENGTH);
+                buffer.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY);
+                buffer.putLong(44);
+                buffer.putShort((short) VERSION_ZIP64);
+                buffer.putShort((short) VERSION_ZIP64);
+                buffer.putInt(0);
+                buffer.putInt(0);
+                buffer.putLong(count);
+                buffer.putLong(count);
+                buffer.putLong(centralDirectorySize);
+                buffer.putLong(centralDirectoryOffset);
+
+                buffer.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR);
+                buffer.putInt(0);
+                buffer.putLong(zip64Offset);
+                buffer.putInt(1);
+                position += ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH + ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_LENGTH;
+            }
+
+            ensure(END_OF_CENTRAL_DIRECTORY_LENGTH);
+            buffer.putInt(END_OF_CENTRAL_DIRECTORY);
+            buffer.putShort((short) 0);
+            buffer.putShort((short) 0);
+            buffer.putShort((short) Math.min(count, 0xFFFF));
+            buffer.putShort((short) Math.min(count, 0xFFFF));
+            buffer.putInt((int) centralDirectorySize);
+            buffer.putInt((int) centralDirectoryOffset);
+            buffer.putShort((short) 0);
+            position += END_OF_CENTRAL_DIRECTORY_LENGTH;
+
+            flush();
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Closes the file without writing the Central Directory, e.g. after
+     * writing an entry failed; the incomplete file should be deleted.
+     */
+    public void abort()
+            throws IOException {
+        current = null;
+        file.close();
+    }
+
+    /**
+     * Makes sure the buffer has room for the given number of bytes.
+     */
+    private void ensure(int bytes)
+            throws IOException {
+        if (buffer.remaining() < bytes)
+            flush();
+
+        if (buffer.remaining() < bytes)
+            throw new IOException("Header too large: " + bytes);
+    }
+
+    private void flush()
+            throws IOException {
+        ((Buffer) buffer).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        ((Buffer) buffer).clear();
+    }
+
+    /**
+     * The information needed for the Central Directory.
+     */
+    private static class Record {
+        byte[] name;
+        int flag;
+        int method;
+        int dosTime, dosDate;
+        long offset;
+        long crc;
+        long compressedSize;
+        long uncompressedSize;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zip;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Provides a reusable, read-only "flyweight" view onto a ZIP file header
+ * located somewhere inside a (usually memory-mapped) ByteBuffer.
+ * <p>
+ * Unlike the {@link ZipHeader} subclasses, a view doesn't copy any bytes:
+ * every getter reads the field straight from the underlying buffer at the
+ * current offset. A single instance can be moved from header to header
+ * using its <code>wrap()</code> method, so parsing thousands of headers
+ * doesn't create any garbage.
+ * <p>
+ * Views are not thread-safe.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public abstract class ZipHeaderView {
+    public final int signature;
+    public final int size;
+
+    protected ByteBuffer buffer;
+    protected int offset;
+
+    private byte[] scratch = new byte[256];
+
+
+    /**
+     * Creates a new view for headers with the given signature and
+     * fixed size. The view has to be positioned on a header with
+     * <code>wrap()</code> before any of its getters can be used.
+     *
+     * @param signature the required signature/magical number for the header
+     * @param size      the fixed size of the header
+     */
+    protected ZipHeaderView(int signature, int size) {
+        this.signature = signature;
+        this.size = size;
+    }
+
+    /*
+     * Positions this view on the header starting at the given
+     * absolute offset in the buffer and checks its signature.
+     */
+    protected void position(ByteBuffer buffer, int offset) {
+        if (offset < 0 || buffer.limit() - offset < size) {
+            throw new IllegalArgumentException(
+                    "Data for " + getClass().getName() + " has to be " +
+                            size + " bytes long: " + (buffer.limit() - offset));
+        }
+
+        /*
+         * All multi-byte values in ZIP headers are little-endian,
+         * we never use relative gets so changing the order
+         * doesn't disturb the caller's position.
+         */
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        int actualSignature = buffer.getInt(offset);
+
+        if (actualSignature != signature) {
+            throw new IllegalArgumentException(
+                    "Data for " + getClass().getName() +
+                            " doesn't start with magic number " +
+                            ZipHeader.hex(signature) + ": " +
+                            ZipHeader.hex(actualSignature));
+        }
+
+        this.buffer = buffer;
+        this.offset = offset;
+    }
+
+    /**
+     * Returns the absolute offset of the current header in the buffer.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Reads an unsigned 16-bit value at the given offset
+     * relative to the start of the current header.
+     */
+    protected int u16(int field) {
+        return buffer.getShort(offset + field) & 0xFFFF;
+    }
+
+    /**
+     * Reads an unsigned 32-bit value at the given offset
+     * relative to the start of the current header.
+     */
+    protected long u32(int field) {
+        return buffer.getInt(offset + field) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Decodes a US-ASCII string of the given length stored at the given
+     * offset relative to the start of the current header. The bytes are
+     * copied through a scratch array owned by this view, so only the
+     * returned String gets allocated.
+     */
+    protected String string(int field, int length) {
+        if (scratch.length < length)
+            scratch = new byte[Math.max(length, 2 * scratch.length)];
+
+        for (int i = 0; i < length; i++) {
+            scratch[i] = buffer.get(offset + field + i);
+        }
+
+        return new String(scratch, 0, length, StandardCharsets.US_ASCII);
+    }
+}
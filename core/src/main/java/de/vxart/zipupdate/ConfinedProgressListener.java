@@ -0,0 +1,33 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Marks ProgressListeners confined to a thread of their own, e.g. listeners
+ * updating Swing components, which may only be called on the event dispatch
+ * thread. The {@link ProgressListenerManager} calls them only through
+ * their Executor.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public interface ConfinedProgressListener extends ProgressListener {
+    /**
+     * Returns the Executor to call this listener with.
+     */
+    Executor getExecutor();
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.*;
+
+/**
+ * Shared format of the delta bundles written by the {@link Indexer} and
+ * fetched by {@link UpdateLocation}s.
+ * <p>
+ * A delta bundle holds the raw local file blocks (header and compressed
+ * data) of all entries a client needs to get from one version of an
+ * archive to the current one, concatenated in the order of the current
+ * archive, exactly like the byte ranges a client would request for them.
+ * <p>
+ * Bundles are identified by a key computed from the names and CRCs of
+ * their entries, so any client needing exactly those entries can fetch
+ * the bundle with a single plain GET, no matter which version it starts
+ * from. The manifest next to the archive (named after it plus a
+ * ".bundles" ending) maps the keys to the names of the bundle files; it
+ * is deflated and ends with a checksum just like the index file.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+class DeltaBundles {
+    static final String MANIFEST_SUFFIX = ".bundles";
+    static final String BUNDLE_SUFFIX = ".bundle";
+
+
+    private DeltaBundles() {
+        // Empty private constructor
+    }
+
+    /**
+     * Computes the key of a bundle containing the given resources.
+     *
+     * @param resources the resources in the order of the current archive
+     * @return the first 64 bits of a SHA-256 hash of their names and CRCs
+     */
+    static long key(Iterable<Resource> resources) {
+        MessageDigest digest = EntryObjects.newDigest();
+
+        byte[] crc = new byte[8];
+        for (Resource resource : resources) {
+            digest.update(resource.getName().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+
+            long value = resource.getCrc();
+            for (int i = 0; i < 8; i++) {
+                crc[i] = (byte) (value >>> (56 - 8 * i));
+            }
+            digest.update(crc);
+        }
+
+        return EntryObjects.truncate(digest.digest());
+    }
+
+    /**
+     * Returns the name of the bundle file with the given key.
+     */
+    static String getFileName(String archiveName, long key) {
+        return archiveName + "." + String.format("%016x", key) + BUNDLE_SUFFIX;
+    }
+
+    /**
+     * Writes a manifest mapping bundle keys to bundle file names,
+     * replacing any existing one at once.
+     */
+    static void writeManifest(File file, Map<Long, String> bundles)
+            throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+
+        Checksum checker = new CRC32();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, false);
+
+        try (DataOutputStream manifest = new DataOutputStream(
+                new CheckedOutputStream(
+                        new BufferedOutputStream(
+                                new DeflaterOutputStream(
+                                        new FileOutputStream(tmp),
+                                        deflater)
+                        ),
+                        checker))) {
+            for (Map.Entry<Long, String> bundle : bundles.entrySet()) {
+                manifest.writeUTF(bundle.getValue());
+                manifest.writeLong(bundle.getKey());
+            }
+
+            manifest.writeUTF("");
+            manifest.flush();
+
+            manifest.writeLong(checker.getValue());
+        } finally {
+            deflater.end();
+        }
+
+        /*
+         * Clients may be reading the manifest while it's replaced.
+         */
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a manifest mapping bundle keys to bundle file names.
+     *
+     * @throws IOException if reading fails or the manifest is corrupted
+     */
+    static Map<Long, String> readManifest(InputStream in)
+            throws IOException {
+        Checksum checker = new CRC32();
+        Map<Long, String> bundles = new LinkedHashMap<>();
+
+        DataInputStream manifest = new DataInputStream(
+                new CheckedInputStream(
+                        new InflaterInputStream(
+                                new BufferedInputStream(in)
+                        ), checker)
+        );
+
+        String name;
+        while (!"".equals(name = manifest.readUTF())) {
+            bundles.put(manifest.readLong(), name);
+        }
+
+        long computedChecksum = checker.getValue();
+        long storedChecksum = manifest.readLong();
+
+        if (computedChecksum != storedChecksum) {
+            throw new IOException("Bundle manifest corrupted");
+        }
+
+        return bundles;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import de.vxart.io.BandwidthManager;
+import de.vxart.io.ThrottledInputStream;
+
+import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.*;
+
+/**
+ * Lists the index files of all archives in a directory, so clients
+ * updating many archives from it need a single request to find out
+ * which of them changed.
+ * <p>
+ * For every archive the manifest holds a checksum of its index file
+ * (the first 64 bits of its SHA-256 hash) and its size, optionally
+ * followed by the index itself. Clients remember the checksum of the
+ * index they last updated an archive from and only fetch its index
+ * again if the manifest lists a different one; embedded indexes don't
+ * need to be fetched at all. The manifest is named {@value #FILE_NAME},
+ * deflated and ends with a checksum just like the index files.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class DirectoryManifest {
+    public static final String FILE_NAME = "jzipupdate.manifest";
+
+    private final URL base;
+    private final Map<String, Entry> entries;
+
+
+    private DirectoryManifest(URL base, Map<String, Entry> entries) {
+        this.base = base;
+        this.entries = entries;
+    }
+
+    /**
+     * Writes the manifest of the given archives into the directory, after
+     * their index files have been written by {@link Indexer#index(File)}.
+     *
+     * @param directory the directory containing the archives
+     * @param archives  the archives to list
+     * @param embed     whether to embed their index files
+     * @throws IOException if an index file can't be read or the manifest
+     *                     can't be written
+     */
+    public static void write(File directory, File[] archives, boolean embed)
+            throws IOException {
+        File file = new File(directory, FILE_NAME);
+        File tmp = new File(directory, FILE_NAME + ".tmp");
+
+        Checksum checker = new CRC32();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, false);
+
+        try (DataOutputStream manifest = new DataOutputStream(
+                new CheckedOutputStream(
+                        new BufferedOutputStream(
+                                new DeflaterOutputStream(
+                                        new FileOutputStream(tmp),
+                                        deflater)
+                        ),
+                        checker))) {
+            for (File archive : archives) {
+                byte[] index = Files.readAllBytes(new File(archive.getPath() + ".idx").toPath());
+
+                manifest.writeUTF(archive.getName());
+                manifest.writeLong(checksum(index));
+                manifest.writeLong(index.length);
+
+                if (embed) {
+                    manifest.writeBoolean(true);
+                    manifest.write(index);
+                } else {
+                    manifest.writeBoolean(false);
+                }
+            }
+
+            manifest.writeUTF("");
+            manifest.flush();
+
+            manifest.writeLong(checker.getValue());
+        } finally {
+            deflater.end();
+        }
+
+        /*
+         * Clients may be reading the manifest while it's replaced.
+         */
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Fetches the manifest of the directory at the given URL, sharing the
+     * bandwidth and timeouts of updates (see {@link HttpSource}).
+     *
+     * @param base the URL of the directory, ending with a slash
+     * @throws IOException if fetching fails or the manifest is corrupted
+     */
+    public static DirectoryManifest fetch(URL base)
+            throws IOException {
+        URLConnection conn = HttpSource.open(new URL(base, FILE_NAME));
+        try (InputStream in = new ThrottledInputStream(conn.getInputStream(), BandwidthManager.getShared())) {
+            return read(base, in);
+        }
+    }
+
+    static DirectoryManifest read(URL base, InputStream in)
+            throws IOException {
+        Checksum checker = new CRC32();
+        Map<String, Entry> entries = new LinkedHashMap<>();
+
+        DataInputStream manifest = new DataInputStream(
+                new CheckedInputStream(
+                        new InflaterInputStream(
+                                new BufferedInputStream(in)
+                        ), checker)
+        );
+
+        String name;
+        while (!"".equals(name = manifest.readUTF())) {
+            long checksum = manifest.readLong();
+            long size = manifest.readLong();
+
+            byte[] index = null;
+            if (manifest.readBoolean()) {
+                if (size > Integer.MAX_VALUE)
+                    throw new IOException("Directory manifest corrupted");
+                index = new byte[(int) size];
+                manifest.readFully(index);
+            }
+
+            entries.put(name, new Entry(checksum, size, index));
+        }
+
+        long computedChecksum = checker.getValue();
+        long storedChecksum = manifest.readLong();
+
+        if (computedChecksum != storedChecksum) {
+            throw new IOException("Directory manifest corrupted");
+        }
+
+        return new DirectoryManifest(base, entries);
+    }
+
+    /**
+     * Computes the checksum of an index file as listed in the manifest.
+     */
+    static long checksum(byte[] index) {
+        return EntryObjects.truncate(EntryObjects.newDigest().digest(index));
+    }
+
+    /**
+     * Returns the names of all archives listed.
+     */
+    public Set<String> getArchives() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    public boolean contains(String archive) {
+        return entries.containsKey(archive);
+    }
+
+    /**
+     * Returns the checksum of the index of the given archive.
+     *
+     * @throws IllegalArgumentException if the archive isn't listed
+     */
+    public long getIndexChecksum(String archive) {
+        return getEntry(archive).checksum;
+    }
+
+    /**
+     * Returns the size of the index of the given archive.
+     *
+     * @throws IllegalArgumentException if the archive isn't listed
+     */
+    public long getIndexSize(String archive) {
+        return getEntry(archive).size;
+    }
+
+    /**
+     * Returns whether the index of the given archive is embedded.
+     *
+     * @throws IllegalArgumentException if the archive isn't listed
+     */
+    public boolean isEmbedded(String archive) {
+        return getEntry(archive).index != null;
+    }
+
+    /**
+     * Creates an UpdateLocation for the given archive in this directory,
+     * reading the index from the manifest if it's embedded.
+     *
+     * @throws IllegalArgumentException if the archive isn't listed
+     */
+    public UpdateLocation getLocation(String archive)
+            throws MalformedURLException {
+        Entry entry = getEntry(archive);
+
+        UpdateLocation location = new UpdateLocation(new URL(base, archive));
+        location.setIndex(entry.index);
+        return location;
+    }
+
+    private Entry getEntry(String archive) {
+        Entry entry = entries.get(archive);
+        if (entry == null)
+            throw new IllegalArgumentException("Archive not listed in manifest: " + archive);
+        return entry;
+    }
+
+    private static class Entry {
+        final long checksum;
+        final long size;
+        final byte[] index;
+
+        Entry(long checksum, long size, byte[] index) {
+            this.checksum = checksum;
+            this.size = size;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Shared format of the per-entry objects published by the {@link Indexer}
+ * and fetched by {@link UpdateLocation}s from servers without (working)
+ * support for byte ranges.
+ * <p>
+ * Each object holds the raw local file block (header and compressed data)
+ * of an entry and is named by the SHA-256 hash of its contents, stored in
+ * the "objects" directory next to the archive. Identical entries of
+ * different archives or versions in the same directory share one object.
+ * <p>
+ * The hashes are appended to the index file after its checksum, one per
+ * entry in the order of the index, followed by another checksum covering
+ * the whole index; clients not knowing about objects never read them.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+class EntryObjects {
+    static final String DIRECTORY = "objects";
+    static final int HASH_LENGTH = 32;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+
+    private EntryObjects() {
+        // Empty private constructor
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not supported", ex);
+        }
+    }
+
+    /**
+     * Returns the first 64 bits of the given hash, used as a short
+     * checksum or key where the full hash would be overkill.
+     */
+    static long truncate(byte[] hash) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (hash[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the name of the object with the given hash.
+     */
+    static String getName(byte[] hash) {
+        char[] name = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            name[2 * i] = HEX[(hash[i] >> 4) & 0xF];
+            name[2 * i + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(name);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+/**
+ * Emits Flight Recorder events if the JVM supports them.
+ * <p>
+ * Events are handed around as plain Objects and only ever touched by the
+ * nested Recorder class, so the event classes are never loaded on JVMs
+ * without the <code>jdk.jfr</code> module. While nothing records the events,
+ * all methods return right away without creating any garbage.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+final class Events {
+    static final String PHASE_INIT = "init";
+    static final String PHASE_INDEX = "index";
+    static final String PHASE_DIFF = "diff";
+    static final String PHASE_PATCH_LOCALLY = "patchLocally";
+    static final String PHASE_PATCH_REMOTELY = "patchRemotely";
+    static final String PHASE_FINALIZE = "finalize";
+
+    private static final boolean AVAILABLE = isAvailable();
+
+
+    private Events() {
+        // Empty private constructor
+    }
+
+    /**
+     * Starts timing a phase of an update, returns null if not recorded.
+     */
+    static Object beginPhase(String archive, String phase) {
+        return AVAILABLE ? Recorder.beginPhase(archive, phase) : null;
+    }
+
+    /**
+     * Ends timing a phase started before and commits it.
+     */
+    static void endPhase(Object event, long entries) {
+        if (event != null)
+            Recorder.endPhase(event, entries);
+    }
+
+    /**
+     * Starts timing a request, returns null if not recorded.
+     */
+    static Object beginRequest(String url, long ranges) {
+        return AVAILABLE ? Recorder.beginRequest(url, ranges) : null;
+    }
+
+    /**
+     * Ends timing a request started before and commits it.
+     */
+    static void endRequest(Object event, int status, long bytes) {
+        if (event != null)
+            Recorder.endRequest(event, status, bytes);
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, Events.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+    }
+
+    private static final class Recorder {
+        private static final PhaseEvent PHASE = new PhaseEvent();
+        private static final RequestEvent REQUEST = new RequestEvent();
+
+        static Object beginPhase(String archive, String phase) {
+            if (!PHASE.isEnabled())
+                return null;
+
+            PhaseEvent event = new PhaseEvent();
+            event.archive = archive;
+            event.phase = phase;
+            event.begin();
+            return event;
+        }
+
+        static void endPhase(Object object, long entries) {
+            PhaseEvent event = (PhaseEvent) object;
+            event.end();
+
+            if (event.shouldCommit()) {
+                event.entries = entries;
+                event.commit();
+            }
+        }
+
+        static Object beginRequest(String url, long ranges) {
+            if (!REQUEST.isEnabled())
+                return null;
+
+            RequestEvent event = new RequestEvent();
+            event.url = url;
+            event.ranges = ranges;
+            event.begin();
+            return event;
+        }
+
+        static void endRequest(Object object, int status, long bytes) {
+            RequestEvent event = (RequestEvent) object;
+            event.end();
+
+            if (event.shouldCommit()) {
+                event.status = status;
+                event.bytes = bytes;
+                event.commit();
+            }
+        }
+    }
+}
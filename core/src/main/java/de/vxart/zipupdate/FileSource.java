@@ -0,0 +1,147 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import de.vxart.io.BandwidthManager;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads archives straight from the file system, e.g. from a mirror
+ * directory, a network share or a removable drive.
+ * <p>
+ * Ranges are read on demand with positional reads from the archive
+ * itself, opened once per batch; there's no multipart encoding and no
+ * temporary copy. Reads aren't throttled by the BandwidthManager given.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class FileSource implements UpdateSource {
+    private final File archive;
+
+
+    /**
+     * Creates a new FileSource for the specified archive.
+     *
+     * @param archive the archive, the index is expected in the same
+     *                directory with <code>.idx</code> appended to the name
+     */
+    public FileSource(File archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Creates a new FileSource for the archive at the specified <code>file:</code> URL.
+     *
+     * @param url the URL of the archive
+     */
+    public FileSource(URL url) {
+        this(toFile(url));
+    }
+
+    private static File toFile(URL url) {
+        if (!"file".equals(url.getProtocol()))
+            throw new IllegalArgumentException("Not a file URL: " + url);
+
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException | IllegalArgumentException ex) {
+            /*
+             * Unescaped characters like spaces in the path.
+             */
+            return new File(url.getPath());
+        }
+    }
+
+    public URL getUrl() {
+        try {
+            return archive.toURI().toURL();
+        } catch (MalformedURLException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public InputStream openIndex()
+            throws IOException {
+        return new FileInputStream(archive.getPath() + ".idx");
+    }
+
+    public Ranges read(final long[] offsets, final long[] lengths, BandwidthManager bandwidthManager, ProgressListener progress)
+            throws IOException {
+        long size = archive.length();
+        long bytes = 0;
+
+        for (int i = 0; i < offsets.length; i++) {
+            if (offsets[i] < 0 || lengths[i] < 0 || lengths[i] > Integer.MAX_VALUE || offsets[i] + lengths[i] > size)
+                throw new IOException("Range " + offsets[i] + "+" + lengths[i] + " exceeds " + size + " bytes: " + archive);
+
+            bytes += lengths[i];
+        }
+
+        /*
+         * Nothing is transferred up front, the ranges are only read
+         * when patching.
+         */
+        progress.update((int) Math.min(bytes, Integer.MAX_VALUE));
+
+        final long bytesTransferred = bytes;
+        final FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ);
+
+        return new Ranges() {
+            public ByteBuffer get(int index)
+                    throws IOException {
+                ByteBuffer data = ByteBuffer.allocate((int) lengths[index]);
+
+                /*
+                 * Positional reads don't move the channel's
+                 * position, so threads can't get in each other's way.
+                 */
+                while (data.hasRemaining()) {
+                    if (channel.read(data, offsets[index] + data.position()) < 0)
+                        throw new EOFException("Archive changed while reading: " + archive);
+                }
+
+                ((Buffer) data).flip();
+                return data.asReadOnlyBuffer();
+            }
+
+            public long getBytesTransferred() {
+                return bytesTransferred;
+            }
+
+            public void close()
+                    throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "[" + archive + "]";
+    }
+}
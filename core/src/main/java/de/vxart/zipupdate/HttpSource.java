@@ -0,0 +1,720 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import de.vxart.io.BandwidthManager;
+import de.vxart.io.ThrottledInputStream;
+import de.vxart.net.MultipartIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads archives from HTTP servers supporting byte-range requests.
+ * <p>
+ * All ranges of a batch are requested with a single multi-range request,
+ * runs of adjacent ranges as one range each. The response is downloaded
+ * into a temporary file which gets memory-mapped and indexed once the
+ * data of the first range is accessed. If the server answers with the
+ * whole archive instead, the batch is split into requests of fewer runs;
+ * a server not supporting ranges at all has the ranges served from the
+ * whole archive.
+ * <p>
+ * Use the <code>de.vxart.zipupdate.HttpSource.indexCache</code> system
+ * property to keep the index files in the given directory along with
+ * their ETag and Last-Modified headers; they are then only downloaded
+ * again when a conditional request says they changed.
+ * <p>
+ * Connecting times out after the milliseconds given by the
+ * <code>de.vxart.zipupdate.HttpSource.connectTimeout</code> system
+ * property (default 10000), waiting for data after those given by
+ * <code>de.vxart.zipupdate.HttpSource.readTimeout</code> (default 30000);
+ * this applies to every request made for an update, not just the ones
+ * of HttpSources.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class HttpSource implements UpdateSource {
+    private static final Logger logger = UpdateEngine.logger;
+
+    private final static String CONTENT_TYPE = "Content-Type";
+    private final static String BOUNDARY_DELIM = "boundary=";
+
+    private final static String INDEX_CACHE = System.getProperty("de.vxart.zipupdate.HttpSource.indexCache");
+    private final static int CONNECT_TIMEOUT = Integer.getInteger("de.vxart.zipupdate.HttpSource.connectTimeout", 10000);
+    private final static int READ_TIMEOUT = Integer.getInteger("de.vxart.zipupdate.HttpSource.readTimeout", 30000);
+
+    private final URL url;
+
+    /*
+     * The number of runs a request may contain, lowered
+     * whenever the server sends the whole archive instead.
+     */
+    private volatile int maxRuns = Integer.MAX_VALUE;
+
+
+    /**
+     * Creates a new HttpSource for the archive at the specified URL.
+     *
+     * @param url the URL of the archive, the index is expected at
+     *            the same URL with <code>.idx</code> appended
+     */
+    public HttpSource(URL url) {
+        this.url = url;
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    /**
+     * Opens a connection to the given URL which times out as configured.
+     */
+    static URLConnection open(URL url)
+            throws IOException {
+        URLConnection conn = url.openConnection();
+        conn.setConnectTimeout(CONNECT_TIMEOUT);
+        conn.setReadTimeout(READ_TIMEOUT);
+        return conn;
+    }
+
+    public InputStream openIndex()
+            throws IOException {
+        URL index = new URL(url.toString() + ".idx");
+
+        if (INDEX_CACHE == null)
+            return open(index).getInputStream();
+
+        return openCachedIndex(index, new File(INDEX_CACHE));
+    }
+
+    /**
+     * Opens the index at the given URL from the cache directory if
+     * the server says it didn't change, downloading it into the cache
+     * otherwise. A cached index starts with its ETag, Last-Modified
+     * header and size, followed by the index as downloaded.
+     */
+    private static InputStream openCachedIndex(URL index, File directory)
+            throws IOException {
+        byte[] hash = EntryObjects.newDigest().digest(index.toString().getBytes(StandardCharsets.UTF_8));
+        File cached = new File(directory, EntryObjects.getName(hash) + ".idx");
+
+        String etag = "";
+        String lastModified = "";
+
+        if (cached.exists()) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(cached))) {
+                etag = in.readUTF();
+                lastModified = in.readUTF();
+            } catch (IOException ex) {
+                logger.log(Level.FINE, "Ignoring unreadable cached index: " + cached, ex);
+            }
+        }
+
+        HttpURLConnection conn = (HttpURLConnection) open(index);
+        if (!etag.isEmpty())
+            conn.setRequestProperty("If-None-Match", etag);
+        if (!lastModified.isEmpty())
+            conn.setRequestProperty("If-Modified-Since", lastModified);
+
+        if (conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            conn.getInputStream().close();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cached)));
+            try {
+                in.readUTF();
+                in.readUTF();
+                long size = in.readLong();
+
+                if (cached.length() - 2 - etag.getBytes(StandardCharsets.UTF_8).length
+                        - 2 - lastModified.getBytes(StandardCharsets.UTF_8).length - 8 != size)
+                    throw new IOException("Cached index truncated: " + cached);
+            } catch (IOException ex) {
+                in.close();
+                cached.delete();
+                throw ex;
+            }
+
+            logger.log(Level.FINE, "Using cached index: " + index);
+            return in;
+        }
+
+        InputStream remote = conn.getInputStream();
+
+        etag = conn.getHeaderField("ETag");
+        lastModified = conn.getHeaderField("Last-Modified");
+        if (etag == null && lastModified == null)
+            return remote;
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = remote.read(buf)) != -1) {
+                body.write(buf, 0, len);
+            }
+        } finally {
+            remote.close();
+        }
+
+        /*
+         * Replace the cached index atomically, it's only
+         * a cache so failing to do so doesn't matter.
+         */
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("Failed to create index cache: " + directory);
+
+            File tmp = File.createTempFile(cached.getName() + ".", ".tmp", directory);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeUTF(etag != null ? etag : "");
+                out.writeUTF(lastModified != null ? lastModified : "");
+                out.writeLong(body.size());
+                body.writeTo(out);
+            }
+
+            try {
+                Files.move(tmp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ex) {
+                tmp.delete();
+                throw ex;
+            }
+        } catch (IOException ex) {
+            logger.log(Level.FINE, "Failed to cache index: " + index, ex);
+        }
+
+        return new ByteArrayInputStream(body.toByteArray());
+    }
+
+    public Ranges read(long[] offsets, long[] lengths, BandwidthManager bandwidthManager, ProgressListener progress)
+            throws IOException {
+        return read(offsets, lengths, bandwidthManager, progress, null);
+    }
+
+    /**
+     * Reads a batch of byte ranges, registering every connection made
+     * with the given Connections so the read can be aborted from another
+     * thread, which interrupting doesn't do for HTTP connections.
+     *
+     * @param connections where to register connections, may be null
+     */
+    Ranges read(long[] offsets, long[] lengths, BandwidthManager bandwidthManager, ProgressListener progress,
+                Connections connections)
+            throws IOException {
+        List<Ranges> batches = new ArrayList<>();
+        final int[] batchOf = new int[offsets.length];
+        final int[] indexInBatch = new int[offsets.length];
+        long transferred = 0;
+
+        try {
+            int from = 0;
+            while (from < offsets.length) {
+                int to = endOfBatch(offsets, lengths, from, maxRuns);
+                Ranges ranges = readBatch(offsets, lengths, from, to, bandwidthManager, progress, transferred, connections);
+
+                if (ranges == null) {
+                    /*
+                     * The server would have sent the whole archive instead
+                     * of this many ranges, so try again with half as many.
+                     */
+                    maxRuns = Math.max(1, countRuns(offsets, lengths, from, to) / 2);
+                    logger.log(Level.FINE, "Server ignored request for " + (to - from) + " ranges, requesting at most "
+                            + maxRuns + " runs at once: " + url);
+                    continue;
+                }
+
+                /*
+                 * A whole archive has been sent for a single run, so the
+                 * server doesn't do ranges at all; serve the rest from it.
+                 */
+                if (ranges instanceof WholeRanges)
+                    to = offsets.length;
+
+                for (int i = from; i < to; i++) {
+                    batchOf[i] = batches.size();
+                    indexInBatch[i] = i - from;
+                }
+
+                batches.add(ranges);
+                transferred += ranges.getBytesTransferred();
+                from = to;
+            }
+        } catch (IOException | RuntimeException ex) {
+            for (Ranges ranges : batches) {
+                try {
+                    ranges.close();
+                } catch (IOException ioex) {
+                    ex.addSuppressed(ioex);
+                }
+            }
+            throw ex;
+        }
+
+        if (batches.size() == 1)
+            return batches.get(0);
+
+        final Ranges[] results = batches.toArray(new Ranges[batches.size()]);
+        final long bytesTransferred = transferred;
+
+        return new Ranges() {
+            public ByteBuffer get(int index)
+                    throws IOException {
+                return results[batchOf[index]].get(indexInBatch[index]);
+            }
+
+            public long getBytesTransferred() {
+                return bytesTransferred;
+            }
+
+            public void close()
+                    throws IOException {
+                for (Ranges ranges : results) {
+                    ranges.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Reads the ranges from one index to another with a single request.
+     *
+     * @param transferred the number of bytes transferred by previous batches
+     * @return the data of the ranges, null if the server would have sent the
+     *         whole archive instead of several runs
+     */
+    private Ranges readBatch(long[] allOffsets, long[] allLengths, int from, int to,
+                             BandwidthManager bandwidthManager, ProgressListener progress, long transferred,
+                             Connections connections)
+            throws IOException {
+        long[] offsets = Arrays.copyOfRange(allOffsets, from, to);
+        long[] lengths = Arrays.copyOfRange(allLengths, from, to);
+
+        /*
+         * Request runs of adjacent ranges (e.g. in archives laid out
+         * by the Repacker) as one range each, the server would be free
+         * to coalesce them anyway.
+         */
+        int[] runs = new int[offsets.length];
+        long[] runOffsets = new long[offsets.length];
+        Map<String, Integer> rangedRuns = new HashMap<>();
+
+        StringBuilder byteRangesHeader = new StringBuilder("bytes=");
+        int run = -1;
+        long runStart = 0;
+
+        for (int i = 0; i < offsets.length; i++) {
+            if (i == 0 || offsets[i] != offsets[i - 1] + lengths[i - 1]) {
+                if (run >= 0)
+                    endRun(byteRangesHeader, rangedRuns, run, runStart, offsets[i - 1] + lengths[i - 1]);
+
+                run++;
+                runStart = offsets[i];
+            }
+
+            runs[i] = run;
+            runOffsets[i] = offsets[i] - runStart;
+        }
+        endRun(byteRangesHeader, rangedRuns, run, runStart, offsets[offsets.length - 1] + lengths[offsets.length - 1]);
+
+        HttpURLConnection conn = (HttpURLConnection) open(url);
+        conn.setRequestProperty("Range", byteRangesHeader.toString());
+        if (connections != null)
+            connections.add(conn);
+        conn.connect();
+
+        /*
+         * A server ignoring the Range header, or refusing to send that
+         * many ranges, sends the whole archive; check before downloading.
+         */
+        int status = conn.getResponseCode();
+        boolean whole = status == HttpURLConnection.HTTP_OK;
+
+        if (whole && rangedRuns.size() > 1) {
+            conn.disconnect();
+            return null;
+        }
+
+        if (!whole && status != HttpURLConnection.HTTP_PARTIAL) {
+            conn.disconnect();
+            throw new IOException("Unexpected response to range request: " + status);
+        }
+
+        File cacheFile = createCacheFile();
+
+        logger.log(Level.FINE, "Downloading " + (whole ? "whole archive" : "data") + " into cache: source=" + url
+                + " cache=" + cacheFile.getAbsolutePath());
+
+        try {
+            try (OutputStream cacheOut = new FileOutputStream(cacheFile)) {
+                transfer(conn, cacheOut, (int) Math.min(Integer.MAX_VALUE, transferred), bandwidthManager, progress);
+            }
+
+            logger.log(Level.FINE, "Downloaded data successfully: source=" + url + " cache=" + cacheFile.getAbsolutePath());
+
+            if (whole) {
+                return new WholeRanges(MultipartIndex.single(cacheFile, Collections.<String, String>emptyMap()),
+                        Arrays.copyOfRange(allOffsets, from, allOffsets.length),
+                        Arrays.copyOfRange(allLengths, from, allLengths.length));
+            }
+        } catch (IOException | RuntimeException ex) {
+            cacheFile.delete();
+            throw ex;
+        }
+
+        /*
+         * Header names are case-insensitive, unlike the keys
+         * of the header map, so let the connection look it up.
+         */
+        return new CachedRanges(cacheFile, conn.getHeaderField(CONTENT_TYPE), rangedRuns, runs, runOffsets, lengths);
+    }
+
+    /**
+     * Returns the index after the last range of a batch starting at the
+     * given index containing at most the given number of runs.
+     */
+    private static int endOfBatch(long[] offsets, long[] lengths, int from, int maxRuns) {
+        int runs = 1;
+
+        for (int i = from + 1; i < offsets.length; i++) {
+            if (offsets[i] != offsets[i - 1] + lengths[i - 1] && ++runs > maxRuns)
+                return i;
+        }
+
+        return offsets.length;
+    }
+
+    private static int countRuns(long[] offsets, long[] lengths, int from, int to) {
+        int runs = 1;
+
+        for (int i = from + 1; i < to; i++) {
+            if (offsets[i] != offsets[i - 1] + lengths[i - 1])
+                runs++;
+        }
+
+        return runs;
+    }
+
+    private static void endRun(StringBuilder byteRangesHeader, Map<String, Integer> rangedRuns, int run, long start, long end) {
+        String range = start + "-" + (end - 1);
+
+        if (run > 0)
+            byteRangesHeader.append(',');
+        byteRangesHeader.append(range);
+
+        rangedRuns.put(range, run);
+    }
+
+    /**
+     * Creates an empty temporary file to download data into.
+     */
+    static File createCacheFile()
+            throws IOException {
+        File cacheFile = File.createTempFile("banana", null);
+        cacheFile.delete();
+        cacheFile.deleteOnExit();
+        return cacheFile;
+    }
+
+    /**
+     * Copies the response of the specified connection to the given stream
+     * reporting the progress to the listener.
+     *
+     * @param progress the progress before this transfer
+     * @return the progress after this transfer
+     */
+    static int transfer(HttpURLConnection conn, OutputStream out, int progress,
+                        BandwidthManager bandwidthManager, ProgressListener listener)
+            throws IOException {
+        InputStream remote;
+        // TODO Egal added try-catch
+        try {
+            remote = conn.getInputStream();
+        } catch (IOException e) {
+            logger.log(Level.INFO, "IOException while connecting to source: " + conn.getURL() + " , " + e.getMessage());
+            final Map<String, List<String>> lHeaderFields = conn.getHeaderFields();
+            for (String lHeaderObject : lHeaderFields.keySet()) {
+                logger.log(Level.INFO, "HTTPResponseHeader - " + lHeaderObject + ": " + lHeaderFields.get(lHeaderObject));
+            }
+            throw e;
+        }
+
+        /*
+         * Throttle also while unlimited, the rate may change any time.
+         */
+        remote = new ThrottledInputStream(remote, bandwidthManager);
+
+        remote = new BufferedInputStream(remote);
+
+        byte[] buf = new byte[4096];
+        int len;
+
+        try {
+            while ((len = remote.read(buf)) != -1) {
+                out.write(buf, 0, len);
+                progress += len;
+                listener.update(progress);
+            }
+        } finally {
+            remote.close();
+        }
+
+        return progress;
+    }
+
+    private static String getBoundary(String contentType) {
+        /*
+         * Find the beginning of the boundary
+         * in the content type header.
+         */
+        int boundaryIndex = contentType.indexOf(BOUNDARY_DELIM);
+        if (boundaryIndex < 0) {
+            throw new NullPointerException("No boundary was found.");
+        }
+
+        String boundary;
+
+        /*
+         * Look for a charset component following the boundary
+         * in the content type header.
+         */
+        int charsetIndex = contentType.indexOf(";", boundaryIndex);
+        if (charsetIndex > 0) {
+            /*
+             * There is a charset component, so chop
+             * that off from the boundary.
+             */
+            boundary = contentType.substring(
+                    boundaryIndex + BOUNDARY_DELIM.length(),
+                    charsetIndex);
+        } else {
+            /*
+             * No charset, boundary goes up to the end of the header.
+             */
+            boundary = contentType.substring(
+                    boundaryIndex + BOUNDARY_DELIM.length());
+        }
+
+        return boundary;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "[" + url + "]";
+    }
+
+    /**
+     * The connections of a read, to disconnect them from another thread;
+     * connections added after that are disconnected right away.
+     */
+    static final class Connections {
+        private final List<HttpURLConnection> connections = new ArrayList<>(1);
+        private boolean disconnected;
+
+        synchronized void add(HttpURLConnection conn)
+                throws InterruptedIOException {
+            if (disconnected)
+                throw new InterruptedIOException("Read has been aborted: " + conn.getURL());
+
+            connections.add(conn);
+        }
+
+        void disconnect() {
+            List<HttpURLConnection> open;
+
+            synchronized (this) {
+                disconnected = true;
+                open = new ArrayList<>(connections);
+                connections.clear();
+            }
+
+            for (HttpURLConnection conn : open) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Ranges served from a downloaded copy of the whole archive.
+     */
+    private static class WholeRanges implements Ranges {
+        private final MultipartIndex index;
+        private final long[] offsets;
+        private final long[] lengths;
+
+
+        WholeRanges(MultipartIndex index, long[] offsets, long[] lengths) {
+            this.index = index;
+            this.offsets = offsets;
+            this.lengths = lengths;
+        }
+
+        public ByteBuffer get(int range)
+                throws IOException {
+            return index.slice(index.part(offsets[range], lengths[range]));
+        }
+
+        public long getBytesTransferred() {
+            return index.getFile().length();
+        }
+
+        public void close() {
+            index.close();
+
+            File file = index.getFile();
+            if (!file.delete() && file.exists())
+                logger.log(Level.WARNING, "Failed to delete cache file: " + file);
+        }
+    }
+
+    /**
+     * The downloaded response to a range request,
+     * indexed on first access.
+     */
+    private static class CachedRanges implements Ranges {
+        private final File file;
+        private final String contentType;
+        private final Map<String, Integer> rangedRuns;
+        private final int[] runs;
+        private final long[] runOffsets;
+        private final long[] lengths;
+
+        private MultipartIndex index;
+        private MultipartIndex.Entry[] runParts;
+        private boolean closed;
+
+
+        CachedRanges(File file, String contentType, Map<String, Integer> rangedRuns,
+                     int[] runs, long[] runOffsets, long[] lengths) {
+            this.file = file;
+            this.contentType = contentType;
+            this.rangedRuns = rangedRuns;
+            this.runs = runs;
+            this.runOffsets = runOffsets;
+            this.lengths = lengths;
+        }
+
+        public ByteBuffer get(int range)
+                throws IOException {
+            MultipartIndex.Entry part = getRunParts()[runs[range]];
+
+            if (runOffsets[range] + lengths[range] > part.getLength())
+                throw new IOException("Range exceeds the data received: " + part);
+
+            ByteBuffer data = index.slice(part);
+            ((Buffer) data).position((int) runOffsets[range]);
+            ((Buffer) data).limit((int) (runOffsets[range] + lengths[range]));
+
+            return data.slice();
+        }
+
+        public long getBytesTransferred() {
+            return file.length();
+        }
+
+        public synchronized void close() {
+            closed = true;
+
+            if (index != null)
+                index.close();
+
+            if (!file.delete() && file.exists())
+                logger.log(Level.WARNING, "Failed to delete cache file: " + file);
+        }
+
+        /**
+         * Returns the parts of the response by run after indexing
+         * the response if not done yet.
+         */
+        private synchronized MultipartIndex.Entry[] getRunParts()
+                throws IOException {
+            if (closed)
+                throw new IOException("Cached ranges have been closed: " + file);
+
+            if (runParts != null)
+                return runParts;
+
+            MultipartIndex.Entry[] parts = new MultipartIndex.Entry[rangedRuns.size()];
+
+            if (parts.length == 1) {
+                /*
+                 * If only a single range got requested, the server will respond
+                 * with a normal request containing only the byte-range data as body,
+                 * no need to run the multipart parser all over it.
+                 */
+                index = MultipartIndex.single(file, Collections.<String, String>emptyMap());
+                parts[0] = index.get(0);
+            } else {
+                /*
+                 * Index the multipart response from the server once and
+                 * map the parts back to the runs by their ranges.
+                 */
+                index = MultipartIndex.index(file, getBoundary(contentType));
+
+                for (MultipartIndex.Entry part : index) {
+                    String rangeHeader = part.getHeaders().get(
+                            "Content-Range".toLowerCase());
+
+                    String range = rangeHeader.substring(
+                            rangeHeader.indexOf(' ') + 1,
+                            rangeHeader.indexOf('/'));
+
+                    Integer run = rangedRuns.get(range);
+                    if (run == null)
+                        throw new IOException("Unexpected range in response: " + rangeHeader);
+
+                    parts[run] = part;
+                }
+
+                for (int run = 0; run < parts.length; run++) {
+                    if (parts[run] == null)
+                        throw new IOException("Missing range in response: " + file);
+                }
+            }
+
+            logger.log(Level.FINE, "Indexed " + parts.length + " cached ranges: " + file);
+
+            runParts = parts;
+            return runParts;
+        }
+    }
+}
@@ -0,0 +1,533 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import de.vxart.zip.CentralDirectoryRecordView;
+import de.vxart.zip.EndOfCentralDirectoryView;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteOrder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.*;
+
+import static de.vxart.zip.ZipConstants.CENTRAL_DIRECTORY;
+import static de.vxart.zip.ZipConstants.CENTRAL_DIRECTORY_LENGTH;
+
+/**
+ * Creates an index file from ZIP/JAR archives used by the client-side
+ * update mechanism to download individual ZIP entries from a web server.
+ * <p>
+ * Given the previously published versions of an archive, it also creates
+ * a delta bundle per version containing all entries new or changed since
+ * then, see {@link #bundle(File, File...)}.
+ * <p>
+ * Use the <code>de.vxart.zipupdate.Indexer.objects</code> system property
+ * to publish every entry as a separate object as well, see
+ * {@link #index(File, boolean)}.
+ * <p>
+ * Indexing a directory also writes a {@link DirectoryManifest} listing the
+ * index files of all archives in it; set the
+ * <code>de.vxart.zipupdate.Indexer.embedIndexes</code> system property
+ * to embed the index files themselves in the manifest.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class Indexer {
+    private static Logger logger = Logger.getLogger(Indexer.class.getName());
+
+    private final static boolean OBJECTS = Boolean.getBoolean("de.vxart.zipupdate.Indexer.objects");
+    private final static boolean EMBED_INDEXES = Boolean.getBoolean("de.vxart.zipupdate.Indexer.embedIndexes");
+
+    /**
+     * Provides a basic stand-alone way to index archives.
+     *
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args)
+            throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: java de.vxart.zipupdate.Indexer <ZIP file | directory>");
+            System.err.println("   or: java de.vxart.zipupdate.Indexer <ZIP file> <previous version>...");
+            System.exit(1);
+        }
+
+        File input = new File(args[0]);
+
+        if (input.isFile()) {
+            index(input);
+
+            if (args.length > 1) {
+                File[] sources = new File[args.length - 1];
+                for (int i = 1; i < args.length; i++) {
+                    sources[i - 1] = new File(args[i]);
+                }
+                bundle(input, sources);
+            }
+        } else if (input.isDirectory()) {
+            File[] files = input.listFiles((dir, name) -> {
+                name = name.toLowerCase();
+                return name.endsWith(".zip") || name.endsWith(".jar");
+            });
+
+            if (files.length < 1) {
+                logger.log(Level.WARNING, "No ZIP/JAR files found in " + input.getCanonicalPath());
+                System.exit(2);
+            }
+
+            logger.log(Level.INFO, "Generating index for all files in " + input);
+
+            Arrays.sort(files);
+            for (File file : files) {
+                index(file);
+            }
+
+            DirectoryManifest.write(input, files, EMBED_INDEXES);
+        }
+
+    }
+
+    private Indexer() {
+        // Empty private constructor
+    }
+
+    /**
+     * Creates an index file for the specified archive in the same
+     * directory. The index file will be named after the original
+     * file plus and ".idx" ending.
+     *
+     * @param archive the archive to generate an index for
+     * @throws IOException
+     */
+    public static void index(File archive) throws IOException {
+        index(archive, OBJECTS);
+    }
+
+    /**
+     * Creates an index file for the specified archive in the same
+     * directory, optionally publishing the raw data of every entry as a
+     * separate object named by its hash in the "objects" directory next
+     * to the archive and referencing them from the index.
+     * <p>
+     * Clients fetch such objects with plain, independent requests, so
+     * archives can be updated from servers without support for byte
+     * ranges, like some object stores and static hosts.
+     *
+     * @param archive the archive to generate an index for
+     * @param objects whether to publish the entries as objects
+     * @throws IOException
+     */
+    public static void index(File archive, boolean objects) throws IOException {
+        logger.log(Level.INFO, "Generating index for " + archive.getAbsolutePath());
+
+        Map<Resource, Long> entries = parseZipFile(archive);
+
+        Checksum checker = new CRC32();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, false);
+
+        File indexFile = new File(
+                archive.getParentFile(),
+                archive.getName() + ".idx");
+
+        DataOutputStream index = new DataOutputStream(
+                new CheckedOutputStream(
+                        new BufferedOutputStream(
+                                new DeflaterOutputStream(
+                                        new FileOutputStream(indexFile),
+                                        deflater)
+                        ),
+                        checker)
+        );
+
+        for (Resource entry : entries.keySet()) {
+            String name = entry.getName();
+            long crc = entry.getCrc();
+            long endOffset = entries.get(entry);
+
+            /*
+            System.out.println(
+                name +
+                " crc=0x" + Long.toHexString(crc).toUpperCase() +
+                " end=" + endOffset);
+            */
+
+            index.writeUTF(name);
+            index.writeLong(crc);
+            index.writeLong(endOffset);
+        }
+
+        index.writeUTF("");
+        index.flush();
+
+        long checksum = checker.getValue();
+        index.writeLong(checksum);
+
+        logger.log(Level.FINE,
+                "Checksum for index data: 0x" +
+                        Long.toHexString(checksum).toUpperCase());
+
+        if (objects) {
+            for (byte[] hash : publishObjects(archive, entries)) {
+                index.write(hash);
+            }
+            index.flush();
+            index.writeLong(checker.getValue());
+        }
+
+        index.close();
+
+        /*
+         * DeflaterOutputStream doesn't end() Deflaters it
+         * didn't create, free the native memory right away.
+         */
+        deflater.end();
+    }
+
+    /**
+     * Writes the raw data of all entries as objects named by their hash,
+     * skipping the ones that have already been published.
+     *
+     * @return the hashes of the entries in the order of the index
+     */
+    private static List<byte[]> publishObjects(File archive, Map<Resource, Long> entries)
+            throws IOException {
+        File directory = new File(archive.getAbsoluteFile().getParentFile(), EntryObjects.DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Failed to create object directory: " + directory);
+
+        List<byte[]> hashes = new ArrayList<>(entries.size());
+        MessageDigest digest = EntryObjects.newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        int published = 0;
+
+        try (FileChannel in = new FileInputStream(archive).getChannel()) {
+            long previousEndOffset = -1;
+            for (long endOffset : entries.values()) {
+                long start = previousEndOffset + 1;
+                long end = endOffset + 1;
+                previousEndOffset = endOffset;
+
+                for (long position = start; position < end; ) {
+                    ((Buffer) buffer).clear();
+                    ((Buffer) buffer).limit((int) Math.min(buffer.capacity(), end - position));
+                    int read = in.read(buffer, position);
+                    if (read < 0)
+                        throw new IOException("Unexpected end of archive: " + archive);
+                    ((Buffer) buffer).flip();
+                    digest.update(buffer);
+                    position += read;
+                }
+
+                byte[] hash = digest.digest();
+                hashes.add(hash);
+
+                File object = new File(directory, EntryObjects.getName(hash));
+                if (object.exists())
+                    continue;
+
+                /*
+                 * Write to a temporary file first, so a half-written
+                 * object never shows up under its final name.
+                 */
+                File tmpFile = new File(directory, object.getName() + ".tmp");
+                try (FileChannel out = new FileOutputStream(tmpFile).getChannel()) {
+                    for (long position = start; position < end; ) {
+                        position += in.transferTo(position, end - position, out);
+                    }
+                }
+
+                if (!tmpFile.renameTo(object))
+                    throw new IOException("Failed to move object into place: " + object);
+
+                published++;
+            }
+        }
+
+        logger.log(Level.FINE, "Published " + published + " new objects for " + entries.size() + " entries: " + directory);
+
+        return hashes;
+    }
+
+    /**
+     * Creates a delta bundle for each of the specified previous versions of
+     * an archive in the same directory as the archive, containing the raw
+     * data of all entries new or changed since that version, and a manifest
+     * listing them named after the archive plus a ".bundles" ending.
+     * <p>
+     * Clients needing exactly the entries of a bundle fetch it with a single,
+     * cacheable request instead of a request for scattered byte ranges
+     * unique to them; all other clients keep requesting byte ranges.
+     * Previous versions needing the same entries share a single bundle.
+     *
+     * @param archive  the current version of the archive
+     * @param sources  the previously published versions of the archive
+     * @throws IOException
+     */
+    public static void bundle(File archive, File... sources) throws IOException {
+        Map<Resource, Long> entries = parseZipFile(archive);
+        Map<Long, String> bundles = new LinkedHashMap<>();
+
+        for (File source : sources) {
+            logger.log(Level.INFO, "Generating delta bundle for " + archive.getName() + " from " + source.getAbsolutePath());
+
+            Map<String, Long> sourceCrcs = new HashMap<>();
+            for (Resource resource : parseZipFile(source).keySet()) {
+                sourceCrcs.put(resource.getName(), resource.getCrc());
+            }
+
+            /*
+             * Collect the ranges of the new or changed entries
+             * in the order they appear in the current archive.
+             */
+            List<Resource> changed = new ArrayList<>();
+            List<long[]> ranges = new ArrayList<>();
+
+            long previousEndOffset = -1;
+            for (Map.Entry<Resource, Long> entry : entries.entrySet()) {
+                Resource resource = entry.getKey();
+                long endOffset = entry.getValue();
+
+                Long crc = sourceCrcs.get(resource.getName());
+                if (crc == null || crc != resource.getCrc()) {
+                    changed.add(resource);
+                    ranges.add(new long[]{previousEndOffset + 1, endOffset + 1});
+                }
+
+                previousEndOffset = endOffset;
+            }
+
+            if (changed.isEmpty()) {
+                logger.log(Level.INFO, "No delta bundle required, already up to date: " + source.getAbsolutePath());
+                continue;
+            }
+
+            long key = DeltaBundles.key(changed);
+            if (bundles.containsKey(key))
+                continue;
+
+            String bundleName = DeltaBundles.getFileName(archive.getName(), key);
+            File bundleFile = new File(archive.getParentFile(), bundleName);
+
+            try (FileChannel in = new FileInputStream(archive).getChannel();
+                 FileChannel out = new FileOutputStream(bundleFile).getChannel()) {
+                for (long[] range : ranges) {
+                    long position = range[0];
+                    while (position < range[1]) {
+                        position += in.transferTo(position, range[1] - position, out);
+                    }
+                }
+            }
+
+            logger.log(Level.FINE, "Wrote delta bundle with " + changed.size() + " entries: " + bundleFile);
+
+            bundles.put(key, bundleName);
+        }
+
+        DeltaBundles.writeManifest(
+                new File(archive.getParentFile(), archive.getName() + DeltaBundles.MANIFEST_SUFFIX),
+                bundles);
+    }
+
+    /**
+     * Manually parses a ZIP file without using any classes from
+     * java.util.zip.* to create a list of minimal Resources in
+     * the ZIP file including the end offsets of those entries.
+     * <p>
+     * The Central Directory is memory-mapped and walked in a single
+     * sequential pass using one reusable header view, so parsing doesn't
+     * create any garbage per record except the Resource itself.
+     *
+     * @param archive the ZIP file to parse
+     * @throws IOException
+     * @return a map of Resources and their end offsets in the ZIP file
+     */
+    public static Map<Resource, Long> parseZipFile(File archive)
+            throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(archive, "r")) {
+            FileChannel channel = file.getChannel();
+
+            /*
+             * Account for ZIP file comments at the end of a file
+             * by searching the EOCD in a single read of the tail.
+             */
+            EndOfCentralDirectoryView eocd = EndOfCentralDirectoryView.find(channel);
+            long centralDirectoryOffset = eocd.getCentralDirectoryOffset();
+            long centralDirectorySize = eocd.getCentralDirectorySize();
+
+            ByteBuffer centralDirectory = readCentralDirectory(channel, eocd, archive);
+
+            /*
+             * IMPORTANT: Use a Map implementation here that preserves
+             * **insertion order** because we rely on it for computing
+             * the start offset on the client later on!
+             */
+            Map<Resource, Long> entries = new LinkedHashMap<>();
+
+            Resource resource = null;
+
+            /*
+             * Walk the records by the size of the Central Directory rather
+             * than the record count from the EOCD, the count is capped at
+             * 0xFFFF for archives with lots of entries.
+             */
+            CentralDirectoryRecordView header = new CentralDirectoryRecordView();
+            int position = 0;
+            while (position < centralDirectorySize) {
+                wrap(header, centralDirectory, position, archive);
+
+                /*
+                 * Take the *start* offset of the current resource minus one
+                 * as *end* offset for the previous resource. This allows us
+                 * to store only the end offset in the index, saving 4 bytes
+                 * per resource.
+                 */
+                if (resource != null) {
+                    entries.put(resource, header.getOffsetToLocalFileHeader() - 1L);
+                }
+
+                resource = new Resource(header.getName(), header.getCrc());
+
+                position += header.getTotalLength();
+            }
+
+            /*
+             * Don't forget the last resource!
+             */
+            if (resource != null) {
+                entries.put(resource, centralDirectoryOffset - 1L);
+            }
+
+            return entries;
+        }
+    }
+
+
+    /**
+     * Reads the whole Central Directory of an archive into a heap buffer.
+     * It's not mapped: a mapping can't be released explicitly and keeps
+     * the archive from being renamed or deleted on some platforms.
+     */
+    static ByteBuffer readCentralDirectory(FileChannel channel, EndOfCentralDirectoryView eocd, File archive)
+            throws IOException {
+        long size = eocd.getCentralDirectorySize();
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Central Directory larger than 2 GB: " + archive);
+
+        ByteBuffer centralDirectory = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        long offset = eocd.getCentralDirectoryOffset();
+
+        while (centralDirectory.hasRemaining()) {
+            if (channel.read(centralDirectory, offset + centralDirectory.position()) < 0)
+                throw new IOException("Truncated Central Directory: " + archive);
+        }
+        ((Buffer) centralDirectory).flip();
+
+        return centralDirectory;
+    }
+
+    /**
+     * Positions the view on the Central Directory record at the given
+     * position, failing if there is none or it doesn't fit into the
+     * Central Directory, e.g. because the archive is corrupted or
+     * truncated.
+     */
+    static void wrap(CentralDirectoryRecordView header, ByteBuffer centralDirectory, int position, File archive)
+            throws IOException {
+        if (position + CENTRAL_DIRECTORY_LENGTH > centralDirectory.limit()
+                || centralDirectory.getInt(position) != CENTRAL_DIRECTORY)
+            throw new IOException("Corrupted Central Directory at record offset " + position + ": " + archive);
+
+        header.wrap(centralDirectory, position);
+
+        if (position + header.getTotalLength() > centralDirectory.limit())
+            throw new IOException("Truncated Central Directory at record offset " + position + ": " + archive);
+    }
+
+    /*
+     * Read compressed data and decompress it
+     *
+    byte[] data = new byte[(int)compressedSize];
+
+    File dataFile = new File(outputDir, name);
+    if(compressedSize == 0)
+    {
+        dataFile.mkdirs();
+        System.out.println(name + " created.");
+    }
+    else
+    {
+        dataFile.getParentFile().mkdirs();
+
+        int dataSize = zipFile.read(data);
+        if(dataSize != compressedSize)
+        {
+            throw new IOException("The monkey demands " + dataSize + " bananas.");
+        }
+
+        BufferedOutputStream out =
+            new BufferedOutputStream(
+                new FileOutputStream(dataFile));
+
+        byte[] uncompressedData = new byte[(int)uncompressedSize];
+
+        switch ((int)compressionMethod)
+        {
+            case METHOD_STORED:
+                uncompressedData = data;
+                break;
+
+            case METHOD_DEFLATED:
+                Inflater decompressor = new Inflater(true);
+                decompressor.setInput(data);
+                decompressor.inflate(uncompressedData);
+                break;
+
+            default:
+                throw new IOException(
+                    "Unsupported compression method: " +
+                    hex(compressionMethod));
+        }
+
+        out.write(uncompressedData);
+        out.flush();
+        out.close();
+
+        System.out.println(name + " written.");
+    }
+    */
+
+    /*
+    private static void print(byte[] buf)
+    {
+        for (int i = 0; i < buf.length; i++)
+        {
+            System.out.print(Integer.toHexString(buf[i] & 0xFF).toUpperCase());
+            System.out.print(" ");
+        }
+    }
+    */
+}
@@ -0,0 +1,769 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import de.vxart.io.BandwidthManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads archives from several mirrors with identical contents.
+ * <p>
+ * The index is fetched from all mirrors at once and the one of the first
+ * mirror answering is used right away. The others are checked against it
+ * in the background as they arrive: mirrors whose index doesn't have
+ * exactly the same contents (and thus checksum), or doesn't arrive within
+ * a deadline, aren't used at all. Reading ranges waits for the check.
+ * <p>
+ * Byte ranges are read in batches of about the same size, each mirror
+ * reading a few batches at a time and picking up the next one as soon as
+ * it's done, so batches get spread over the mirrors in proportion to their
+ * throughput; free mirrors with the best throughput measured so far go
+ * first. A batch taking longer than a percentile of the batches read before
+ * is requested again from another mirror ("hedged") and whichever answer
+ * arrives first is used, the other request is disconnected (if it's made
+ * by an {@link HttpSource}) and its data discarded. A batch failing is requested from another mirror
+ * right away and the mirror failing isn't used for the rest of the read.
+ * <p>
+ * Use the <code>de.vxart.zipupdate.MirrorSource.batchSize</code> system
+ * property to set the bytes per batch (1 MB by default) and
+ * <code>de.vxart.zipupdate.MirrorSource.hedgePercentile</code> to set the
+ * percentile of batch times after which to hedge (0.95 by default, 0
+ * disables hedging). <code>de.vxart.zipupdate.MirrorSource.indexTimeout</code>
+ * sets how many milliseconds after the first index the other mirrors
+ * have to deliver theirs (10000 by default).
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class MirrorSource implements UpdateSource {
+    private static final Logger logger = UpdateEngine.logger;
+
+    private final static long BATCH_SIZE = Math.max(1,
+            Long.getLong("de.vxart.zipupdate.MirrorSource.batchSize", 1024 * 1024));
+
+    private final static double HEDGE_PERCENTILE = Double.parseDouble(
+            System.getProperty("de.vxart.zipupdate.MirrorSource.hedgePercentile", "0.95"));
+
+    private final static long INDEX_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(
+            Long.getLong("de.vxart.zipupdate.MirrorSource.indexTimeout", 10000));
+
+    /*
+     * Batches each mirror reads at the same time.
+     */
+    private final static int CONNECTIONS = 2;
+
+    /*
+     * Number of batch times the percentile is computed from, and how
+     * many are needed before it's used instead of the initial delay.
+     */
+    private final static int HISTORY = 100;
+    private final static int MIN_HISTORY = 10;
+    private final static long INITIAL_HEDGE_DELAY = TimeUnit.SECONDS.toNanos(1);
+    private final static long MIN_HEDGE_DELAY = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /*
+     * Weight of a new sample in the moving average of the throughput.
+     */
+    private final static double SMOOTHING = 0.3;
+
+    private final List<Mirror> mirrors;
+
+    private final long[] durations = new long[HISTORY];
+    private int durationCount;
+
+    private UpdateMetrics metrics = UpdateMetrics.detached();
+
+    /*
+     * Released once the indexes of all mirrors have been checked.
+     */
+    private volatile CountDownLatch verified;
+
+
+    /**
+     * Creates a new MirrorSource reading from the specified sources,
+     * the first one being the primary mirror.
+     *
+     * @param sources the sources of the mirrors
+     */
+    public MirrorSource(List<? extends UpdateSource> sources) {
+        if (sources.isEmpty())
+            throw new IllegalArgumentException("No mirrors given");
+
+        List<Mirror> mirrors = new ArrayList<>(sources.size());
+        for (UpdateSource source : sources) {
+            mirrors.add(new Mirror(source));
+        }
+        this.mirrors = Collections.unmodifiableList(mirrors);
+    }
+
+    /**
+     * Returns the URL of the primary mirror.
+     */
+    public URL getUrl() {
+        return mirrors.get(0).source.getUrl();
+    }
+
+    /**
+     * Sets the metrics to count the additional requests of the current update in.
+     */
+    void setMetrics(UpdateMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Fetches the index from all mirrors at once and returns the one of the
+     * first mirror answering, leaving the other mirrors to be checked
+     * against it in the background.
+     */
+    public InputStream openIndex()
+            throws IOException {
+        final ExecutorService fetchers = newPool("MirrorSource-index-");
+        final CompletionService<IndexFetch> completion = new ExecutorCompletionService<>(fetchers);
+        final CountDownLatch verified = new CountDownLatch(1);
+        this.verified = verified;
+
+        for (final Mirror mirror : mirrors) {
+            mirror.active = false;
+            completion.submit(() -> {
+                IndexFetch fetch = new IndexFetch(mirror);
+                try (InputStream in = mirror.source.openIndex()) {
+                    fetch.index = readFully(in);
+                    fetch.contents = readFully(new InflaterInputStream(new ByteArrayInputStream(fetch.index)));
+                } catch (IOException ex) {
+                    fetch.error = ex;
+                } catch (RuntimeException ex) {
+                    fetch.error = new IOException("Failed to fetch index from mirror: " + mirror.source.getUrl(), ex);
+                }
+                return fetch;
+            });
+        }
+
+        IndexFetch reference = null;
+        IOException failure = null;
+        int remaining = mirrors.size();
+
+        try {
+            while (reference == null && remaining > 0) {
+                IndexFetch fetch = get(completion.take());
+                remaining--;
+
+                if (fetch.error == null) {
+                    reference = fetch;
+                } else {
+                    logger.log(Level.WARNING, "Not using mirror, failed to fetch its index: " + fetch.mirror.source.getUrl(), fetch.error);
+                    if (failure == null)
+                        failure = fetch.error;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            verified.countDown();
+            fetchers.shutdownNow();
+            throw new InterruptedIOException("Interrupted while fetching the index from mirrors");
+        }
+
+        if (reference == null) {
+            verified.countDown();
+            fetchers.shutdownNow();
+            throw failure;
+        }
+
+        reference.mirror.active = true;
+
+        final byte[] contents = reference.contents;
+        final int others = remaining;
+        final long deadline = System.nanoTime() + INDEX_TIMEOUT;
+
+        fetchers.submit(() -> verify(completion, others, contents, deadline, verified, fetchers));
+        fetchers.shutdown();
+
+        return new ByteArrayInputStream(reference.index);
+    }
+
+    /**
+     * Checks the indexes of the other mirrors against the one used as they
+     * arrive, mirrors not delivering theirs by the deadline aren't used.
+     */
+    private void verify(CompletionService<IndexFetch> completion, int others, byte[] contents, long deadline,
+                        CountDownLatch verified, ExecutorService fetchers) {
+        try {
+            for (int i = 0; i < others; i++) {
+                Future<IndexFetch> done = completion.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    logger.log(Level.WARNING, "Not using " + (others - i) + " mirrors, their index didn't arrive in time: " + this);
+                    break;
+                }
+
+                IndexFetch fetch = get(done);
+                Mirror mirror = fetch.mirror;
+
+                if (fetch.error != null) {
+                    logger.log(Level.WARNING, "Not using mirror, failed to fetch its index: " + mirror.source.getUrl(), fetch.error);
+                } else if (Arrays.equals(fetch.contents, contents)) {
+                    mirror.active = true;
+                } else {
+                    logger.log(Level.WARNING, "Not using mirror, its index differs: " + mirror.source.getUrl());
+                }
+            }
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Failed to check the index of mirrors: " + this, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            verified.countDown();
+            fetchers.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits until the indexes of all mirrors have been checked
+     * or the deadline for them has passed.
+     */
+    private void awaitVerification()
+            throws InterruptedIOException {
+        CountDownLatch verified = this.verified;
+        if (verified == null)
+            return;
+
+        try {
+            verified.await(INDEX_TIMEOUT, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while checking the index of mirrors");
+        }
+    }
+
+    public Ranges read(long[] offsets, long[] lengths, BandwidthManager bandwidthManager, ProgressListener progress)
+            throws IOException {
+        /*
+         * Cut the ranges into batches of about the same size.
+         */
+        List<Batch> batches = new ArrayList<>();
+        int[] batchOf = new int[offsets.length];
+        int[] indexInBatch = new int[offsets.length];
+
+        int from = 0;
+        long bytes = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            batchOf[i] = batches.size();
+            indexInBatch[i] = i - from;
+            bytes += lengths[i];
+
+            if (bytes >= BATCH_SIZE || i == offsets.length - 1) {
+                batches.add(new Batch(
+                        Arrays.copyOfRange(offsets, from, i + 1),
+                        Arrays.copyOfRange(lengths, from, i + 1)));
+                from = i + 1;
+                bytes = 0;
+            }
+        }
+
+        awaitVerification();
+
+        for (Mirror mirror : mirrors) {
+            mirror.failed = !mirror.active;
+            mirror.running = 0;
+        }
+
+        ExecutorService fetchers = newPool("MirrorSource-fetch-");
+        CompletionService<Attempt> completion = new ExecutorCompletionService<>(fetchers);
+        AtomicLong total = new AtomicLong();
+
+        ArrayDeque<Batch> pending = new ArrayDeque<>(batches);
+        List<Batch> running = new ArrayList<>();
+        long transferred = 0;
+        int attempts = 0;
+        int unresolved = batches.size();
+
+        try {
+            while (unresolved > 0) {
+                /*
+                 * Hand out pending batches to the best mirrors with a free connection.
+                 */
+                while (!pending.isEmpty()) {
+                    Mirror mirror = pick(null, true);
+                    if (mirror == null)
+                        break;
+
+                    Batch batch = pending.poll();
+                    start(completion, batch, mirror, bandwidthManager, progress, total, attempts++);
+                    running.add(batch);
+                }
+
+                if (running.isEmpty())
+                    throw new IOException("No mirror left to read from: " + this);
+
+                long delay = getHedgeDelay();
+                long now = System.nanoTime();
+                long timeout = Long.MAX_VALUE;
+
+                if (delay > 0) {
+                    for (Batch batch : running) {
+                        if (!batch.hedged)
+                            timeout = Math.min(timeout, batch.started + delay - now);
+                    }
+                }
+
+                Future<Attempt> done = timeout == Long.MAX_VALUE
+                        ? completion.take()
+                        : completion.poll(Math.max(0, timeout), TimeUnit.NANOSECONDS);
+
+                if (done == null) {
+                    /*
+                     * Send a duplicate request for overdue batches
+                     * to another mirror and wait for both.
+                     */
+                    now = System.nanoTime();
+                    for (Batch batch : running) {
+                        if (batch.hedged || now - batch.started < delay)
+                            continue;
+
+                        batch.hedged = true;
+                        Mirror mirror = pick(batch, false);
+                        if (mirror != null) {
+                            logger.log(Level.FINE, "Hedging batch of " + batch.offsets.length + " ranges with " + mirror.source.getUrl());
+                            start(completion, batch, mirror, bandwidthManager, progress, total, attempts++);
+                            metrics.hedged();
+                        }
+                    }
+                    continue;
+                }
+
+                Attempt attempt = get(done);
+                Batch batch = attempt.batch;
+                Mirror mirror = attempt.mirror;
+                mirror.running--;
+                batch.running--;
+
+                /*
+                 * The other request of a hedged batch won, this
+                 * one has been cancelled or is of no use anymore.
+                 */
+                if (batch.ranges != null) {
+                    if (attempt.error == null)
+                        transferred += attempt.ranges.getBytesTransferred();
+                    attempt.dispose();
+                    continue;
+                }
+
+                if (attempt.error == null) {
+                    transferred += attempt.ranges.getBytesTransferred();
+                    record(mirror, attempt);
+
+                    attempt.used = true;
+                    batch.ranges = attempt.ranges;
+                    running.remove(batch);
+                    unresolved--;
+
+                    for (Attempt other : batch.attempts) {
+                        if (other != attempt)
+                            other.cancel();
+                    }
+                    continue;
+                }
+
+                logger.log(Level.WARNING, "Failed to read " + batch.offsets.length + " ranges from mirror: " + mirror.source.getUrl(), attempt.error);
+                mirror.failed = true;
+
+                if (batch.ranges == null && batch.running == 0) {
+                    Mirror other = pick(batch, false);
+                    if (other == null)
+                        throw attempt.error;
+
+                    start(completion, batch, other, bandwidthManager, progress, total, attempts++);
+                    metrics.retried();
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading from mirrors");
+        } finally {
+            /*
+             * Give up on the slower requests of hedged batches; reads
+             * from HTTP connections can't be interrupted, so they get
+             * disconnected, and on the data of any requests not used.
+             */
+            for (Batch batch : batches) {
+                for (Attempt attempt : batch.attempts) {
+                    if (!attempt.used)
+                        attempt.cancel();
+                }
+            }
+            fetchers.shutdownNow();
+        }
+
+        final Ranges[] results = new Ranges[batches.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = batches.get(i).ranges;
+        }
+
+        final long bytesTransferred = transferred;
+
+        return new Ranges() {
+            public ByteBuffer get(int index)
+                    throws IOException {
+                return results[batchOf[index]].get(indexInBatch[index]);
+            }
+
+            public long getBytesTransferred() {
+                return bytesTransferred;
+            }
+
+            public void close()
+                    throws IOException {
+                IOException failure = null;
+
+                for (Ranges ranges : results) {
+                    try {
+                        ranges.close();
+                    } catch (IOException ioex) {
+                        failure = ioex;
+                    }
+                }
+
+                if (failure != null)
+                    throw failure;
+            }
+        };
+    }
+
+    /**
+     * Starts reading a batch from a mirror.
+     */
+    private void start(CompletionService<Attempt> completion, Batch batch, Mirror mirror,
+                       BandwidthManager bandwidthManager, ProgressListener progress, AtomicLong total, int attempts) {
+        /*
+         * The UpdateLocation counts the first request.
+         */
+        if (attempts > 0)
+            metrics.requested();
+
+        Attempt attempt = new Attempt(batch, mirror);
+        BatchProgress batchProgress = new BatchProgress(batch, total, progress);
+
+        mirror.running++;
+        batch.running++;
+        batch.tried.add(mirror);
+        batch.attempts.add(attempt);
+        if (batch.started == 0)
+            batch.started = System.nanoTime();
+
+        completion.submit(() -> {
+            try {
+                Ranges ranges = mirror.source instanceof HttpSource
+                        ? ((HttpSource) mirror.source).read(batch.offsets, batch.lengths, bandwidthManager, batchProgress, attempt.connections)
+                        : mirror.source.read(batch.offsets, batch.lengths, bandwidthManager, batchProgress);
+                attempt.completed(ranges);
+            } catch (IOException ex) {
+                attempt.error = ex;
+            } catch (RuntimeException ex) {
+                attempt.error = new IOException("Failed to read from mirror: " + mirror.source.getUrl(), ex);
+            }
+            attempt.finished = System.nanoTime();
+            return attempt;
+        });
+    }
+
+    /**
+     * Picks the usable mirror with the best throughput, preferring
+     * mirrors that haven't been measured yet.
+     *
+     * @param batch the batch to pick another mirror for than tried before, or null
+     * @param free  whether the mirror must have a free connection
+     * @return the mirror or null if none is usable
+     */
+    private Mirror pick(Batch batch, boolean free) {
+        Mirror best = null;
+
+        for (Mirror mirror : mirrors) {
+            if (mirror.failed || (free && mirror.running >= CONNECTIONS) || (batch != null && batch.tried.contains(mirror)))
+                continue;
+
+            if (best == null || (best.throughput > 0 && (mirror.throughput == 0 || mirror.throughput > best.throughput)))
+                best = mirror;
+        }
+
+        return best;
+    }
+
+    /**
+     * Records the throughput of a mirror and the time
+     * taken for a batch read successfully.
+     */
+    private void record(Mirror mirror, Attempt attempt) {
+        long nanos = Math.max(1, attempt.finished - attempt.started);
+        double throughput = attempt.ranges.getBytesTransferred() * 1e9 / nanos;
+
+        mirror.throughput = mirror.throughput == 0
+                ? throughput
+                : SMOOTHING * throughput + (1 - SMOOTHING) * mirror.throughput;
+
+        synchronized (durations) {
+            durations[durationCount++ % HISTORY] = nanos;
+        }
+    }
+
+    /**
+     * Returns the time after which a batch gets hedged,
+     * or 0 if there's no other mirror to hedge with.
+     */
+    private long getHedgeDelay() {
+        if (HEDGE_PERCENTILE <= 0 || HEDGE_PERCENTILE >= 1)
+            return 0;
+
+        long[] sorted;
+        synchronized (durations) {
+            if (durationCount < MIN_HISTORY)
+                return INITIAL_HEDGE_DELAY;
+
+            sorted = Arrays.copyOf(durations, Math.min(durationCount, HISTORY));
+        }
+
+        Arrays.sort(sorted);
+        return Math.max(MIN_HEDGE_DELAY, sorted[(int) (HEDGE_PERCENTILE * (sorted.length - 1))]);
+    }
+
+    private static ExecutorService newPool(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, name + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static <T> T get(Future<T> future)
+            throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException)
+                throw (IOException) ex.getCause();
+            throw new IOException("Failed to read from mirror", ex.getCause());
+        }
+    }
+
+    private static byte[] readFully(InputStream in)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int len;
+
+        while ((len = in.read(buf)) != -1) {
+            out.write(buf, 0, len);
+        }
+
+        return out.toByteArray();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder urls = new StringBuilder();
+        for (Mirror mirror : mirrors) {
+            if (urls.length() > 0)
+                urls.append(';');
+            urls.append(mirror.source.getUrl());
+        }
+        return getClass().getName() + "[" + urls + "]";
+    }
+
+    /**
+     * A mirror and what's known about it; apart from whether its
+     * index has been checked, only ever touched by the thread
+     * reading ranges.
+     */
+    private static final class Mirror {
+        final UpdateSource source;
+        volatile boolean active = true;
+        boolean failed;
+        int running;
+        double throughput;
+
+        Mirror(UpdateSource source) {
+            this.source = source;
+        }
+    }
+
+    /**
+     * A batch of consecutive ranges read from a single mirror at a time,
+     * or two if hedged.
+     */
+    private static final class Batch {
+        final long[] offsets;
+        final long[] lengths;
+        final Set<Mirror> tried = new HashSet<>();
+        final List<Attempt> attempts = new ArrayList<>(2);
+        long started;
+        int running;
+        boolean hedged;
+        Ranges ranges;
+
+        /*
+         * Progress reported so far by the fastest request.
+         */
+        long progress;
+
+        Batch(long[] offsets, long[] lengths) {
+            this.offsets = offsets;
+            this.lengths = lengths;
+        }
+    }
+
+    /**
+     * A single request for a batch.
+     */
+    private static final class Attempt {
+        final Batch batch;
+        final Mirror mirror;
+        final HttpSource.Connections connections = new HttpSource.Connections();
+        final long started = System.nanoTime();
+        volatile long finished;
+        volatile Ranges ranges;
+        volatile IOException error;
+        boolean used;
+
+        private volatile boolean discarded;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Attempt(Batch batch, Mirror mirror) {
+            this.batch = batch;
+            this.mirror = mirror;
+        }
+
+        /**
+         * Keeps the ranges read, discarding them right away
+         * if the request has been cancelled meanwhile.
+         */
+        void completed(Ranges ranges) {
+            this.ranges = ranges;
+            if (discarded)
+                dispose();
+        }
+
+        /**
+         * Disconnects the request if it's still running
+         * and discards any ranges it has read.
+         */
+        void cancel() {
+            connections.disconnect();
+            dispose();
+        }
+
+        /**
+         * Discards the ranges read, now or once the request completes.
+         */
+        void dispose() {
+            discarded = true;
+
+            Ranges ranges = this.ranges;
+            if (ranges != null && closed.compareAndSet(false, true)) {
+                try {
+                    ranges.close();
+                } catch (IOException ex) {
+                    logger.log(Level.FINE, "Failed to discard ranges read from mirror: " + mirror.source.getUrl(), ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * The index fetched from a mirror.
+     */
+    private static final class IndexFetch {
+        final Mirror mirror;
+        byte[] index;
+        byte[] contents;
+        IOException error;
+
+        IndexFetch(Mirror mirror) {
+            this.mirror = mirror;
+        }
+    }
+
+    /**
+     * Adds up the progress of all batches, counting
+     * only the fastest request of hedged batches.
+     */
+    private static final class BatchProgress implements ProgressListener {
+        private final Batch batch;
+        private final AtomicLong total;
+        private final ProgressListener progress;
+        private int value;
+
+        BatchProgress(Batch batch, AtomicLong total, ProgressListener progress) {
+            this.batch = batch;
+            this.total = total;
+            this.progress = progress;
+        }
+
+        public void init(String message) {
+        }
+
+        public void init(String message, int min, int max) {
+        }
+
+        public void update(int progress) {
+            value = progress;
+
+            long delta;
+            synchronized (batch) {
+                delta = progress - batch.progress;
+                if (delta <= 0)
+                    return;
+                batch.progress = progress;
+            }
+
+            this.progress.update((int) Math.min(Integer.MAX_VALUE, total.addAndGet(delta)));
+        }
+
+        public int getProgress() {
+            return value;
+        }
+
+        public void label(String label) {
+        }
+
+        public void finish() {
+        }
+    }
+}
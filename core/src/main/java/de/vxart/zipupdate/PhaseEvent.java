@@ -0,0 +1,42 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event covering a phase of an update.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+@Name("de.vxart.zipupdate.Phase")
+@Label("Update Phase")
+@Category("jzipupdate")
+@Description("A phase of updating an archive")
+class PhaseEvent extends jdk.jfr.Event {
+    @Label("Archive")
+    String archive;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Entries")
+    @Description("Number of entries processed in this phase")
+    long entries;
+}
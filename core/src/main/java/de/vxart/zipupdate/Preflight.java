@@ -0,0 +1,264 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipFile;
+
+/**
+ * Quickly finds out which archives need an update without updating them,
+ * e.g. to decide at startup whether to show any update UI at all.
+ * <p>
+ * All archives are checked concurrently: the names and CRCs of the local
+ * entries are read from the Central Directory and diffed with the index
+ * of the location, just like an update would. Only the index is fetched,
+ * not at all if the location has it embedded from a {@link DirectoryManifest}
+ * and with the <code>de.vxart.zipupdate.HttpSource.indexCache</code>
+ * property set only if it changed since it was cached. The requests
+ * made checking don't add up to {@link UpdateMetrics#getTotal()}.
+ * <p>
+ * Checking ends at the deadline given no matter what; archives not checked
+ * by then get a verdict of {@link #UNKNOWN}. Use the
+ * <code>de.vxart.zipupdate.Preflight.threads</code> system property to set
+ * the number of archives checked at once, it defaults to 16.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class Preflight {
+    private static final Logger logger = UpdateEngine.logger;
+
+    private static final int THREADS = Integer.getInteger("de.vxart.zipupdate.Preflight.threads", 16);
+
+    /**
+     * The archive is up to date.
+     */
+    public final static String CURRENT = "current";
+
+    /**
+     * The archive needs an update.
+     */
+    public final static String OUTDATED = "outdated";
+
+    /**
+     * The archive couldn't be checked in time or at all.
+     */
+    public final static String UNKNOWN = "unknown";
+
+
+    private Preflight() {
+        // Empty private constructor
+    }
+
+    /**
+     * Checks whether the given archives need an update.
+     * <p>
+     * The locations given aren't used themselves, only their sources, so
+     * checks still running past the deadline don't get in the way of
+     * updates started right after.
+     *
+     * @param archives  the archives to check, missing ones need a full update
+     * @param locations the locations where to look for the up-to-date archives
+     * @param timeout   the maximum time to wait for the verdicts
+     * @param unit      the unit of the timeout
+     * @return a verdict for every archive, in the same order
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static List<Verdict> check(File[] archives, UpdateLocation[] locations, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        if (archives.length != locations.length) {
+            throw new IllegalArgumentException(
+                    "Argument arrays are unequal in length: archives="
+                            + archives.length + ", locations="
+                            + locations.length);
+        }
+
+        if (archives.length == 0)
+            return Collections.emptyList();
+
+        long start = System.nanoTime();
+
+        List<Callable<Verdict>> checks = new ArrayList<>(archives.length);
+        for (int i = 0; i < archives.length; i++) {
+            File archive = archives[i];
+            UpdateLocation original = locations[i];
+            checks.add(() -> {
+                /*
+                 * Checking isn't updating, so count in metrics of its
+                 * own rather than those of any update of the archive.
+                 */
+                UpdateLocation location = new UpdateLocation(original);
+                location.setMetrics(UpdateMetrics.detached());
+                return check(archive, location);
+            });
+        }
+
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService checkers = Executors.newFixedThreadPool(Math.min(Math.max(1, THREADS), archives.length), r -> {
+            Thread thread = new Thread(r, "Preflight-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<Future<Verdict>> futures;
+        try {
+            futures = checkers.invokeAll(checks, timeout, unit);
+        } finally {
+            checkers.shutdownNow();
+        }
+
+        List<Verdict> verdicts = new ArrayList<>(archives.length);
+        int outdated = 0, unknown = 0;
+
+        for (int i = 0; i < archives.length; i++) {
+            Verdict verdict;
+            try {
+                verdict = futures.get(i).get();
+            } catch (CancellationException ex) {
+                verdict = new Verdict(archives[i], UNKNOWN, 0, -1,
+                        new TimeoutException("Deadline passed before checking " + archives[i]));
+            } catch (ExecutionException ex) {
+                verdict = new Verdict(archives[i], UNKNOWN, 0, -1, ex.getCause());
+            }
+
+            if (OUTDATED.equals(verdict.getStatus()))
+                outdated++;
+            else if (UNKNOWN.equals(verdict.getStatus()))
+                unknown++;
+
+            verdicts.add(verdict);
+        }
+
+        logger.log(Level.INFO, "Checked " + archives.length + " archives: " + outdated + " outdated, " +
+                unknown + " unknown (" + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms)");
+
+        return verdicts;
+    }
+
+    /**
+     * Returns true if any of the given verdicts says an update is needed.
+     */
+    public static boolean isUpdateNeeded(List<Verdict> verdicts) {
+        for (Verdict verdict : verdicts) {
+            if (OUTDATED.equals(verdict.getStatus()))
+                return true;
+        }
+        return false;
+    }
+
+    private static Verdict check(File archive, UpdateLocation location) {
+        try {
+            Set<Resource> client;
+            if (archive.exists()) {
+                try (ZipFile zip = new ZipFile(archive)) {
+                    client = UpdateEngine.init(zip);
+                }
+            } else {
+                client = Collections.emptySet();
+            }
+
+            Set<Resource> server = location.getResources();
+            Map<Resource, String> diff = UpdateEngine.diff(client, server);
+
+            if (diff.isEmpty())
+                return new Verdict(archive, CURRENT, 0, 0, null);
+
+            return new Verdict(archive, OUTDATED, diff.size(), location.getDownloadSize(diff), null);
+        } catch (IOException | RuntimeException ex) {
+            logger.log(Level.FINE, "Failed to check " + archive, ex);
+            return new Verdict(archive, UNKNOWN, 0, -1, ex);
+        }
+    }
+
+    /**
+     * Whether an archive needs an update and roughly how large it is.
+     */
+    public static class Verdict {
+        private final File archive;
+        private final String status;
+        private final int changes;
+        private final long downloadSize;
+        private final Throwable error;
+
+
+        Verdict(File archive, String status, int changes, long downloadSize, Throwable error) {
+            this.archive = archive;
+            this.status = status;
+            this.changes = changes;
+            this.downloadSize = downloadSize;
+            this.error = error;
+        }
+
+        public File getArchive() {
+            return archive;
+        }
+
+        /**
+         * Returns {@link #CURRENT}, {@link #OUTDATED} or {@link #UNKNOWN}.
+         */
+        public String getStatus() {
+            return status;
+        }
+
+        /**
+         * Returns the number of entries to be added, updated or removed.
+         */
+        public int getChanges() {
+            return changes;
+        }
+
+        /**
+         * Returns the size of the entries to be downloaded as byte ranges,
+         * -1 if unknown; delta bundles and chunks may take somewhat more.
+         */
+        public long getDownloadSize() {
+            return downloadSize;
+        }
+
+        /**
+         * Returns why the status is unknown, or null.
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getName() +
+                    "[archive=" + archive +
+                    ";status=" + status +
+                    ";changes=" + changes +
+                    ";downloadSize=" + downloadSize +
+                    "]";
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provides a convenient way to handle multiple ProgressListeners at once.
+ * <p>
+ * Events are delivered asynchronously, so slow listeners never hold up
+ * the caller: {@link ConfinedProgressListener}s (e.g. the ones updating Swing
+ * components) are called through their own Executor, all others on a shared
+ * dispatcher thread, in the order the events happened.
+ * Progress updates are coalesced, only the latest value gets delivered
+ * and no more often than the maximum rate.
+ * <p>
+ * Use the <code>de.vxart.zipupdate.ProgressListenerManager.maxRate</code>
+ * system property to set the default maximum number of progress updates
+ * per second; it defaults to 30.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class ProgressListenerManager implements ProgressListener, Iterable<ProgressListener> {
+    private static final Logger logger = Logger.getLogger("de.vxart.zipupdate");
+
+    private static final int DEFAULT_MAX_RATE = Integer.getInteger(
+            "de.vxart.zipupdate.ProgressListenerManager.maxRate", 30);
+
+    private static final ScheduledExecutorService dispatcher =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "ProgressListenerManager-dispatch");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /*
+     * Managers with a progress update not delivered yet; any other event
+     * delivers these first, so no update ever overtakes a later event.
+     */
+    private static final Set<ProgressListenerManager> pending = ConcurrentHashMap.newKeySet();
+
+    private final List<ProgressListener> listeners;
+    private final long interval;
+
+    private volatile int progress;
+    private volatile long lastUpdate;
+
+
+    public ProgressListenerManager() {
+        this(DEFAULT_MAX_RATE);
+    }
+
+    /**
+     * Creates a new ProgressListenerManager delivering
+     * at most the given number of updates per second.
+     *
+     * @param maxRate the maximum number of updates per second
+     */
+    public ProgressListenerManager(int maxRate) {
+        if (maxRate < 1)
+            throw new IllegalArgumentException("Maximum rate must be positive: " + maxRate);
+
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.interval = TimeUnit.SECONDS.toNanos(1) / maxRate;
+    }
+
+    public void add(ProgressListener listener) {
+        listeners.add(listener);
+    }
+
+    public void remove(ProgressListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void init(String message) {
+        dispatch(listener -> listener.init(message));
+    }
+
+    public void init(String message, int min, int max) {
+        progress = min;
+        dispatch(listener -> listener.init(message, min, max));
+    }
+
+    public void update(int progress) {
+        this.progress = progress;
+
+        if (pending.add(this)) {
+            long delay = lastUpdate + interval - System.nanoTime();
+            dispatcher.schedule(this::deliverProgress, Math.max(0, delay), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void label(String label) {
+        dispatch(listener -> listener.label(label));
+    }
+
+    public void finish() {
+        dispatch(ProgressListener::finish);
+    }
+
+    /**
+     * Returns and Iterator over all ProgressListeners
+     * registered with this manager.
+     */
+    public Iterator<ProgressListener> iterator() {
+        return listeners.iterator();
+    }
+
+    /**
+     * Returns the latest progress passed to this manager,
+     * whether it has been delivered yet or not.
+     */
+    public int getProgress() {
+        return progress;
+    }
+
+    /**
+     * Returns the number of ProgressListener registered with this manager.
+     *
+     * @return the number of ProgressListener in this manager.
+     */
+    public int size() {
+        return listeners.size();
+    }
+
+    /**
+     * Waits until all events reported to any ProgressListenerManager so far
+     * have been delivered, including progress updates still pending; events
+     * for Swing listeners may still be waiting on the event dispatch thread.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static void flush()
+            throws InterruptedException {
+        try {
+            dispatcher.submit(ProgressListenerManager::deliverPending).get();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Failed to deliver progress events", ex.getCause());
+        }
+    }
+
+    /**
+     * Delivers an event to all listeners after any progress updates still pending.
+     */
+    private void dispatch(Consumer<ProgressListener> event) {
+        dispatcher.execute(() -> {
+            deliverPending();
+            deliver(event);
+        });
+    }
+
+    private static void deliverPending() {
+        for (ProgressListenerManager manager : pending) {
+            manager.deliverProgress();
+        }
+    }
+
+    /**
+     * Delivers the latest progress if it hasn't been yet; only
+     * ever called on the dispatcher thread.
+     */
+    private void deliverProgress() {
+        if (!pending.remove(this))
+            return;
+
+        /*
+         * Read the progress only after leaving the pending set, any
+         * later update will schedule another delivery of its own.
+         */
+        int value = progress;
+        lastUpdate = System.nanoTime();
+        deliver(listener -> listener.update(value));
+    }
+
+    private void deliver(Consumer<ProgressListener> event) {
+        for (ProgressListener listener : listeners) {
+            if (listener instanceof ConfinedProgressListener) {
+                ((ConfinedProgressListener) listener).getExecutor().execute(() -> call(listener, event));
+            } else {
+                call(listener, event);
+            }
+        }
+    }
+
+    private static void call(ProgressListener listener, Consumer<ProgressListener> event) {
+        try {
+            event.accept(listener);
+        } catch (RuntimeException ex) {
+            logger.log(Level.WARNING, "ProgressListener failed: " + listener, ex);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import de.vxart.zip.CentralDirectoryRecordView;
+import de.vxart.zip.EndOfCentralDirectoryView;
+import de.vxart.zip.LocalFileHeaderView;
+import de.vxart.zip.ZipFileWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static de.vxart.zip.ZipConstants.*;
+
+/**
+ * Rewrites a server-side archive so that entries changing together are
+ * stored together, turning the scattered byte ranges of typical updates
+ * into a few long contiguous ones.
+ * <p>
+ * The order is derived from the previously published versions of the
+ * archive: stable entries come first, followed by the entries in the
+ * order of the version they last changed in, least frequently changed
+ * first for the same version. A client updating from any of those versions
+ * then only needs a single range at the end of the archive. The manifest
+ * of JAR files stays the first entry.
+ * <p>
+ * Entries are copied without recompressing them; their CRCs don't change,
+ * so clients see no difference except the order of the entries. The archive
+ * has to be indexed again after repacking, see {@link Indexer}.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class Repacker {
+    private static Logger logger = Logger.getLogger(Repacker.class.getName());
+
+    private final static String MANIFEST_DIR = "META-INF/";
+    private final static String MANIFEST = "META-INF/MANIFEST.MF";
+
+
+    /**
+     * Provides a basic stand-alone way to repack and re-index an archive.
+     *
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args)
+            throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java de.vxart.zipupdate.Repacker <ZIP file> <previous version>...");
+            System.err.println("Previous versions are given from oldest to newest.");
+            System.exit(1);
+        }
+
+        File archive = new File(args[0]);
+        File[] history = new File[args.length - 1];
+        for (int i = 1; i < args.length; i++) {
+            history[i - 1] = new File(args[i]);
+        }
+
+        repack(archive, history);
+        Indexer.index(archive);
+    }
+
+    private Repacker() {
+        // Empty private constructor
+    }
+
+    /**
+     * Repacks the specified archive in place ordering its entries by how
+     * they changed across the previous versions.
+     *
+     * @param archive the current version of the archive
+     * @param history the previously published versions, oldest first
+     * @throws IOException
+     */
+    public static void repack(File archive, File... history)
+            throws IOException {
+        logger.log(Level.INFO, "Repacking " + archive.getAbsolutePath() + " by " + history.length + " previous versions");
+
+        /*
+         * Find the last version each entry changed in and how often,
+         * version 0 being the oldest one given.
+         */
+        List<Map<String, Long>> versions = new ArrayList<>();
+        for (File version : history) {
+            versions.add(getCrcs(version));
+        }
+        versions.add(getCrcs(archive));
+
+        Map<String, int[]> changes = new HashMap<>();
+        for (int v = 0; v < versions.size(); v++) {
+            Map<String, Long> previous = v > 0 ? versions.get(v - 1) : null;
+
+            for (Map.Entry<String, Long> entry : versions.get(v).entrySet()) {
+                int[] change = changes.computeIfAbsent(entry.getKey(), name -> new int[2]);
+
+                Long previousCrc = previous != null ? previous.get(entry.getKey()) : entry.getValue();
+                if (previousCrc == null || !previousCrc.equals(entry.getValue())) {
+                    change[0] = v;
+                    change[1]++;
+                }
+            }
+        }
+
+        File tmpFile = new File(archive.getPath() + ".tmp");
+
+        try (RandomAccessFile file = new RandomAccessFile(archive, "r")) {
+            FileChannel channel = file.getChannel();
+            List<Entry> entries = getEntries(channel, archive);
+
+            /*
+             * The sort is stable, entries changing alike
+             * keep their original order.
+             */
+            entries.sort(Comparator
+                    .comparingInt((Entry entry) -> isManifest(entry.name) ? 0 : 1)
+                    .thenComparingInt(entry -> changes.get(entry.name)[0])
+                    .thenComparingInt(entry -> changes.get(entry.name)[1]));
+
+            copy(channel, entries, tmpFile);
+        }
+
+        File backupFile = new File(archive.getPath() + ".bck");
+
+        if (!archive.renameTo(backupFile))
+            throw new IOException("Failed to backup original file: " + archive);
+
+        if (!tmpFile.renameTo(archive)) {
+            if (!backupFile.renameTo(archive))
+                logger.log(Level.SEVERE, "Failed to restore backup: " + backupFile);
+            throw new IOException("Failed to move repacked file into place: " + tmpFile);
+        }
+
+        if (!backupFile.delete())
+            logger.log(Level.WARNING, "Failed to delete backup: " + backupFile);
+    }
+
+    private static boolean isManifest(String name) {
+        return name.equals(MANIFEST_DIR) || name.equals(MANIFEST);
+    }
+
+    private static Map<String, Long> getCrcs(File archive)
+            throws IOException {
+        Map<String, Long> crcs = new HashMap<>();
+        for (Resource resource : Indexer.parseZipFile(archive).keySet()) {
+            crcs.put(resource.getName(), resource.getCrc());
+        }
+        return crcs;
+    }
+
+    /**
+     * Reads the Central Directory of an archive in a single pass.
+     */
+    private static List<Entry> getEntries(FileChannel channel, File archive)
+            throws IOException {
+        EndOfCentralDirectoryView eocd = EndOfCentralDirectoryView.find(channel);
+
+        ByteBuffer centralDirectory = Indexer.readCentralDirectory(channel, eocd, archive);
+
+        List<Entry> entries = new ArrayList<>();
+
+        CentralDirectoryRecordView header = new CentralDirectoryRecordView();
+        int position = 0;
+        while (position < eocd.getCentralDirectorySize()) {
+            Indexer.wrap(header, centralDirectory, position, archive);
+
+            Entry entry = new Entry();
+            entry.name = header.getName();
+            entry.method = header.getCompressionMethod();
+            entry.dosTime = header.getLastModificationTime();
+            entry.dosDate = header.getLastModificationDate();
+            entry.crc = header.getCrc();
+            entry.compressedSize = header.getCompressedSize();
+            entry.uncompressedSize = header.getUncompressedSize();
+            entry.offset = header.getOffsetToLocalFileHeader();
+
+            if (entry.method != METHOD_STORED && entry.method != METHOD_DEFLATED)
+                throw new IOException("Unsupported compression method " + entry.method + ": " + entry.name);
+
+            entries.add(entry);
+
+            position += header.getTotalLength();
+        }
+
+        return entries;
+    }
+
+    /**
+     * Copies the compressed data of the entries in the given order.
+     */
+    private static void copy(FileChannel channel, List<Entry> entries, File target)
+            throws IOException {
+        ByteBuffer headerBuffer = ByteBuffer.allocate(LOCAL_FILE_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        LocalFileHeaderView header = new LocalFileHeaderView();
+        byte[] data = new byte[64 * 1024];
+        ByteBuffer dataBuffer = ByteBuffer.wrap(data);
+
+        try (ZipFileWriter writer = new ZipFileWriter(target)) {
+            for (Entry entry : entries) {
+                ((Buffer) headerBuffer).clear();
+                read(channel, headerBuffer, entry.offset);
+                header.wrap(headerBuffer, 0);
+
+                long position = entry.offset + LOCAL_FILE_HEADER_LENGTH + header.getNameLength() + header.getExtraLength();
+                long end = position + entry.compressedSize;
+
+                writer.beginEntry(entry.name, entry.method, entry.dosTime, entry.dosDate);
+
+                while (position < end) {
+                    ((Buffer) dataBuffer).clear();
+                    ((Buffer) dataBuffer).limit((int) Math.min(data.length, end - position));
+                    read(channel, dataBuffer, position);
+                    writer.write(data, 0, dataBuffer.position());
+                    position += dataBuffer.position();
+                }
+
+                writer.endEntry(entry.crc, entry.uncompressedSize);
+            }
+        }
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of archive");
+        }
+    }
+
+    /**
+     * The information needed to copy an entry.
+     */
+    private static class Entry {
+        String name;
+        int method;
+        int dosTime, dosDate;
+        long crc;
+        long compressedSize;
+        long uncompressedSize;
+        long offset;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event covering an HTTP request of an UpdateLocation,
+ * either for the index or for byte ranges of the archive.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+@Name("de.vxart.zipupdate.Request")
+@Label("Update Request")
+@Category("jzipupdate")
+@Description("An HTTP request for the index or data of an archive")
+class RequestEvent extends jdk.jfr.Event {
+    @Label("URL")
+    String url;
+
+    @Label("Ranges")
+    @Description("Number of byte ranges requested, 0 for the whole resource")
+    long ranges;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Status")
+    @Description("HTTP status code of the response")
+    int status;
+}
@@ -0,0 +1,426 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Checksum;
+
+/**
+ * Keeps track of patched archives built into a staging directory by
+ * {@link UpdateEngine#stage} and puts them in place with
+ * {@link UpdateEngine#applyStaged}.
+ * <p>
+ * Staged archives are written to uniquely named files in the staging
+ * directory and flushed to disk before they are recorded in the manifest
+ * (named {@value #MANIFEST}), which is replaced atomically. An archive is
+ * staged once and only once its manifest record exists, so anything left
+ * over from an interrupted staging is simply ignored and cleaned up.
+ * <p>
+ * Each record holds the path of the archive, the name and size of the
+ * staged file and the size and modification time the archive had when it
+ * was staged. Applying checks these for all records first, which takes
+ * the same time no matter how large the update was, and discards all of
+ * them if any doesn't match, e.g. because an archive was changed in the
+ * meantime; archives updated together are never mixed with older ones.
+ * Then every archive is renamed to a backup and the staged file to the
+ * archive; the manifest is deleted once all of them are in place, after
+ * listing the archives in another file (named {@value #APPLIED}) to find
+ * their backups by. If applying was interrupted before that, the next
+ * attempt rolls back whatever was renamed already and starts over,
+ * otherwise it deletes any backups left over. Staged files not recorded
+ * in the manifest are deleted before applying as well.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+class StagedUpdates {
+    private static final Logger logger = Logger.getLogger("de.vxart.zipupdate");
+
+    static final String MANIFEST = "jzipupdate.staged";
+    static final String APPLIED = "jzipupdate.applied";
+    static final String STAGED_SUFFIX = ".staged";
+    static final String BACKUP_SUFFIX = ".bck";
+
+    private final File directory;
+
+
+    StagedUpdates(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Failed to create staging directory: " + directory);
+
+        this.directory = directory;
+    }
+
+    /**
+     * Creates a new file to write the patched version of the given archive to.
+     */
+    File createFile(File archive) throws IOException {
+        return File.createTempFile(archive.getName() + ".", STAGED_SUFFIX, directory);
+    }
+
+    /**
+     * Records a file created by {@link #createFile} as the staged version
+     * of the given archive, replacing whatever was staged for it before.
+     *
+     * @param archive      the archive as it was when staging started
+     * @param size         its size at that time
+     * @param lastModified its modification time at that time
+     * @param staged       the patched version of the archive
+     */
+    void add(File archive, long size, long lastModified, File staged) throws IOException {
+        /*
+         * The staged file has to be on disk before
+         * the manifest says it's complete.
+         */
+        try (FileChannel channel = FileChannel.open(staged.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+
+        synchronized (StagedUpdates.class) {
+            List<Record> records = readManifest();
+            remove(records, archive);
+            records.add(new Record(archive.getAbsolutePath(), staged.getName(), staged.length(), size, lastModified));
+            writeManifest(records);
+        }
+    }
+
+    /**
+     * Drops whatever was staged for the given archive,
+     * e.g. because it turned out to be up to date.
+     */
+    void remove(File archive) throws IOException {
+        synchronized (StagedUpdates.class) {
+            List<Record> records = readManifest();
+            if (remove(records, archive))
+                writeManifest(records);
+        }
+    }
+
+    private boolean remove(List<Record> records, File archive) {
+        String path = archive.getAbsolutePath();
+
+        for (Iterator<Record> it = records.iterator(); it.hasNext(); ) {
+            Record record = it.next();
+            if (record.archive.equals(path)) {
+                it.remove();
+                delete(new File(directory, record.staged));
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Puts all staged archives in place.
+     *
+     * @return the number of archives updated, 0 if nothing was staged
+     * or the staged archives were discarded
+     * @throws IOException if the archives can't be renamed, e.g. because
+     *                     they're still open; they're all left as they
+     *                     were and the staged ones kept for another try
+     */
+    int apply() throws IOException {
+        synchronized (StagedUpdates.class) {
+            File manifest = new File(directory, MANIFEST);
+            File appliedList = new File(directory, APPLIED);
+
+            /*
+             * Without a manifest, an earlier update has been committed
+             * but may not have gotten to deleting all of its backups.
+             */
+            if (appliedList.exists()) {
+                if (!manifest.exists()) {
+                    try {
+                        for (Record record : read(appliedList)) {
+                            delete(new File(record.archive + BACKUP_SUFFIX));
+                        }
+                    } catch (IOException ex) {
+                        logger.log(Level.WARNING, "Failed to read list of applied updates: " + appliedList, ex);
+                    }
+                }
+                delete(appliedList);
+            }
+
+            List<Record> records;
+            try {
+                records = readManifest();
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Discarding staged updates in " + directory, ex);
+                clean();
+                return 0;
+            }
+
+            for (Record record : records) {
+                recover(record);
+            }
+
+            sweep(records);
+
+            for (Record record : records) {
+                String reason = verify(record);
+                if (reason != null) {
+                    logger.log(Level.WARNING, "Discarding staged updates in " + directory + ": " + reason);
+                    clean();
+                    return 0;
+                }
+            }
+
+            List<Record> applied = new ArrayList<>(records.size());
+            try {
+                for (Record record : records) {
+                    swap(record);
+                    applied.add(record);
+                }
+            } catch (IOException ex) {
+                for (int i = applied.size() - 1; i >= 0; i--) {
+                    recover(applied.get(i));
+                }
+                throw ex;
+            }
+
+            /*
+             * All archives are in place, deleting the manifest
+             * commits them; the backups are only needed until then.
+             */
+            write(appliedList, records);
+            if (!manifest.delete() && manifest.exists())
+                throw new IOException("Failed to delete manifest: " + manifest);
+
+            for (Record record : records) {
+                delete(new File(record.archive + BACKUP_SUFFIX));
+                logger.log(Level.INFO, "Applied staged update of " + record.archive);
+            }
+
+            delete(appliedList);
+            clean();
+
+            return records.size();
+        }
+    }
+
+    /**
+     * Returns why the given record can't be applied, or null if it can.
+     */
+    private String verify(Record record) {
+        File archive = new File(record.archive);
+        File staged = new File(directory, record.staged);
+
+        if (staged.length() != record.stagedSize)
+            return "staged file incomplete for " + archive;
+        if (archive.length() != record.size || archive.lastModified() != record.lastModified)
+            return archive + " changed since it was staged";
+
+        return null;
+    }
+
+    /**
+     * Replaces the archive of the given record by its staged version.
+     */
+    private void swap(Record record) throws IOException {
+        File archive = new File(record.archive);
+        File backup = new File(record.archive + BACKUP_SUFFIX);
+        File staged = new File(directory, record.staged);
+
+        if (!archive.renameTo(backup))
+            throw new IOException("Failed to backup original file: " + archive);
+
+        if (!staged.renameTo(archive)) {
+            backup.renameTo(archive);
+            throw new IOException("Failed to move staged file into place: " + staged);
+        }
+    }
+
+    /**
+     * Undoes a {@link #swap} of the given record, whether
+     * it completed or was interrupted half-way.
+     */
+    private void recover(Record record) {
+        File archive = new File(record.archive);
+        File backup = new File(record.archive + BACKUP_SUFFIX);
+        File staged = new File(directory, record.staged);
+
+        if (!backup.exists())
+            return;
+
+        if (archive.exists()) {
+            if (staged.exists()) {
+                /*
+                 * Left over from some earlier update.
+                 */
+                delete(backup);
+                return;
+            }
+
+            if (!archive.renameTo(staged)) {
+                logger.log(Level.WARNING, "Failed to move back staged file: " + archive);
+                return;
+            }
+        }
+
+        if (!backup.renameTo(archive))
+            logger.log(Level.WARNING, "Failed to restore backup: " + backup);
+    }
+
+    /**
+     * Deletes staged files not recorded in the given records and a
+     * manifest left half-written, i.e. what an interrupted staging
+     * left behind.
+     */
+    private void sweep(List<Record> records) {
+        delete(new File(directory, MANIFEST + ".tmp"));
+
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(STAGED_SUFFIX));
+        if (files == null)
+            return;
+
+        Set<String> recorded = new HashSet<>();
+        for (Record record : records) {
+            recorded.add(record.staged);
+        }
+
+        for (File file : files) {
+            if (!recorded.contains(file.getName()))
+                delete(file);
+        }
+    }
+
+    /**
+     * Deletes the manifest and all staged files, i.e. everything
+     * left over from applied, incomplete or discarded staging.
+     */
+    private void clean() {
+        delete(new File(directory, MANIFEST));
+
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(STAGED_SUFFIX));
+        if (files == null)
+            return;
+
+        for (File file : files) {
+            delete(file);
+        }
+    }
+
+    private static void delete(File file) {
+        if (!file.delete() && file.exists())
+            logger.log(Level.WARNING, "Failed to delete " + file);
+    }
+
+    private List<Record> readManifest() throws IOException {
+        return read(new File(directory, MANIFEST));
+    }
+
+    private static List<Record> read(File file) throws IOException {
+        List<Record> records = new ArrayList<>();
+
+        if (!file.exists())
+            return records;
+
+        Checksum checker = new CRC32();
+
+        try (DataInputStream manifest = new DataInputStream(
+                new CheckedInputStream(
+                        new BufferedInputStream(
+                                new FileInputStream(file)
+                        ), checker))) {
+            String archive;
+            while (!"".equals(archive = manifest.readUTF())) {
+                records.add(new Record(
+                        archive,
+                        manifest.readUTF(),
+                        manifest.readLong(),
+                        manifest.readLong(),
+                        manifest.readLong()));
+            }
+
+            long computedChecksum = checker.getValue();
+            long storedChecksum = manifest.readLong();
+
+            if (computedChecksum != storedChecksum) {
+                throw new IOException("Staging manifest corrupted");
+            }
+        }
+
+        return records;
+    }
+
+    private void writeManifest(List<Record> records) throws IOException {
+        write(new File(directory, MANIFEST), records);
+    }
+
+    /**
+     * Replaces the given file by one listing the given records,
+     * so it's never seen partially written.
+     */
+    private static void write(File file, List<Record> records) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+
+        Checksum checker = new CRC32();
+
+        try (FileOutputStream out = new FileOutputStream(tmp);
+             DataOutputStream manifest = new DataOutputStream(
+                     new CheckedOutputStream(
+                             new BufferedOutputStream(out),
+                             checker))) {
+            for (Record record : records) {
+                manifest.writeUTF(record.archive);
+                manifest.writeUTF(record.staged);
+                manifest.writeLong(record.stagedSize);
+                manifest.writeLong(record.size);
+                manifest.writeLong(record.lastModified);
+            }
+
+            manifest.writeUTF("");
+            manifest.flush();
+
+            manifest.writeLong(checker.getValue());
+            manifest.flush();
+
+            out.getFD().sync();
+        }
+
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Record {
+        final String archive;
+        final String staged;
+        final long stagedSize;
+        final long size;
+        final long lastModified;
+
+        Record(String archive, String staged, long stagedSize, long size, long lastModified) {
+            this.archive = archive;
+            this.staged = staged;
+            this.stagedSize = stagedSize;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
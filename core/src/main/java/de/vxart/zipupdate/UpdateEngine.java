@@ -0,0 +1,872 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import de.vxart.zip.CompressionPolicy;
+import de.vxart.zip.DefaultCompressionPolicy;
+import de.vxart.zip.ParallelZipWriter;
+import de.vxart.zipupdate.trace.Span;
+import de.vxart.zipupdate.trace.Tracer;
+import de.vxart.zipupdate.trace.Tracers;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.ErrorManager;
+import java.util.logging.FileHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * The work horse of the whole update system containing the diff and patch
+ * functionality as well as hooks to register listeners.<br>
+ * Use the <code>de.vxart.zipupdate.UpdateEngine.loglevel</code> system property to set the log
+ * level. Use the normal Java Logging levels (ALL, FINEST, CONFIG, FINER, FINE,
+ * INFO, WARNING, SEVERE).<br>
+ * Use the <code>de.vxart.zipupdate.UpdateEngine.threads</code> system property
+ * to set the number of threads compressing entries while patching; it defaults
+ * to the number of available processors.<br>
+ * The log file <code>%t/jzipupdate.log</code> is only created once something
+ * actually gets logged. For a structured trace of each update, see
+ * {@link de.vxart.zipupdate.trace.Tracers}.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ * @author Egal, egal (AT) mojang (DOT) com
+ */
+public class UpdateEngine {
+    protected static Logger logger = Logger.getLogger("de.vxart.zipupdate");
+
+    static {
+        try {
+            String logLevel = System.getProperty("de.vxart.zipupdate.UpdateEngine.loglevel", "INFO");
+            logger.setLevel(Level.parse(logLevel));
+            logger.setUseParentHandlers(false);
+            logger.addHandler(new ConsoleHandler());
+            logger.addHandler(new LazyFileHandler("%t/jzipupdate.log"));
+            for (Handler handler : logger.getHandlers()) {
+                handler.setLevel(logger.getLevel());
+            }
+        } catch (Exception ex) {
+            logger.log(Level.WARNING, "Failed to configure logging", ex);
+        }
+    }
+
+    private static final int THREADS = Integer.getInteger(
+            "de.vxart.zipupdate.UpdateEngine.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    private ProgressListenerManager multiListeners;
+    private ProgressListenerManager listeners;
+    private CompressionPolicy compressionPolicy = new DefaultCompressionPolicy();
+    private volatile UpdateMetrics lastMetrics;
+    private Tracer tracer = Tracers.getDefault();
+
+
+    /**
+     * Constructs a new UpdateEngine instance.
+     */
+    public UpdateEngine() {
+        this.listeners = new ProgressListenerManager();
+        this.multiListeners = new ProgressListenerManager();
+    }
+
+    /**
+     * Opens the given archive for updating, creating a minimal
+     * placeholder archive first if it doesn't exist yet.
+     *
+     * @param file the archive to open
+     * @return the archive opened
+     * @throws IOException if the archive can't be created or opened
+     */
+    public static ZipFile openArchive(File file)
+            throws IOException {
+        if (!file.exists()) {
+            /*
+             * Create a minimal dummy ZIP file as update target.
+             */
+            logger.log(Level.WARNING, "Update target doesn't exist, creating dummy: " + file.getAbsolutePath());
+
+            try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file))) {
+                zos.putNextEntry(new ZipEntry("banana"));
+                zos.write(0xCA);
+                zos.write(0xFE);
+                zos.closeEntry();
+            }
+        }
+
+        return new ZipFile(file);
+    }
+
+    /**
+     * Updates multiple ZIP files from the given URLs.
+     * <p>
+     * Displays a message for each ZIP file as it is
+     * being updated; if there are not enough messages
+     * for all ZIP files or the messages are NULL, the
+     * file name will be used.
+     *
+     * @param archives  the ZIP files to update
+     * @param locations the locations where to look for the up-to-date ZIP files
+     * @param messages  the messages to display for each ZIP file
+     * @return the number of ZIP files that have actually been updated
+     */
+    public int update(ZipFile[] archives, UpdateLocation[] locations, String[] messages)
+            throws IOException {
+
+        if (
+                archives.length != locations.length ||
+                        locations.length != messages.length ||
+                        locations.length != archives.length) {
+            throw new IllegalArgumentException(
+                    "Argument arrays are unequal in length: archives="
+                            + archives.length + ", locations="
+                            + locations.length + ", messages="
+                            + messages.length);
+        }
+
+        multiListeners.init(
+                "Updating " + archives.length + " archives...",
+                0,
+                archives.length);
+
+        int updated = 0;
+        for (int i = 0; i < archives.length; i++) {
+            multiListeners.label(messages[i]);
+
+            if (update(archives[i], locations[i]))
+                updated++;
+
+            multiListeners.update(i + 1);
+        }
+
+        multiListeners.finish();
+
+        return updated;
+    }
+
+    /**
+     * Updates a ZIP file from a given URL.
+     *
+     * @param archive  the ZIP file to update
+     * @param location the location where to look for the up-to-date ZIP file
+     * @return true if any updates have actually been performed, false otherwise
+     */
+    public boolean update(ZipFile archive, UpdateLocation location)
+            throws IOException {
+        return update(archive, location, null);
+    }
+
+    /**
+     * Builds the patched version of a ZIP file into a staging directory,
+     * leaving the ZIP file itself untouched (and open) so it can keep
+     * being used while this runs, e.g. on a background thread with the
+     * location set to {@link UpdateLocation#PRIORITY_BACKGROUND}.
+     * <p>
+     * Nothing is replaced until {@link #applyStaged(File)} is called with
+     * the same directory, typically at the next start before the archives
+     * are opened. Staging an archive again replaces what was staged for it
+     * before; the directory should be on the same file system as the
+     * archives so they can be replaced by renaming.
+     *
+     * @param archive   the ZIP file to update
+     * @param location  the location where to look for the up-to-date ZIP file
+     * @param directory the staging directory, created if it doesn't exist
+     * @return true if an update has been staged, false if the ZIP file is up to date
+     */
+    public boolean stage(ZipFile archive, UpdateLocation location, File directory)
+            throws IOException {
+        return update(archive, location, new StagedUpdates(directory));
+    }
+
+    /**
+     * Replaces all archives staged in the given directory by their patched
+     * versions, taking a few renames per archive no matter the size of the
+     * updates. Call this before opening any of the archives.
+     * <p>
+     * Staged archives are applied all together or not at all: if any of
+     * them wasn't staged completely or its archive changed since, they're
+     * all discarded and the archives stay as they are.
+     *
+     * @param directory the staging directory given to {@link #stage}
+     * @return the number of archives replaced
+     * @throws IOException if the archives can't be replaced; they're left
+     *                     as they were and the staged versions are kept
+     */
+    public static int applyStaged(File directory)
+            throws IOException {
+        if (!directory.isDirectory())
+            return 0;
+
+        long start = System.nanoTime();
+        int applied = new StagedUpdates(directory).apply();
+
+        if (applied > 0)
+            logger.log(Level.INFO, "Applied " + applied + " staged updates (" + millisSince(start) + " ms)");
+
+        return applied;
+    }
+
+    private boolean update(ZipFile archive, UpdateLocation location, StagedUpdates staging)
+            throws IOException {
+        logger.log(Level.INFO, "TODO Updating " + archive.getName() + " from " + location.getUrl());
+
+        /*
+         * Register any listeners on the UpdateLocation as well.
+         */
+        for (ProgressListener listener : listeners) {
+            location.addProgressListener(listener);
+        }
+
+        listeners.init("Initializing...");
+
+        UpdateMetrics metrics = new UpdateMetrics();
+        this.lastMetrics = metrics;
+        location.setMetrics(metrics);
+        metrics.updateStarted();
+
+        Span trace = tracer.start("update", null);
+        if (trace.isRecording()) {
+            trace.attribute("archive", archive.getName())
+                    .attribute("url", String.valueOf(location.getUrl()));
+        }
+        location.setTrace(tracer, trace);
+
+        long updateStart = System.nanoTime();
+        boolean patched;
+
+        try {
+            /*
+             * Initalize the patch set
+             */
+            logger.log(Level.FINE, "Initializing patch set...");
+            long start = System.nanoTime();
+            Object event = Events.beginPhase(archive.getName(), Events.PHASE_INIT);
+            Span span = tracer.start("init", trace);
+            Set<Resource> client = init(archive);
+            span.attribute("entries", client.size()).end();
+            Events.endPhase(event, client.size());
+            logger.log(Level.FINE, "Initialized patch set (" + millisSince(start) + " ms)");
+
+            /*
+             * Fetch server-side CRC list
+             */
+            logger.log(Level.FINE, "Fetching server-side CRC list...");
+            start = System.nanoTime();
+            Set<Resource> server = location.getResources();
+            metrics.indexFetched(System.nanoTime() - start);
+            logger.log(Level.FINE, "Fetched server-side CRC list (" + millisSince(start) + " ms)");
+
+            /*
+             * Diff contents of ZIP files
+             */
+            logger.log(Level.FINE, "Diffing " + (server.size() + client.size()) + " items...");
+            start = System.nanoTime();
+            event = Events.beginPhase(archive.getName(), Events.PHASE_DIFF);
+            span = tracer.start("diff", trace);
+            Map<Resource, String> diff = diff(client, server);
+            span.attribute("instructions", diff.size()).end();
+            Events.endPhase(event, diff.size());
+            countDiff(metrics, System.nanoTime() - start, diff, client.size());
+            logger.log(Level.FINE, "Diffing finished (" + millisSince(start) + " ms)");
+
+            /*
+             * Some nice output for the people watching the program run :)
+             */
+
+            logger.log(Level.FINE, "Total items on server: " + server.size());
+            logger.log(Level.FINE, "Total items on client: " + archive.size());
+            printDiff(diff);
+
+            /*
+             * Patch the ZIP file
+             */
+            logger.log(Level.FINE, "Patching " + archive.getName() + "...");
+            patched = patch(archive, diff, location, metrics, trace, staging);
+        } catch (IOException | RuntimeException ex) {
+            metrics.updateFailed();
+            trace.attribute("error", ex.toString()).end();
+            throw ex;
+        } finally {
+            location.setTrace(Tracer.NOOP, null);
+            location.setMetrics(UpdateMetrics.detached());
+        }
+
+        long time = System.nanoTime() - updateStart;
+        metrics.updateFinished(patched, time);
+        trace.attribute("patched", patched ? "true" : "false").end();
+
+        if (!patched) {
+            logger.log(Level.INFO, "No update necessary for " + archive.getName() + " (" + time / 1000000 + " ms)");
+        } else if (staging != null) {
+            logger.log(Level.INFO, "Staged update of " + archive.getName() + " (" + time / 1000000 + " ms)");
+        } else {
+            logger.log(Level.INFO, "Updated " + archive.getName() + " (" + time / 1000000 + " ms)");
+        }
+
+        logger.log(Level.FINE, "Metrics: " + metrics);
+
+        listeners.finish();
+
+        return patched;
+    }
+
+    /**
+     * Counts the entries by what the diff does to them; client
+     * entries neither updated nor removed are kept.
+     */
+    private static void countDiff(UpdateMetrics metrics, long nanos, Map<Resource, String> diff, int clientSize) {
+        long added = 0, updated = 0, removed = 0;
+
+        for (String flag : diff.values()) {
+            if (Resource.FLAG_ADD.equals(flag))
+                added++;
+            else if (Resource.FLAG_UPDATE.equals(flag))
+                updated++;
+            else if (Resource.FLAG_REMOVE.equals(flag))
+                removed++;
+        }
+
+        metrics.diffed(nanos, added, updated, removed, clientSize - updated - removed);
+    }
+
+    private static void printDiff(Map<Resource, String> diff) {
+        if (logger.isLoggable(Level.FINE)) {
+            int add, upd, noop, rem;
+            add = upd = noop = rem = 0;
+
+            logger.log(Level.FINE, "Final patch set size: " + diff.size());
+
+            logger.log(Level.FINE, "This is what I would do:");
+
+            if (diff.size() < 1) {
+                logger.log(Level.FINE, "\tKeep all. No patching necessary.");
+                return;
+            }
+
+            for (Resource resource : diff.keySet()) {
+                String flag = diff.get(resource);
+
+                if (flag == Resource.FLAG_NOOP) {
+                    noop++;
+                    continue;
+                } else if (flag == Resource.FLAG_ADD)
+                    add++;
+                else if (flag == Resource.FLAG_UPDATE)
+                    upd++;
+                else if (flag == Resource.FLAG_REMOVE)
+                    rem++;
+                else
+                    assert false : ("Undefined flag: " + flag);
+
+                if (logger.isLoggable(Level.FINER))
+                    logger.log(Level.FINER, "\t" + flag + " " + resource.getName());
+            }
+
+            logger.log(Level.FINE,
+                    "add: " + add + " " +
+                            "update: " + upd + " " +
+                            "remove: " + rem + " " +
+                            "keep: " + noop);
+        }
+    }
+
+    /**
+     * Initializes a resource set for a client-side ZipFile
+     * by creating Resource intances for every ZipEntry.
+     * <p>
+     * Note: The resource set returned is in the same order as
+     * the ZIP entries in the ZIP file. No streams to the entries
+     * are opened here, patching opens them one at a time as needed
+     * so we don't hold an Inflater for every entry at once.
+     *
+     * @param archive the ZIP file to create a resource set for
+     * @return
+     */
+    static Set<Resource> init(ZipFile archive) throws IOException {
+        Set<Resource> patchSet = new LinkedHashSet<>();
+
+        for (Enumeration<? extends ZipEntry> entries = archive.entries(); entries.hasMoreElements(); ) {
+            ZipEntry entry = entries.nextElement();
+
+            Resource resource = new Resource(entry.getName(), entry.getCrc());
+            patchSet.add(resource);
+        }
+
+        return patchSet;
+    }
+
+    /**
+     * Creates a diff from two resource sets with instructions to update
+     * the resource set given as first parameter to the resource set
+     * given as second.
+     *
+     * @param client the resource set to be updated
+     * @param server the "reference" resource set to be updated to
+     * @return
+     */
+    static Map<Resource, String> diff(Set<Resource> client, Set<Resource> server) {
+        Map<Resource, String> diff = new HashMap<>(client.size());
+
+        /*
+         * Populate diff with all client resource flagged REMOVE
+         * and index them by name for the lookups below.
+         */
+        Map<String, Resource> clientByName = new HashMap<>(client.size());
+        for (Resource resource : client) {
+            diff.put(resource, Resource.FLAG_REMOVE);
+            clientByName.putIfAbsent(resource.getName(), resource);
+        }
+
+        /*
+         * Loop over all server resources and diff them with the
+         * client resources to get the patch information we need.
+         */
+        for (Resource serverResource : server) {
+            Resource clientResource = clientByName.get(serverResource.getName());
+
+            if (clientResource == null) {
+                /*
+                 * Resource new to client, flag ADD.
+                 */
+                diff.put(serverResource, Resource.FLAG_ADD);
+            } else {
+                long serverCRC = serverResource.getCrc();
+                long clientCRC = clientResource.getCrc();
+
+                if (serverCRC == clientCRC) {
+                    /*
+                     * Resources are the same.
+                     * Remove it from the diff because only differences go
+                     * in here; this also keeps the diff small speeding up
+                     * lookups and allows patching to fail fast if nothing
+                     * needs to be patched.
+                     */
+                    diff.remove(clientResource);
+                } else {
+                    /*
+                     * Resource changed, update required.
+                     */
+                    diff.put(clientResource, Resource.FLAG_UPDATE);
+                }
+            }
+        }
+
+        return diff;
+    }
+
+    /**
+     * Patches a ZipFile from an UpdateLocation using the specified diff.
+     *
+     * @param archive  ZIP file to be updated
+     * @param diff     diff containing update instructions
+     * @param location location from which the ZIP file is to be updated
+     * @param staging  where to stage the patched file, null to replace the ZIP file right away
+     * @return true if the ZIP file has been patched, false if nothing has been done (i.e. file is up to date)
+     * @throws IOException if any IO error occured during downloading, parsing or patching
+     */
+    private boolean patch(ZipFile archive, Map<Resource, String> diff, UpdateLocation location, UpdateMetrics metrics, Span trace,
+                          StagedUpdates staging)
+            throws IOException {
+        File originalFile = new File(archive.getName());
+
+        /*
+         * Nothing to do, not even what was staged before.
+         */
+        if (diff.size() < 1) {
+            if (staging != null)
+                staging.remove(originalFile);
+            return false;
+        }
+
+        long originalSize = originalFile.length();
+        long originalModified = originalFile.lastModified();
+
+        /*
+         * For compatibility with JAR files, the first entry needs
+         * to be the manifest file (if it exists).
+         *
+         * As both sources, the local file and the downloaded resources,
+         * use the same ordering one of them will always start with the
+         * manifest entry. So we just need to figure out which one it is
+         * and start the patching from that source.
+         */
+        final String MANIFEST = "META-INF/MANIFEST.MF";
+        boolean remoteFirst = false;
+
+        for (Resource resource : diff.keySet()) {
+            String name = resource.getName();
+            if (name.equals(MANIFEST)) {
+                String flag = diff.get(resource);
+                remoteFirst = flag.equals(Resource.FLAG_ADD) || flag.equals(Resource.FLAG_ADD);
+                break;
+            }
+        }
+
+        /*
+         * Create a tmp file in the same directory as they original
+         * file so that it can be quickly renamed after patching.
+         */
+        File tmpFile;
+        if (staging != null) {
+            tmpFile = staging.createFile(originalFile);
+        } else {
+            tmpFile = new File(archive.getName() + ".tmp");
+            if (!tmpFile.delete() && tmpFile.exists()) {
+                throw new IOException("Failed to delete existing tmp file: " + tmpFile);
+            }
+        }
+
+        ParallelZipWriter zipFile = new ParallelZipWriter(tmpFile, compressionPolicy, THREADS);
+        boolean finished = false;
+
+        try {
+            /*
+             * Fetch any resources that need to be updated/added
+             */
+            location.fetchData(diff);
+
+            long start = System.nanoTime();
+
+            try {
+                Iterator<Resource> serverResources = location.getData(diff);
+
+                /*
+                 * Init progress listeners for patching
+                 */
+                int items = archive.size() + diff.size();
+                listeners.init("Patching...", 0, items);
+
+                logger.log(Level.FINE, "Starting to patch...");
+
+                /*
+                 * Start patching
+                 */
+                if (remoteFirst) {
+                    logger.log(Level.FINER, "Patching first from REMOTE source.");
+                    patchRemotely(zipFile, diff, serverResources, archive.getName(), trace);
+                    patchLocally(zipFile, diff, archive, trace);
+                } else {
+                    logger.log(Level.FINER, "Patching first from LOCAL source.");
+                    patchLocally(zipFile, diff, archive, trace);
+                    patchRemotely(zipFile, diff, serverResources, archive.getName(), trace);
+                }
+            } finally {
+                /*
+                 * The writer copies the data of every entry on the calling
+                 * thread, so the downloaded data isn't needed anymore.
+                 */
+                location.releaseData(diff);
+            }
+
+            logger.log(Level.FINE, "Finalizing patched file...");
+            listeners.init("Finalizing...");
+
+            /*
+             * Entries are compressed and written in the background,
+             * so finalizing includes waiting for the last of them.
+             */
+            Object event = Events.beginPhase(archive.getName(), Events.PHASE_FINALIZE);
+            Span span = tracer.start("finalize", trace);
+
+            zipFile.close();
+
+            if (staging != null) {
+                /*
+                 * Keep the original in use, it's replaced when applying.
+                 */
+                staging.add(originalFile, originalSize, originalModified, tmpFile);
+                finished = true;
+
+                span.end();
+                Events.endPhase(event, 0);
+                metrics.patched(System.nanoTime() - start);
+
+                return true;
+            }
+
+            /*
+             * Close archive or the renaming below will fail!
+             */
+            archive.close();
+
+            logger.log(Level.FINE, "Finalized patched file.");
+
+            File backupFile = new File(archive.getName() + ".bck");
+
+            logger.log(Level.FINE, "Replacing original by patched file...");
+
+            if (!originalFile.renameTo(backupFile))
+                throw new IOException("Failed to backup original file: " + originalFile);
+
+            if (!tmpFile.renameTo(originalFile)) {
+                if (!backupFile.renameTo(originalFile))
+                    logger.log(Level.SEVERE, "Failed to restore backup: " + backupFile);
+                throw new IOException("Failed to move patched file into place: " + tmpFile);
+            }
+            finished = true;
+
+            if (!backupFile.delete())
+                logger.log(Level.WARNING, "Failed to delete backup: " + backupFile);
+
+            span.end();
+            Events.endPhase(event, 0);
+            metrics.patched(System.nanoTime() - start);
+        } finally {
+            /*
+             * Don't leave the writer's threads running or
+             * a half-written file behind after a failure.
+             */
+            if (!finished) {
+                zipFile.abort();
+                if (!tmpFile.delete() && tmpFile.exists())
+                    logger.log(Level.WARNING, "Failed to delete tmp file: " + tmpFile);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Copies or skips entries from original ZIP file
+     * to satisfy any NOOP or REMOVE instructions.
+     *
+     * @param zipFile stream to patched ZIP file
+     * @param diff    diff containing update information
+     * @param archive the original archive to be copied from
+     * @param trace   the span of the update
+     * @throws IOException
+     */
+    private void patchLocally(ParallelZipWriter zipFile, Map<Resource, String> diff, ZipFile archive, Span trace)
+            throws IOException {
+        logger.log(Level.FINER, "Patching with local resources...");
+
+        Object event = Events.beginPhase(archive.getName(), Events.PHASE_PATCH_LOCALLY);
+        Span span = tracer.start("patchLocally", trace);
+        boolean traceEntries = span.isRecording() && tracer.isEntryTracing();
+        boolean logEntries = logger.isLoggable(Level.FINEST);
+        int count = 0;
+
+        Map<String, String> flags = new HashMap<>();
+        for (Map.Entry<Resource, String> instruction : diff.entrySet()) {
+            flags.putIfAbsent(instruction.getKey().getName(), instruction.getValue());
+        }
+
+        Enumeration<? extends ZipEntry> entries = archive.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+
+            String name = entry.getName();
+
+            listeners.update(listeners.getProgress() + 1);
+
+            String flag = flags.getOrDefault(name, Resource.FLAG_NOOP);
+
+            if (traceEntries)
+                span.event(Resource.FLAG_REMOVE.equals(flag) ? "remove" : "keep", "name", name);
+
+            if (Resource.FLAG_REMOVE.equals(flag)) {
+                if (logEntries)
+                    logger.log(Level.FINEST, "\t--- " + name);
+            } else if (Resource.FLAG_NOOP.equals(flag)) {
+                if (logEntries)
+                    logger.log(Level.FINEST, "\t=== " + name);
+
+                try (InputStream in = archive.getInputStream(entry)) {
+                    zipFile.putEntry(name, entry.getSize(), in);
+                }
+                count++;
+            }
+        }
+
+        span.attribute("entries", count).end();
+        Events.endPhase(event, count);
+    }
+
+    /**
+     * Downloads and add any resources from the server
+     * to satisfy any ADD or UPDATE instructions.
+     *
+     * @param zipFile         stream to patched ZIP file
+     * @param diff            diff containing update information
+     * @param serverResources resources to download new/updated data from
+     * @param archiveName     name of the archive being patched
+     * @param trace           the span of the update
+     * @throws IOException
+     */
+    private void patchRemotely(ParallelZipWriter zipFile, Map<Resource, String> diff, Iterator<Resource> serverResources, String archiveName, Span trace)
+            throws IOException {
+        if (serverResources == null) {
+            logger.log(Level.FINE, "No patching with remote resources required.");
+            return;
+        }
+
+        logger.log(Level.FINER, "Patching with remote resources...");
+
+        Object event = Events.beginPhase(archiveName, Events.PHASE_PATCH_REMOTELY);
+        Span span = tracer.start("patchRemotely", trace);
+        boolean traceEntries = span.isRecording() && tracer.isEntryTracing();
+        boolean logEntries = logger.isLoggable(Level.FINEST);
+        int count = 0;
+
+        while (serverResources.hasNext()) {
+            Resource resource = serverResources.next();
+            String name = resource.getName();
+
+            if (traceEntries)
+                span.event("fetch", "name", name);
+            if (logEntries)
+                logger.log(Level.FINEST, "\t+++/!!! " + name);
+
+            listeners.update(listeners.getProgress() + 1);
+
+            try (InputStream in = resource.getData()) {
+                zipFile.putEntry(name, -1, in);
+            }
+            count++;
+        }
+
+        span.attribute("entries", count).end();
+        Events.endPhase(event, count);
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * Returns the metrics of the update last started by this UpdateEngine,
+     * or null if there hasn't been any yet.
+     */
+    public UpdateMetrics getLastMetrics() {
+        return lastMetrics;
+    }
+
+    /**
+     * Sets the policy deciding how entries of patched
+     * archives get compressed.
+     *
+     * @param compressionPolicy the compression policy to use
+     */
+    public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        if (compressionPolicy == null)
+            throw new IllegalArgumentException("Compression policy must not be null");
+
+        this.compressionPolicy = compressionPolicy;
+    }
+
+    /**
+     * Sets the tracer recording spans for each update, by
+     * default the one returned by {@link Tracers#getDefault()}.
+     *
+     * @param tracer the tracer to use, {@link Tracer#NOOP} to disable tracing
+     */
+    public void setTracer(Tracer tracer) {
+        if (tracer == null)
+            throw new IllegalArgumentException("Tracer must not be null");
+
+        this.tracer = tracer;
+    }
+
+    /**
+     * Registers a ProgressListener with this instance of an UpdateEngine.
+     */
+    public void addProgressListener(ProgressListener listener) {
+        /*
+         * For MultiProgressListeners, get the actual "inner"
+         * ProgressListener that represents the overall progress
+         * and register it in the multi-listener list.
+         */
+        if (listener instanceof MultiProgressListener) {
+            multiListeners.add(((MultiProgressListener) listener).getOverallProgressListener());
+        }
+
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a ProgressListener with this instance of an UpdateEngine.
+     */
+    public void removeProgressListener(ProgressListener listener) {
+        /*
+         * For MultiProgressListeners, get the actual "inner"
+         * ProgressListener that represents the overall progress
+         * and unregister it from the multi-listener list.
+         */
+        if (listener instanceof MultiProgressListener) {
+            multiListeners.remove(((MultiProgressListener) listener).getOverallProgressListener());
+        }
+
+        listeners.remove(listener);
+    }
+
+    /**
+     * Opens the log file on the first record actually published,
+     * so that merely loading this class doesn't create any files.
+     */
+    private static class LazyFileHandler extends Handler {
+        private final String pattern;
+        private FileHandler delegate;
+        private boolean failed;
+
+        LazyFileHandler(String pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        public synchronized void publish(LogRecord record) {
+            if (!isLoggable(record) || failed)
+                return;
+
+            if (delegate == null) {
+                try {
+                    delegate = new FileHandler(pattern);
+                    delegate.setLevel(getLevel());
+                } catch (IOException | SecurityException ex) {
+                    failed = true;
+                    reportError("Failed to open log file: " + pattern, ex, ErrorManager.OPEN_FAILURE);
+                    return;
+                }
+            }
+
+            delegate.publish(record);
+        }
+
+        @Override
+        public synchronized void flush() {
+            if (delegate != null)
+                delegate.flush();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (delegate != null)
+                delegate.close();
+        }
+    }
+}
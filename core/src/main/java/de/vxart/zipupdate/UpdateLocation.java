@@ -0,0 +1,1372 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import de.vxart.io.AdaptiveBandwidthManager;
+import de.vxart.io.BandwidthManager;
+import de.vxart.io.ThrottledInputStream;
+import de.vxart.io.ZipEntryInputStream;
+import de.vxart.net.MultipartIndex;
+import de.vxart.zipupdate.trace.Span;
+import de.vxart.zipupdate.trace.Tracer;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encapsulates an URL-based location which holds the up-to-date version of an
+ * archive and provides the fine-grained access functionality to a remote
+ * archive's contents.<br>
+ * The index and byte ranges are read through an {@link UpdateSource},
+ * reading archives on the local file system directly for <code>file:</code>
+ * URLs and spreading the ranges over several mirrors if given.<br>
+ * Use the <code>de.vxart.zipupdate.UpdateLocation.downloadSpeed</code> system
+ * property to define the maximum download speed in KB per second, shared by
+ * all downloads of all UpdateLocations (see {@link BandwidthManager#getShared()}).
+ * By default there is no maximum download speed.<br>
+ * Use the <code>de.vxart.zipupdate.UpdateLocation.bufferSize</code> system
+ * property to define the size of the buffer to use for the
+ * {@link BufferedInputStream }. By default the buffer size is 8192 Bytes.<br>
+ * Use the <code>de.vxart.zipupdate.UpdateLocation.priority</code> system
+ * property to set the default priority class of downloads, either
+ * <code>foreground</code> (the default) or <code>background</code>
+ * (see {@link #setPriority(String)}).<br>
+ * Use the <code>de.vxart.zipupdate.UpdateLocation.bundles</code> system
+ * property to disable looking for delta bundles (see {@link Indexer#bundle})
+ * by setting it to <code>false</code>.<br>
+ * Use the <code>de.vxart.zipupdate.UpdateLocation.chunkSize</code> and
+ * <code>de.vxart.zipupdate.UpdateLocation.maxOverfetch</code> system
+ * properties to fetch resources in CDN-cacheable chunks (see
+ * {@link #setChunkSize(long)} and {@link #setMaxOverfetch(double)}).<br>
+ * Resources published as separate objects (see {@link Indexer#index(File, boolean)})
+ * are fetched as such unless the <code>de.vxart.zipupdate.UpdateLocation.objects</code>
+ * system property is set to <code>false</code>, using as many connections
+ * in parallel as set by <code>de.vxart.zipupdate.UpdateLocation.connections</code>
+ * (4 by default).
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ * @author Egal, egal (AT) mojang (DOT) com
+ */
+public class UpdateLocation {
+    protected Logger logger = UpdateEngine.logger;
+
+    /**
+     * Priority class of downloads that are only limited by the shared
+     * BandwidthManager, if at all.
+     */
+    public final static String PRIORITY_FOREGROUND = "foreground";
+
+    /**
+     * Priority class of downloads that adapt their speed to
+     * yield to any other traffic on the network.
+     */
+    public final static String PRIORITY_BACKGROUND = "background";
+
+    /*
+     * Lowest speed background downloads are slowed down to.
+     */
+    private final static long MIN_BACKGROUND_SPEED = 16 * 1024;
+
+    private static BandwidthManager backgroundBandwidthManager;
+
+    private final static boolean BUNDLES_ENABLED = Boolean.parseBoolean(
+            System.getProperty("de.vxart.zipupdate.UpdateLocation.bundles", "true"));
+
+    private final static boolean OBJECTS_ENABLED = Boolean.parseBoolean(
+            System.getProperty("de.vxart.zipupdate.UpdateLocation.objects", "true"));
+
+    private final static int CONNECTIONS = Math.max(1,
+            Integer.getInteger("de.vxart.zipupdate.UpdateLocation.connections", 4));
+
+    static {
+        Logger logger = UpdateEngine.logger;
+        String prop = System.getProperty("de.vxart.zipupdate.UpdateLocation.downloadSpeed", "-1");
+
+        try {
+            long downloadSpeed = Long.parseLong(prop);
+
+            if (downloadSpeed < -1) {
+                throw new IllegalArgumentException("Illegal value for de.vxart.zipupdate.UpdateLocation.downloadSpeed: " + prop);
+            } else if (downloadSpeed > 0) {
+                logger.log(Level.CONFIG, "Enabling throttling: " + downloadSpeed + " KB/s max");
+                BandwidthManager.getShared().setRate(1024 * downloadSpeed);
+            } else {
+                logger.log(Level.CONFIG, "Disabling throttling");
+            }
+        } catch (Exception ex) {
+            logger.log(Level.CONFIG, "Disabling throttling: ", ex);
+        }
+    }
+
+    private BandwidthManager bandwidthManager = BandwidthManager.getShared();
+    private String priority = PRIORITY_FOREGROUND;
+    private UpdateMetrics metrics = UpdateMetrics.detached();
+    private Tracer tracer = Tracer.NOOP;
+    private Span traceParent;
+
+    private URL url;
+    private final UpdateSource source;
+    private Set<Resource> resources;
+
+    private ProgressListenerManager listeners;
+
+    private Map<Map<Resource, String>, CacheEntry> cache;
+    private Map<Long, String> bundles;
+    private Map<String, String> objects;
+    private long chunkSize;
+    private double maxOverfetch;
+    private byte[] index;
+    private long indexChecksum;
+
+    private final Map<String, Range> namedRanges;
+    final Map<String, String> rangedNames;
+    /**
+     * Buffer size for {@link BufferedInputStream }. The default is 8192.
+     */
+    private int bufferSize = 8192;
+
+    /**
+     * Creates a new UpdateLocation sourced from the specified URL,
+     * read with a {@link FileSource} for <code>file:</code> URLs
+     * and an {@link HttpSource} otherwise.
+     *
+     * @param url the URL to use as source of the up-to-date data
+     */
+    public UpdateLocation(URL url) {
+        this(createSource(url));
+    }
+
+    /**
+     * Creates a new UpdateLocation sourced from several mirrors with
+     * identical contents, see {@link MirrorSource}.
+     *
+     * @param mirrors the URLs of the mirrors, the primary one first
+     */
+    public UpdateLocation(List<URL> mirrors) {
+        this(createSource(mirrors));
+    }
+
+    /**
+     * Creates a new UpdateLocation reading the up-to-date data from
+     * the specified source.
+     * <p>
+     * Delta bundles, objects and chunks are only fetched from
+     * {@link HttpSource}s, other sources are asked for byte ranges.
+     *
+     * @param source the source of the up-to-date data
+     */
+    public UpdateLocation(UpdateSource source) {
+        this.source = source;
+        this.url = source.getUrl();
+
+        try {
+            String prop = System.getProperty("de.vxart.zipupdate.UpdateLocation.bufferSize", String.valueOf(8192));
+            bufferSize = Integer.parseInt(prop);
+
+            if (bufferSize < 0)
+                throw new IllegalArgumentException("Illegal value for de.vxart.zipupdate.UpdateLocation.bufferSize: " + prop);
+
+            logger.log(Level.CONFIG, "Setting download buffer size to: " + bufferSize + " bytes");
+        } catch (Exception ex) {
+            logger.log(Level.CONFIG, "Using default download buffer size of : " + bufferSize + " bytes - ", ex);
+        }
+
+        try {
+            setPriority(System.getProperty("de.vxart.zipupdate.UpdateLocation.priority", PRIORITY_FOREGROUND));
+        } catch (Exception ex) {
+            logger.log(Level.CONFIG, "Using default download priority: " + priority + " - ", ex);
+        }
+
+        try {
+            setChunkSize(Long.getLong("de.vxart.zipupdate.UpdateLocation.chunkSize", 0));
+            setMaxOverfetch(Double.parseDouble(System.getProperty("de.vxart.zipupdate.UpdateLocation.maxOverfetch", "0")));
+        } catch (Exception ex) {
+            logger.log(Level.CONFIG, "Requesting byte ranges instead of chunks - ", ex);
+        }
+
+        this.listeners = new ProgressListenerManager();
+        this.cache = new HashMap<>();
+        this.namedRanges = new HashMap<>();
+        this.rangedNames = new HashMap<>();
+        this.resources = new LinkedHashSet<>();
+    }
+
+    /**
+     * Creates a new UpdateLocation reading from the same source and,
+     * if set, the same index as the given one, but without sharing any
+     * other state, e.g. to check it while it may be in use elsewhere.
+     */
+    UpdateLocation(UpdateLocation location) {
+        this(location.source);
+        this.index = location.index;
+        this.bufferSize = location.bufferSize;
+    }
+
+    private static UpdateSource createSource(URL url) {
+        return "file".equals(url.getProtocol()) ? new FileSource(url) : new HttpSource(url);
+    }
+
+    private static UpdateSource createSource(List<URL> mirrors) {
+        if (mirrors.size() == 1)
+            return createSource(mirrors.get(0));
+
+        List<UpdateSource> sources = new ArrayList<>(mirrors.size());
+        for (URL mirror : mirrors) {
+            sources.add(createSource(mirror));
+        }
+        return new MirrorSource(sources);
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    /**
+     * Returns the source the up-to-date data is read from.
+     */
+    public UpdateSource getSource() {
+        return source;
+    }
+
+    /**
+     * Sets the BandwidthManager limiting the download speed of this
+     * UpdateLocation; by default that's the shared one.
+     *
+     * @param bandwidthManager the BandwidthManager to use
+     */
+    public void setBandwidthManager(BandwidthManager bandwidthManager) {
+        if (bandwidthManager == null)
+            throw new IllegalArgumentException("BandwidthManager must not be null");
+
+        this.bandwidthManager = bandwidthManager;
+    }
+
+    /**
+     * Returns the BandwidthManager limiting the download speed of this UpdateLocation.
+     */
+    public BandwidthManager getBandwidthManager() {
+        return bandwidthManager;
+    }
+
+    /**
+     * Sets the priority class of downloads from this UpdateLocation.
+     * <p>
+     * Foreground downloads use the shared BandwidthManager. Background
+     * downloads share an {@link AdaptiveBandwidthManager} which backs off
+     * as soon as other traffic makes the network busy and speeds up again
+     * once it's idle, never exceeding the limit of the shared one.
+     *
+     * @param priority either PRIORITY_FOREGROUND or PRIORITY_BACKGROUND
+     */
+    public void setPriority(String priority) {
+        if (PRIORITY_FOREGROUND.equals(priority)) {
+            setBandwidthManager(BandwidthManager.getShared());
+        } else if (PRIORITY_BACKGROUND.equals(priority)) {
+            setBandwidthManager(getBackgroundBandwidthManager());
+        } else {
+            throw new IllegalArgumentException("Unknown priority class: " + priority);
+        }
+
+        this.priority = priority;
+    }
+
+    /**
+     * Returns the priority class of downloads from this UpdateLocation.
+     */
+    public String getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets the size of the fixed, aligned chunks of the remote archive to
+     * fetch resources in, instead of requesting the exact byte ranges of
+     * the resources; 0 disables fetching in chunks.
+     * <p>
+     * Chunks are requested one per request at the same offsets by all
+     * clients, so they can be cached by CDNs and proxies; in exchange,
+     * data around the resources gets downloaded as well. Larger chunks
+     * mean fewer requests but more over-fetch.
+     *
+     * @param chunkSize the chunk size in bytes, or 0
+     */
+    public void setChunkSize(long chunkSize) {
+        if (chunkSize < 0)
+            throw new IllegalArgumentException("Illegal chunk size: " + chunkSize);
+
+        this.chunkSize = chunkSize;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the maximum ratio of the bytes of all chunks to the bytes of the
+     * resources needed, above which exact byte ranges are requested instead
+     * of chunks; 0 (the default) always uses chunks if enabled.
+     *
+     * @param maxOverfetch the maximum ratio, or 0
+     */
+    public void setMaxOverfetch(double maxOverfetch) {
+        if (maxOverfetch < 0 || Double.isNaN(maxOverfetch))
+            throw new IllegalArgumentException("Illegal maximum over-fetch: " + maxOverfetch);
+
+        this.maxOverfetch = maxOverfetch;
+    }
+
+    public double getMaxOverfetch() {
+        return maxOverfetch;
+    }
+
+    private static synchronized BandwidthManager getBackgroundBandwidthManager() {
+        if (backgroundBandwidthManager == null) {
+            backgroundBandwidthManager = new AdaptiveBandwidthManager(
+                    BandwidthManager.getShared(),
+                    MIN_BACKGROUND_SPEED);
+        }
+
+        return backgroundBandwidthManager;
+    }
+
+    /**
+     * Sets the metrics to count the requests and downloads of the current update in.
+     */
+    void setMetrics(UpdateMetrics metrics) {
+        this.metrics = metrics;
+
+        if (source instanceof MirrorSource)
+            ((MirrorSource) source).setMetrics(metrics);
+    }
+
+    /**
+     * Sets the tracer and the span of the current update to trace requests in.
+     */
+    void setTrace(Tracer tracer, Span parent) {
+        this.tracer = tracer;
+        this.traceParent = parent;
+    }
+
+    /**
+     * Sets the index to read instead of fetching it from the source,
+     * e.g. one embedded in a {@link DirectoryManifest}.
+     */
+    void setIndex(byte[] index) {
+        this.index = index;
+    }
+
+    private InputStream openIndex()
+            throws IOException {
+        return index != null ? new ByteArrayInputStream(index) : source.openIndex();
+    }
+
+    /**
+     * Fetches the resources available from this UpdateLocation
+     *
+     * @return the resources available from this UpdateLocation
+     * @throws IOException
+     */
+    public Set<Resource> getResources()
+            throws IOException {
+        resources.clear();
+        namedRanges.clear();
+        rangedNames.clear();
+        bundles = null;
+        objects = null;
+
+        Checksum checker = new CRC32();
+
+        if (this.index == null)
+            metrics.requested();
+
+        Object event = Events.beginRequest(url.toString() + ".idx", 0);
+        Span span = tracer.start("index", traceParent);
+
+        DataInputStream index = new DataInputStream(
+                new CheckedInputStream(
+                        new InflaterInputStream(
+                                new BufferedInputStream(
+                                        openIndex(), bufferSize
+                                )
+                        ), checker)
+        );
+
+        /*
+         * Read all the resource meta-data until we reach the
+         * empty name marking the end of the resource list.
+         */
+        String name;
+        long previousEndOffset = -1;
+
+        while (!"".equals(name = index.readUTF())) {
+            /*
+             * Create a Resource for the index Set
+             * we're going to return.
+             */
+            long crc = index.readLong();
+            resources.add(new Resource(name, crc));
+
+            /*
+             * Store the start and end offsets for all
+             * Resources away from the index, no need for
+             * the higher-level stuff to know about it.
+             */
+            long endOffset = index.readLong();
+
+            Range range = new Range(previousEndOffset, endOffset);
+            rangedNames.put(range.toString(), name);
+            namedRanges.put(name, range);
+
+            previousEndOffset = endOffset;
+        }
+
+        /*
+         * Downloading the whole archive would take at least
+         * up to the end of the last entry.
+         */
+        metrics.fullSize(previousEndOffset + 1);
+
+        /*
+         * Finally get both the checksum computed from the
+         * input stream as well as the stored checksum and
+         * see if they match. Most data corruption will be
+         * catched by the inflater anyway.
+         */
+        long computedChecksum = checker.getValue();
+        long storedChecksum = index.readLong();
+
+        if (computedChecksum != storedChecksum) {
+            throw new IOException("Index file corrupted or out-of-date: " + url);
+        }
+
+        indexChecksum = storedChecksum;
+
+        /*
+         * The index may reference the resources as objects, see EntryObjects.
+         */
+        if (!namedRanges.isEmpty()) {
+            Map<String, String> objectNames = new HashMap<>();
+            byte[] hash = new byte[EntryObjects.HASH_LENGTH];
+
+            try {
+                for (Resource resource : resources) {
+                    index.readFully(hash);
+                    objectNames.put(resource.getName(), EntryObjects.getName(hash));
+                }
+
+                computedChecksum = checker.getValue();
+                storedChecksum = index.readLong();
+
+                if (computedChecksum != storedChecksum) {
+                    throw new IOException("Index file corrupted or out-of-date: " + url);
+                }
+
+                objects = objectNames;
+            } catch (EOFException ex) {
+                if (!objectNames.isEmpty())
+                    throw new IOException("Index file corrupted or out-of-date: " + url, ex);
+            }
+        }
+
+        index.close();
+
+        Events.endRequest(event, 0, 0);
+
+        if (span.isRecording()) {
+            span.attribute("url", url.toString() + ".idx")
+                    .attribute("resources", resources.size());
+        }
+        span.end();
+
+        return resources;
+    }
+
+    /**
+     * Estimates how many bytes fetching the data required by the specified
+     * diff takes, i.e. the size of the byte ranges of all resources to be
+     * added or updated in the index last read by {@link #getResources()}.
+     */
+    long getDownloadSize(Map<Resource, String> diff) {
+        long size = 0;
+
+        for (Map.Entry<Resource, String> instruction : diff.entrySet()) {
+            String flag = instruction.getValue();
+            if (!Resource.FLAG_ADD.equals(flag) && !Resource.FLAG_UPDATE.equals(flag))
+                continue;
+
+            Range range = namedRanges.get(instruction.getKey().getName());
+            if (range != null)
+                size += range.end - range.start;
+        }
+
+        return size;
+    }
+
+    /**
+     * Fetches any data required by the specified diff into a temporary cache.
+     * <p>
+     * If the server publishes a delta bundle containing exactly the
+     * resources required, it is fetched with a single plain request,
+     * otherwise the resources are requested as byte ranges.
+     *
+     * @param diff the diff to fetch data for
+     */
+    public void fetchData(Map<Resource, String> diff)
+            throws IOException {
+        /*
+         * We have to sort the byte-ranges of the resource we're
+         * going to download for these reasons:
+         *
+         * 1) This guarantees that the ordering of entries we're going to
+         *    download will be the *same* as in the remote ZIP file.
+         *    This is important when udpating JAR files where the manifest
+         *    file has to be the first entry.
+         *
+         * 2) If the byte-ranges in the HTTP request hit the server in
+         *    *ascending* order, the server can reply more quickly because
+         *    it has to do only forward-seeking in the ZIP file (no jumping
+         *    around to provide the ranges).
+         */
+        SortedSet<Range> sortedRanges = new TreeSet<>();
+        for (Resource resource : diff.keySet()) {
+            String flag = diff.get(resource);
+            if (flag == Resource.FLAG_ADD || flag == Resource.FLAG_UPDATE)
+                sortedRanges.add(namedRanges.get(resource.getName()));
+        }
+
+        if (sortedRanges.size() == 0) {
+            return;
+        }
+
+        /*
+         * Bundles, objects and chunks are just ways
+         * to avoid multi-range requests over HTTP.
+         */
+        if (source instanceof HttpSource) {
+            String bundle = findBundle(sortedRanges);
+            if (bundle != null) {
+                try {
+                    fetchBundle(diff, sortedRanges, bundle);
+                    return;
+                } catch (IOException ex) {
+                    logger.log(Level.WARNING, "Failed to fetch delta bundle, requesting byte ranges instead: " + bundle, ex);
+                }
+            }
+
+            if (objects != null && OBJECTS_ENABLED) {
+                try {
+                    fetchObjects(diff, sortedRanges);
+                    return;
+                } catch (IOException ex) {
+                    logger.log(Level.WARNING, "Failed to fetch objects, requesting byte ranges instead: " + url, ex);
+                }
+            }
+
+            if (chunkSize > 0) {
+                try {
+                    if (fetchChunks(diff, sortedRanges))
+                        return;
+                } catch (IOException ex) {
+                    logger.log(Level.WARNING, "Failed to fetch chunks, requesting byte ranges instead: " + url, ex);
+                }
+            }
+        }
+
+        long[] offsets = new long[sortedRanges.size()];
+        long[] lengths = new long[sortedRanges.size()];
+        int estimatedSize = 0;
+
+        CacheEntry cacheEntry = new CacheEntry();
+        cacheEntry.parts = new LinkedHashMap<>();
+
+        int i = 0;
+        for (Range range : sortedRanges) {
+            offsets[i] = range.start + 1;
+            lengths[i] = range.end - range.start;
+            estimatedSize += lengths[i];
+            cacheEntry.parts.put(rangedNames.get(range.toString()), new Part(i, 0, lengths[i]));
+            i++;
+        }
+
+        long start = System.nanoTime();
+        metrics.requested();
+        Object event = Events.beginRequest(url.toString(), offsets.length);
+        Span span = tracer.start("download", traceParent);
+
+        listeners.init("Downloading new resources...", 0, estimatedSize);
+
+        cacheEntry.ranges = source.read(offsets, lengths, bandwidthManager, listeners);
+        long bytesRead = cacheEntry.ranges.getBytesTransferred();
+
+        metrics.downloaded(System.nanoTime() - start, bytesRead, offsets.length);
+        Events.endRequest(event, 0, bytesRead);
+
+        if (span.isRecording()) {
+            span.attribute("url", url.toString())
+                    .attribute("source", source.getClass().getName())
+                    .attribute("ranges", offsets.length)
+                    .attribute("estimated", estimatedSize)
+                    .attribute("bytes", bytesRead);
+        }
+        span.end();
+
+        cache(diff, cacheEntry);
+    }
+
+    /**
+     * Looks up the delta bundle containing exactly the resources of the
+     * specified ranges in the bundle manifest published next to the archive.
+     *
+     * @return the name of the bundle file or null if there's none
+     */
+    private String findBundle(SortedSet<Range> sortedRanges) {
+        if (!BUNDLES_ENABLED)
+            return null;
+
+        if (bundles == null) {
+            URL manifestUrl;
+            try {
+                manifestUrl = new URL(url.toString() + DeltaBundles.MANIFEST_SUFFIX);
+            } catch (MalformedURLException ex) {
+                bundles = Collections.emptyMap();
+                return null;
+            }
+
+            metrics.requested();
+            Object event = Events.beginRequest(manifestUrl.toString(), 0);
+            Span span = tracer.start("bundles", traceParent);
+
+            int status = 0;
+            try {
+                URLConnection conn = HttpSource.open(manifestUrl);
+                try (InputStream in = conn.getInputStream()) {
+                    bundles = DeltaBundles.readManifest(in);
+                }
+                if (conn instanceof HttpURLConnection)
+                    status = ((HttpURLConnection) conn).getResponseCode();
+            } catch (FileNotFoundException ex) {
+                logger.log(Level.FINE, "No delta bundles published: " + manifestUrl);
+                bundles = Collections.emptyMap();
+                status = 404;
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Failed to read delta bundle manifest: " + manifestUrl, ex);
+                bundles = Collections.emptyMap();
+            }
+
+            Events.endRequest(event, status, 0);
+            span.attribute("url", manifestUrl.toString())
+                    .attribute("status", status)
+                    .attribute("bundles", bundles.size())
+                    .end();
+        }
+
+        if (bundles.isEmpty())
+            return null;
+
+        Map<String, Long> crcs = new HashMap<>();
+        for (Resource resource : resources) {
+            crcs.put(resource.getName(), resource.getCrc());
+        }
+
+        List<Resource> required = new ArrayList<>(sortedRanges.size());
+        for (Range range : sortedRanges) {
+            String name = rangedNames.get(range.toString());
+            required.add(new Resource(name, crcs.get(name)));
+        }
+
+        return bundles.get(DeltaBundles.key(required));
+    }
+
+    /**
+     * Fetches a delta bundle containing exactly the resources of the
+     * specified ranges into a temporary cache.
+     */
+    private void fetchBundle(Map<Resource, String> diff, SortedSet<Range> sortedRanges, String bundle)
+            throws IOException {
+        URL bundleUrl = new URL(url, bundle);
+
+        long[] lengths = new long[sortedRanges.size()];
+        String[] names = new String[sortedRanges.size()];
+        int estimatedSize = 0;
+
+        int i = 0;
+        for (Range range : sortedRanges) {
+            lengths[i] = range.end - range.start;
+            names[i] = rangedNames.get(range.toString());
+            estimatedSize += lengths[i];
+            i++;
+        }
+
+        long start = System.nanoTime();
+        metrics.requested();
+        Object event = Events.beginRequest(bundleUrl.toString(), 0);
+        Span span = tracer.start("download", traceParent);
+
+        HttpURLConnection conn = (HttpURLConnection) HttpSource.open(bundleUrl);
+        conn.connect();
+
+        File cacheFile = download(conn, estimatedSize);
+        long bytesRead = cacheFile.length();
+
+        metrics.downloaded(System.nanoTime() - start, bytesRead, 0);
+        Events.endRequest(event, conn.getResponseCode(), bytesRead);
+
+        if (span.isRecording()) {
+            span.attribute("url", bundleUrl.toString())
+                    .attribute("status", conn.getResponseCode())
+                    .attribute("bundle", bundle)
+                    .attribute("estimated", estimatedSize)
+                    .attribute("bytes", bytesRead);
+        }
+        span.end();
+
+        /*
+         * The bundle is just the raw data of the resources
+         * in the same order as the ranges, no need to parse it.
+         */
+        CacheEntry cacheEntry = new CacheEntry();
+        try {
+            cacheEntry.ranges = mapped(MultipartIndex.split(cacheFile, lengths));
+        } catch (IOException | RuntimeException ex) {
+            cacheFile.delete();
+            throw ex;
+        }
+        cacheEntry.parts = new LinkedHashMap<>();
+        for (i = 0; i < names.length; i++) {
+            cacheEntry.parts.put(names[i], new Part(i, 0, lengths[i]));
+        }
+
+        cache(diff, cacheEntry);
+
+        logger.log(Level.FINE, "Downloaded delta bundle successfully: source=" + bundleUrl + " cache=" + cacheFile.getAbsolutePath());
+    }
+
+    /**
+     * Fetches the resources of the specified ranges as the objects
+     * referenced by the index into a temporary cache, with several
+     * independent requests in parallel; resources with identical
+     * contents are fetched only once.
+     */
+    private void fetchObjects(Map<Resource, String> diff, SortedSet<Range> sortedRanges)
+            throws IOException {
+        /*
+         * Lay out the distinct objects back to back in the cache.
+         */
+        Map<String, Long> offsets = new LinkedHashMap<>();
+        Map<String, Long> lengths = new HashMap<>();
+        long size = 0;
+
+        for (Range range : sortedRanges) {
+            String object = objects.get(rangedNames.get(range.toString()));
+            if (!offsets.containsKey(object)) {
+                offsets.put(object, size);
+                lengths.put(object, range.end - range.start);
+                size += range.end - range.start;
+            }
+        }
+
+        long start = System.nanoTime();
+        Span span = tracer.start("download", traceParent);
+
+        File cacheFile = HttpSource.createCacheFile();
+
+        logger.log(Level.FINE, "Downloading " + offsets.size() + " objects into cache: source=" + url + " cache=" + cacheFile.getAbsolutePath());
+
+        listeners.init("Downloading new resources...", 0, (int) size);
+        AtomicInteger progress = new AtomicInteger();
+
+        int threads = Math.min(CONNECTIONS, offsets.size());
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService fetchers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "UpdateLocation-fetch-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        boolean fetched = false;
+
+        try (RandomAccessFile file = new RandomAccessFile(cacheFile, "rw")) {
+            file.setLength(size);
+            FileChannel channel = file.getChannel();
+
+            List<Future<Void>> fetches = new ArrayList<>(offsets.size());
+            for (Map.Entry<String, Long> object : offsets.entrySet()) {
+                String name = object.getKey();
+                long offset = object.getValue();
+                long length = lengths.get(name);
+
+                fetches.add(fetchers.submit(() -> {
+                    fetchObject(name, channel, offset, length, progress);
+                    return null;
+                }));
+            }
+
+            for (Future<Void> fetch : fetches) {
+                fetch.get();
+            }
+            fetched = true;
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException)
+                throw (IOException) ex.getCause();
+            throw new IOException("Failed to fetch object", ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching objects");
+        } finally {
+            fetchers.shutdownNow();
+
+            if (!fetched)
+                cacheFile.delete();
+        }
+
+        metrics.downloaded(System.nanoTime() - start, size, 0);
+
+        if (span.isRecording()) {
+            span.attribute("url", url.toString())
+                    .attribute("objects", offsets.size())
+                    .attribute("resources", sortedRanges.size())
+                    .attribute("connections", threads)
+                    .attribute("bytes", size);
+        }
+        span.end();
+
+        CacheEntry cacheEntry = new CacheEntry();
+        try {
+            cacheEntry.ranges = mapped(MultipartIndex.single(cacheFile, Collections.<String, String>emptyMap()));
+        } catch (IOException | RuntimeException ex) {
+            cacheFile.delete();
+            throw ex;
+        }
+        cacheEntry.parts = new LinkedHashMap<>();
+        for (Range range : sortedRanges) {
+            String name = rangedNames.get(range.toString());
+            cacheEntry.parts.put(name, new Part(0, offsets.get(objects.get(name)), range.end - range.start));
+        }
+        cache(diff, cacheEntry);
+
+        logger.log(Level.FINE, "Downloaded objects successfully: source=" + url + " cache=" + cacheFile.getAbsolutePath());
+    }
+
+    /**
+     * Fetches a single object into the given section of the cache,
+     * making sure it actually has the hash it's named by.
+     */
+    private void fetchObject(String name, FileChannel cache, long offset, long length, AtomicInteger progress)
+            throws IOException {
+        URL objectUrl = new URL(url, EntryObjects.DIRECTORY + "/" + name);
+
+        metrics.requested();
+        Object event = Events.beginRequest(objectUrl.toString(), 0);
+
+        HttpURLConnection conn = (HttpURLConnection) HttpSource.open(objectUrl);
+        MessageDigest digest = EntryObjects.newDigest();
+        long written = 0;
+
+        InputStream remote = conn.getInputStream();
+        /*
+         * Throttle also while unlimited, the rate may change any time.
+         */
+        remote = new ThrottledInputStream(remote, bandwidthManager);
+
+        try (InputStream in = remote) {
+            byte[] buf = new byte[8192];
+            int len;
+
+            while ((len = in.read(buf)) != -1) {
+                if (written + len > length)
+                    throw new IOException("Object larger than expected: " + objectUrl);
+
+                digest.update(buf, 0, len);
+
+                ByteBuffer data = ByteBuffer.wrap(buf, 0, len);
+                while (data.hasRemaining()) {
+                    cache.write(data, offset + written + data.position());
+                }
+
+                written += len;
+                listeners.update(progress.addAndGet(len));
+            }
+        }
+
+        if (written != length || !EntryObjects.getName(digest.digest()).equals(name))
+            throw new IOException("Object corrupted: " + objectUrl);
+
+        Events.endRequest(event, conn.getResponseCode(), written);
+    }
+
+    /**
+     * Fetches the fixed-size, aligned chunks of the remote archive
+     * containing the resources of the specified ranges into a
+     * temporary cache, one single-range request per chunk.
+     *
+     * @return false if the chunks would exceed the maximum over-fetch
+     */
+    private boolean fetchChunks(Map<Resource, String> diff, SortedSet<Range> sortedRanges)
+            throws IOException {
+        long chunkSize = this.chunkSize;
+
+        SortedSet<Long> chunks = new TreeSet<>();
+        long needed = 0;
+        for (Range range : sortedRanges) {
+            for (long chunk = (range.start + 1) / chunkSize; chunk <= range.end / chunkSize; chunk++) {
+                chunks.add(chunk);
+            }
+            needed += range.end - range.start;
+        }
+
+        if (maxOverfetch > 0 && chunks.size() * chunkSize > needed * maxOverfetch) {
+            logger.log(Level.FINE, "Requesting byte ranges, " + chunks.size() + " chunks would exceed maximum over-fetch for "
+                    + needed + " bytes");
+            return false;
+        }
+
+        long start = System.nanoTime();
+        Span span = tracer.start("download", traceParent);
+
+        /*
+         * Store the chunks back to back and remember
+         * where each of them starts in the cache.
+         */
+        File cacheFile = HttpSource.createCacheFile();
+        Map<Long, Long> chunkOffsets = new HashMap<>();
+        long bytesRead = 0;
+
+        /*
+         * Single-range requests are easily cached by CDNs, so the URL is
+         * made specific to the version of the index to never get chunks
+         * of an older archive, and all chunks after the first one are
+         * only accepted from the same version of the archive.
+         */
+        URL chunkUrl = new URL(url.getProtocol(), url.getHost(), url.getPort(),
+                url.getFile() + (url.getQuery() == null ? "?" : "&") + "v=" + Long.toHexString(indexChecksum));
+        String validator = null;
+        long archiveLength = -1;
+
+        logger.log(Level.FINE, "Downloading " + chunks.size() + " chunks into cache: source=" + chunkUrl + " cache=" + cacheFile.getAbsolutePath());
+
+        listeners.init("Downloading new resources...", 0, (int) Math.min(Integer.MAX_VALUE, chunks.size() * chunkSize));
+
+        try (FileOutputStream cacheOut = new FileOutputStream(cacheFile)) {
+            for (long chunk : chunks) {
+                long first = chunk * chunkSize;
+                long last = first + chunkSize - 1;
+
+                metrics.requested();
+                Object event = Events.beginRequest(chunkUrl.toString(), 1);
+
+                HttpURLConnection conn = (HttpURLConnection) HttpSource.open(chunkUrl);
+                conn.setRequestProperty("Range", "bytes=" + first + "-" + last);
+                if (validator != null)
+                    conn.setRequestProperty("If-Range", validator);
+                conn.connect();
+
+                /*
+                 * A server ignoring the Range header or an archive changed
+                 * since the first chunk (failing If-Range) gets a full response.
+                 */
+                if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                    conn.disconnect();
+                    throw new IOException("Unexpected response to chunk request: " + conn.getResponseCode());
+                }
+
+                /*
+                 * Only the last chunk of the archive may be shorter.
+                 */
+                String contentRange = conn.getHeaderField("Content-Range");
+                long[] range = parseContentRange(contentRange);
+                if (range == null || range[0] != first || range[1] > last
+                        || (range[1] < last && range[1] != range[2] - 1)
+                        || (archiveLength >= 0 && range[2] != archiveLength)) {
+                    conn.disconnect();
+                    throw new IOException("Unexpected Content-Range in response to chunk request for bytes "
+                            + first + "-" + last + ": " + contentRange);
+                }
+
+                if (validator == null) {
+                    validator = getValidator(conn);
+                    archiveLength = range[2];
+                }
+
+                chunkOffsets.put(chunk, bytesRead);
+                HttpSource.transfer(conn, cacheOut, (int) Math.min(Integer.MAX_VALUE, bytesRead), bandwidthManager, listeners);
+
+                long length = cacheOut.getChannel().position() - bytesRead;
+                if (length != range[1] - range[0] + 1)
+                    throw new IOException("Expected " + (range[1] - range[0] + 1) + " bytes of chunk " + first + "-" + last
+                            + ", received " + length + ": " + chunkUrl);
+                bytesRead += length;
+
+                Events.endRequest(event, conn.getResponseCode(), length);
+            }
+        } catch (IOException ex) {
+            cacheFile.delete();
+            throw ex;
+        }
+
+        long overfetched = bytesRead - needed;
+        metrics.downloaded(System.nanoTime() - start, bytesRead, chunks.size());
+        metrics.chunked(chunks.size(), overfetched);
+
+        if (span.isRecording()) {
+            span.attribute("url", url.toString())
+                    .attribute("chunks", chunks.size())
+                    .attribute("chunkSize", chunkSize)
+                    .attribute("resources", sortedRanges.size())
+                    .attribute("bytes", bytesRead)
+                    .attribute("overfetched", overfetched);
+        }
+        span.end();
+
+        /*
+         * The chunks covering a resource are all in the cache and
+         * back to back, so it can be found by its first chunk alone.
+         */
+        CacheEntry cacheEntry = new CacheEntry();
+        try {
+            cacheEntry.ranges = mapped(MultipartIndex.single(cacheFile, Collections.<String, String>emptyMap()));
+        } catch (IOException | RuntimeException ex) {
+            cacheFile.delete();
+            throw ex;
+        }
+        cacheEntry.parts = new LinkedHashMap<>();
+        for (Range range : sortedRanges) {
+            long chunk = (range.start + 1) / chunkSize;
+            long offset = chunkOffsets.get(chunk) + (range.start + 1 - chunk * chunkSize);
+            cacheEntry.parts.put(rangedNames.get(range.toString()), new Part(0, offset, range.end - range.start));
+        }
+        cache(diff, cacheEntry);
+
+        logger.log(Level.FINE, "Downloaded chunks successfully: source=" + url + " cache=" + cacheFile.getAbsolutePath()
+                + " overfetched=" + overfetched + " bytes");
+
+        return true;
+    }
+
+    /**
+     * Parses a "Content-Range: bytes first-last/length" header into its
+     * three numbers, with a length of -1 if unknown; returns null if the
+     * header is missing or malformed.
+     */
+    static long[] parseContentRange(String header) {
+        if (header == null || !header.regionMatches(true, 0, "bytes ", 0, 6))
+            return null;
+
+        int dash = header.indexOf('-', 6);
+        int slash = header.indexOf('/', dash + 1);
+        if (dash < 0 || slash < 0)
+            return null;
+
+        try {
+            long first = Long.parseLong(header.substring(6, dash).trim());
+            long last = Long.parseLong(header.substring(dash + 1, slash).trim());
+            String length = header.substring(slash + 1).trim();
+
+            long[] range = {first, last, "*".equals(length) ? -1 : Long.parseLong(length)};
+            return first <= last && (range[2] < 0 || last < range[2]) ? range : null;
+        } catch (NumberFormatException nfex) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the validator to send as If-Range with requests for further
+     * parts of the same response: the ETag if it's a strong one, otherwise
+     * the Last-Modified date or null if there is neither.
+     */
+    private static String getValidator(HttpURLConnection conn) {
+        String etag = conn.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/"))
+            return etag;
+
+        return conn.getHeaderField("Last-Modified");
+    }
+
+    /**
+     * Downloads the response of the specified connection into a temporary file.
+     */
+    private File download(HttpURLConnection conn, int estimatedSize)
+            throws IOException {
+        File cacheFile = HttpSource.createCacheFile();
+
+        logger.log(Level.FINE, "Downloading data into cache: source=" + conn.getURL() + " cache=" + cacheFile.getAbsolutePath());
+
+        listeners.init("Downloading new resources...", 0, estimatedSize);
+
+        try (OutputStream cacheOut = new FileOutputStream(cacheFile)) {
+            HttpSource.transfer(conn, cacheOut, 0, bandwidthManager, listeners);
+        } catch (IOException ex) {
+            cacheFile.delete();
+            throw ex;
+        }
+
+        return cacheFile;
+    }
+
+    /**
+     * Provides the data of cached ranges from a memory-mapped file,
+     * deleting the file once closed.
+     */
+    private static UpdateSource.Ranges mapped(final MultipartIndex index) {
+        return new UpdateSource.Ranges() {
+            public ByteBuffer get(int range) {
+                return index.slice(index.get(range));
+            }
+
+            public long getBytesTransferred() {
+                return index.getFile().length();
+            }
+
+            public void close() {
+                index.close();
+
+                File file = index.getFile();
+                if (!file.delete() && file.exists())
+                    UpdateEngine.logger.log(Level.WARNING, "Failed to delete cache file: " + file);
+            }
+        };
+    }
+
+    /**
+     * Keeps the data fetched for a diff, releasing any data fetched for it before.
+     */
+    private void cache(Map<Resource, String> diff, CacheEntry cacheEntry)
+            throws IOException {
+        CacheEntry previous = cache.put(diff, cacheEntry);
+
+        if (previous != null)
+            previous.ranges.close();
+    }
+
+    /**
+     * Releases the data fetched for the specified diff, deleting any
+     * temporary files it has been cached in. Any streams and buffers
+     * returned by {@link #getData} and {@link #getRawData} for the
+     * diff must not be used anymore afterwards.
+     *
+     * @param diff the diff the data has been fetched for
+     */
+    public void releaseData(Map<Resource, String> diff)
+            throws IOException {
+        CacheEntry cacheEntry = cache.remove(diff);
+
+        if (cacheEntry != null)
+            cacheEntry.ranges.close();
+    }
+
+    /**
+     * Provides an Iterator over any remote Resources
+     * that are flagged as ADD or UPDATE, in the order
+     * they appear in the remote archive.
+     * <p>
+     * The streams of the Resources returned are independent
+     * of each other and can be read in any order.
+     */
+    public Iterator<Resource> getData(Map<Resource, String> diff)
+            throws IOException {
+        final CacheEntry cacheEntry = cache.get(diff);
+
+        if (cacheEntry == null) {
+            return null;
+        }
+
+        final Iterator<String> names = cacheEntry.parts.keySet().iterator();
+
+        return new Iterator<Resource>() {
+            public boolean hasNext() {
+                return names.hasNext();
+            }
+
+            public Resource next() {
+                String name = names.next();
+
+                InputStream data;
+
+                try {
+                    data = new ZipEntryInputStream(cacheEntry.slice(name));
+                } catch (IOException ioex) {
+                    throw new RuntimeException(ioex);
+                }
+
+                return new Resource(name, data);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public String toString() {
+                return getClass().getName() + ":Iterator[indexed]";
+            }
+        };
+    }
+
+    /**
+     * Provides the uncompressed data of a single remote Resource
+     * flagged as ADD or UPDATE in the specified diff.
+     * <p>
+     * This method can be called for any Resource in any order,
+     * also by several threads at once.
+     *
+     * @param diff the diff the data has been fetched for
+     * @param name the name of the Resource
+     * @return a stream containing the data or null if the Resource hasn't been fetched
+     */
+    public InputStream getData(Map<Resource, String> diff, String name)
+            throws IOException {
+        ByteBuffer data = getRawData(diff, name);
+
+        return data != null ? new ZipEntryInputStream(data) : null;
+    }
+
+    /**
+     * Provides the raw ZIP local file block (header and compressed data)
+     * of a single remote Resource flagged as ADD or UPDATE in the
+     * specified diff as read-only buffer.
+     *
+     * @param diff the diff the data has been fetched for
+     * @param name the name of the Resource
+     * @return a buffer containing the data or null if the Resource hasn't been fetched
+     */
+    public ByteBuffer getRawData(Map<Resource, String> diff, String name)
+            throws IOException {
+        CacheEntry cacheEntry = cache.get(diff);
+
+        if (cacheEntry == null || !cacheEntry.parts.containsKey(name)) {
+            return null;
+        }
+
+        return cacheEntry.slice(name);
+    }
+
+    /*
+    private static void copy(InputStream in, OutputStream out)
+        throws IOException
+    {
+        byte[] buf = new byte[4096];
+        int len;
+
+        while((len = in.read(buf)) != -1)
+        {
+            out.write(buf, 0, len);
+        }
+
+    }
+    */
+
+    /**
+     * Encapsulates the cached data downloaded for a specific diff.
+     */
+    protected class CacheEntry {
+        UpdateSource.Ranges ranges;
+        Map<String, Part> parts;
+
+        /**
+         * Returns the data of the named Resource.
+         */
+        ByteBuffer slice(String name)
+                throws IOException {
+            Part part = parts.get(name);
+            ByteBuffer data = ranges.get(part.range);
+
+            if (part.offset == 0 && part.length == data.remaining())
+                return data;
+
+            ((Buffer) data).position((int) part.offset);
+            ((Buffer) data).limit((int) (part.offset + part.length));
+            return data.slice();
+        }
+    }
+
+    /**
+     * Locates the data of a Resource in a range of a CacheEntry.
+     */
+    protected static class Part {
+        final int range;
+        final long offset, length;
+
+        Part(int range, long offset, long length) {
+            this.range = range;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Encapsulates a numerical range between two long values.
+     * <p>
+     * Note: This class has a natural ordering that is
+     * inconsistent with equals.
+     */
+    protected class Range implements Comparable<Object> {
+        long start, end;
+
+        Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String toString() {
+            return (start + 1) + "-" + end;
+        }
+
+        public int compareTo(Object o) {
+            if (o instanceof Range) {
+                Range r = (Range) o;
+                return (int) start - (int) r.start;
+            } else {
+                throw new ClassCastException("Different class: " + o.getClass());
+            }
+        }
+    }
+
+    public void addProgressListener(ProgressListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeProgressListener(ProgressListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public String toString() {
+        long rate = bandwidthManager.getRate();
+        String speed =
+                (rate > 0)
+                        ? String.valueOf(rate / 1024) + " KB/s"
+                        : "no throttling";
+        return getClass().getName() + "[" + url + ";" + priority + ";" + speed + "]";
+    }
+}
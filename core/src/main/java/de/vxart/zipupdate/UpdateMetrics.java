@@ -0,0 +1,410 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counts what updates did and how long it took them.
+ * <p>
+ * Every update gets its own UpdateMetrics instance (see
+ * {@link UpdateEngine#getLastMetrics()}) which also adds everything it
+ * counts to the cumulative metrics of all updates in this JVM (see
+ * {@link #getTotal()}). UpdateLocations used on their own count in
+ * detached metrics that don't add up to the cumulative metrics, until an
+ * UpdateEngine attaches the metrics of its update. Both are registered as
+ * MBeans named
+ * <code>de.vxart.zipupdate:type=UpdateMetrics,name=total</code> and
+ * <code>de.vxart.zipupdate:type=UpdateMetrics,name=last</code>.
+ * <p>
+ * Use the <code>de.vxart.zipupdate.UpdateMetrics.file</code> system
+ * property to have the cumulative metrics written to the given file in
+ * the Prometheus text format after every update, e.g. for the textfile
+ * collector of the node exporter.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class UpdateMetrics implements UpdateMetricsMBean {
+    private static final Logger logger = Logger.getLogger("de.vxart.zipupdate");
+
+    private static final String OBJECT_NAME = "de.vxart.zipupdate:type=UpdateMetrics,name=";
+    private static final String FILE = System.getProperty("de.vxart.zipupdate.UpdateMetrics.file");
+
+    private static final UpdateMetrics TOTAL = new UpdateMetrics(null);
+
+    static {
+        register(TOTAL, "total");
+    }
+
+    private final UpdateMetrics parent;
+
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong updatesPatched = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private final AtomicLong indexTime = new AtomicLong();
+    private final AtomicLong diffTime = new AtomicLong();
+    private final AtomicLong downloadTime = new AtomicLong();
+    private final AtomicLong patchTime = new AtomicLong();
+    private final AtomicLong totalTime = new AtomicLong();
+
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+    private final AtomicLong bytesFull = new AtomicLong();
+    private final AtomicLong bytesOverfetched = new AtomicLong();
+
+    private final AtomicLong entriesAdded = new AtomicLong();
+    private final AtomicLong entriesUpdated = new AtomicLong();
+    private final AtomicLong entriesRemoved = new AtomicLong();
+    private final AtomicLong entriesKept = new AtomicLong();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong ranges = new AtomicLong();
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+
+
+    /**
+     * Creates new metrics for a single update
+     * adding up to the cumulative metrics.
+     */
+    public UpdateMetrics() {
+        this(TOTAL);
+    }
+
+    private UpdateMetrics(UpdateMetrics parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Creates new metrics not adding up to the cumulative metrics, e.g.
+     * for UpdateLocations not (yet) used by an update.
+     */
+    static UpdateMetrics detached() {
+        return new UpdateMetrics(null);
+    }
+
+    /**
+     * Returns the cumulative metrics of all updates in this JVM.
+     */
+    public static UpdateMetrics getTotal() {
+        return TOTAL;
+    }
+
+    /*
+     * ---
+     * Methods for counting
+     */
+
+    void updateStarted() {
+        add(m -> m.updates, 1);
+        register(this, "last");
+    }
+
+    void updateFinished(boolean patched, long nanos) {
+        if (patched)
+            add(m -> m.updatesPatched, 1);
+        add(m -> m.totalTime, nanos);
+
+        if (FILE != null)
+            writeTotal(new File(FILE));
+    }
+
+    void updateFailed() {
+        add(m -> m.failures, 1);
+
+        if (FILE != null)
+            writeTotal(new File(FILE));
+    }
+
+    void indexFetched(long nanos) {
+        add(m -> m.indexTime, nanos);
+    }
+
+    void diffed(long nanos, long added, long updated, long removed, long kept) {
+        add(m -> m.diffTime, nanos);
+        add(m -> m.entriesAdded, added);
+        add(m -> m.entriesUpdated, updated);
+        add(m -> m.entriesRemoved, removed);
+        add(m -> m.entriesKept, kept);
+    }
+
+    void downloaded(long nanos, long bytes, long ranges) {
+        add(m -> m.downloadTime, nanos);
+        add(m -> m.bytesDownloaded, bytes);
+        add(m -> m.ranges, ranges);
+    }
+
+    void chunked(long chunks, long overfetched) {
+        add(m -> m.chunks, chunks);
+        add(m -> m.bytesOverfetched, overfetched);
+    }
+
+    void patched(long nanos) {
+        add(m -> m.patchTime, nanos);
+    }
+
+    void fullSize(long bytes) {
+        add(m -> m.bytesFull, bytes);
+    }
+
+    void requested() {
+        add(m -> m.requests, 1);
+    }
+
+    void retried() {
+        add(m -> m.retries, 1);
+    }
+
+    void hedged() {
+        add(m -> m.hedges, 1);
+    }
+
+    private void add(Counter counter, long value) {
+        for (UpdateMetrics metrics = this; metrics != null; metrics = metrics.parent) {
+            counter.of(metrics).addAndGet(value);
+        }
+    }
+
+    private interface Counter {
+        AtomicLong of(UpdateMetrics metrics);
+    }
+
+    /* ---
+     */
+
+    public long getUpdates() {
+        return updates.get();
+    }
+
+    public long getUpdatesPatched() {
+        return updatesPatched.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getIndexTime() {
+        return millis(indexTime);
+    }
+
+    public long getDiffTime() {
+        return millis(diffTime);
+    }
+
+    public long getDownloadTime() {
+        return millis(downloadTime);
+    }
+
+    public long getPatchTime() {
+        return millis(patchTime);
+    }
+
+    public long getTotalTime() {
+        return millis(totalTime);
+    }
+
+    public long getBytesDownloaded() {
+        return bytesDownloaded.get();
+    }
+
+    /**
+     * Returns the size of the remote archives updated from, i.e. what
+     * downloading them completely instead of just the changes would take.
+     */
+    public long getBytesFull() {
+        return bytesFull.get();
+    }
+
+    /**
+     * Returns how many bytes less than the full archives were downloaded.
+     */
+    public long getBytesSaved() {
+        return getBytesFull() - getBytesDownloaded();
+    }
+
+    /**
+     * Returns how many bytes more than the entries needed were
+     * downloaded because they were fetched in fixed-size chunks.
+     */
+    public long getBytesOverfetched() {
+        return bytesOverfetched.get();
+    }
+
+    public long getEntriesAdded() {
+        return entriesAdded.get();
+    }
+
+    public long getEntriesUpdated() {
+        return entriesUpdated.get();
+    }
+
+    public long getEntriesRemoved() {
+        return entriesRemoved.get();
+    }
+
+    public long getEntriesKept() {
+        return entriesKept.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getRanges() {
+        return ranges.get();
+    }
+
+    public long getChunks() {
+        return chunks.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getHedges() {
+        return hedges.get();
+    }
+
+    private static long millis(AtomicLong nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos.get());
+    }
+
+    /**
+     * Writes these metrics in the Prometheus text format.
+     *
+     * @param out the writer to write to
+     */
+    public void writePrometheus(Writer out) {
+        PrintWriter writer = new PrintWriter(out);
+
+        counter(writer, "updates_total", "Number of updates started", updates.get());
+        counter(writer, "updates_patched_total", "Number of updates that changed an archive", updatesPatched.get());
+        counter(writer, "update_failures_total", "Number of updates that failed", failures.get());
+
+        writer.println("# HELP jzipupdate_phase_seconds_total Time spent per update phase");
+        writer.println("# TYPE jzipupdate_phase_seconds_total counter");
+        phase(writer, "index", indexTime);
+        phase(writer, "diff", diffTime);
+        phase(writer, "download", downloadTime);
+        phase(writer, "patch", patchTime);
+        phase(writer, "total", totalTime);
+
+        counter(writer, "downloaded_bytes_total", "Bytes downloaded", bytesDownloaded.get());
+        counter(writer, "full_bytes_total", "Bytes of the complete remote archives", bytesFull.get());
+        counter(writer, "saved_bytes_total", "Bytes not downloaded thanks to updating incrementally",
+                getBytesSaved());
+        counter(writer, "overfetched_bytes_total", "Bytes downloaded in fixed-size chunks beyond the entries needed",
+                bytesOverfetched.get());
+
+        writer.println("# HELP jzipupdate_entries_total Entries by what updates did with them");
+        writer.println("# TYPE jzipupdate_entries_total counter");
+        entries(writer, "added", entriesAdded);
+        entries(writer, "updated", entriesUpdated);
+        entries(writer, "removed", entriesRemoved);
+        entries(writer, "kept", entriesKept);
+
+        counter(writer, "requests_total", "HTTP requests made", requests.get());
+        counter(writer, "ranges_total", "Byte ranges requested", ranges.get());
+        counter(writer, "chunks_total", "Fixed-size chunks requested", chunks.get());
+        counter(writer, "retries_total", "Requests retried", retries.get());
+        counter(writer, "hedges_total", "Duplicate requests sent to other mirrors for slow ones", hedges.get());
+
+        writer.flush();
+    }
+
+    private static void counter(PrintWriter writer, String name, String help, long value) {
+        writer.println("# HELP jzipupdate_" + name + " " + help);
+        writer.println("# TYPE jzipupdate_" + name + " counter");
+        writer.println("jzipupdate_" + name + " " + value);
+    }
+
+    private static void phase(PrintWriter writer, String phase, AtomicLong nanos) {
+        writer.println("jzipupdate_phase_seconds_total{phase=\"" + phase + "\"} " + nanos.get() / 1e9);
+    }
+
+    private static void entries(PrintWriter writer, String action, AtomicLong value) {
+        writer.println("jzipupdate_entries_total{action=\"" + action + "\"} " + value.get());
+    }
+
+    /**
+     * Replaces the given file by one containing the cumulative metrics,
+     * so readers never see a partially written file.
+     */
+    private static synchronized void writeTotal(File file) {
+        File tmp = new File(file.getPath() + ".tmp");
+
+        try {
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+                TOTAL.writePrometheus(out);
+            }
+
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Failed to write metrics to " + file, ex);
+        }
+    }
+
+    private static void register(UpdateMetrics metrics, String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME + name);
+
+            synchronized (UpdateMetrics.class) {
+                if (server.isRegistered(objectName))
+                    server.unregisterMBean(objectName);
+
+                server.registerMBean(metrics, objectName);
+            }
+        } catch (JMException | RuntimeException | LinkageError ex) {
+            logger.log(Level.FINE, "Failed to register metrics MBean " + name, ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() +
+                "[downloaded=" + getBytesDownloaded() +
+                ";full=" + getBytesFull() +
+                ";saved=" + getBytesSaved() +
+                ";overfetched=" + getBytesOverfetched() +
+                ";added=" + getEntriesAdded() +
+                ";updated=" + getEntriesUpdated() +
+                ";removed=" + getEntriesRemoved() +
+                ";kept=" + getEntriesKept() +
+                ";ranges=" + getRanges() +
+                ";time=" + getTotalTime() + " ms" +
+                "]";
+    }
+}
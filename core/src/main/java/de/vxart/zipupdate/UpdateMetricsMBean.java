@@ -0,0 +1,66 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+/**
+ * Management interface of {@link UpdateMetrics}; all times are in
+ * milliseconds, all sizes in bytes.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public interface UpdateMetricsMBean {
+    long getUpdates();
+
+    long getUpdatesPatched();
+
+    long getFailures();
+
+    long getIndexTime();
+
+    long getDiffTime();
+
+    long getDownloadTime();
+
+    long getPatchTime();
+
+    long getTotalTime();
+
+    long getBytesDownloaded();
+
+    long getBytesFull();
+
+    long getBytesSaved();
+
+    long getBytesOverfetched();
+
+    long getEntriesAdded();
+
+    long getEntriesUpdated();
+
+    long getEntriesRemoved();
+
+    long getEntriesKept();
+
+    long getRequests();
+
+    long getRanges();
+
+    long getChunks();
+
+    long getRetries();
+
+    long getHedges();
+}
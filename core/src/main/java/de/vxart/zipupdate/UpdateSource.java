@@ -0,0 +1,99 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate;
+
+import de.vxart.io.BandwidthManager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+
+/**
+ * Provides an UpdateLocation with the index and byte ranges of an archive,
+ * hiding how they are actually transferred.
+ * <p>
+ * UpdateLocations use a {@link FileSource} for <code>file:</code> URLs and
+ * an {@link HttpSource} for any other URL, other implementations can be
+ * plugged in with {@link UpdateLocation#UpdateLocation(UpdateSource)}.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public interface UpdateSource {
+    /**
+     * Returns the URL of the archive, used to identify it in logs and traces.
+     */
+    URL getUrl();
+
+    /**
+     * Opens the index of the archive created by the {@link Indexer}.
+     *
+     * @return a stream containing the index as written by the Indexer
+     * @throws IOException if the index can't be opened
+     */
+    InputStream openIndex()
+            throws IOException;
+
+    /**
+     * Reads a batch of byte ranges of the archive.
+     *
+     * @param offsets          the offsets of the ranges, in ascending order
+     *                         and not overlapping
+     * @param lengths          the lengths of the ranges
+     * @param bandwidthManager the BandwidthManager to throttle transfers with
+     * @param progress         the listener to report the number of bytes
+     *                         transferred so far to with {@link ProgressListener#update(int)}
+     * @return the data of the ranges
+     * @throws IOException if the ranges can't be read
+     */
+    Ranges read(long[] offsets, long[] lengths, BandwidthManager bandwidthManager, ProgressListener progress)
+            throws IOException;
+
+    /**
+     * The data of a batch of byte ranges read from an UpdateSource,
+     * to be closed as soon as it isn't needed anymore.
+     */
+    interface Ranges extends Closeable {
+        /**
+         * Returns the data of a single range. This method can be
+         * called for any range in any order, also by several threads
+         * at once, and returns an independent buffer for every call.
+         *
+         * @param index the position of the range in the batch read
+         * @return a read-only buffer containing exactly the data of the range
+         * @throws IOException if the data can't be read
+         */
+        ByteBuffer get(int index)
+                throws IOException;
+
+        /**
+         * Returns the number of bytes transferred to read the ranges,
+         * including any protocol overhead.
+         */
+        long getBytesTransferred();
+
+        /**
+         * Releases any resources held for the data, e.g. deletes the
+         * file it has been downloaded into. No buffers returned by
+         * {@link #get(int)} must be used anymore afterwards.
+         *
+         * @throws IOException if releasing the resources fails
+         */
+        void close()
+                throws IOException;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate.trace;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes spans and their events as one JSON object per line.
+ * <p>
+ * A span is written when it ends:
+ * <pre>
+ * {"trace":"5f0c..","span":"3","parent":"1","name":"download","start":1700000000000000,"duration":81234,"attributes":{"ranges":558}}
+ * </pre>
+ * Events are written when they happen:
+ * <pre>
+ * {"trace":"5f0c..","span":"4","event":"fetch","time":1700000000081234,"attributes":{"name":"foo/bar.txt"}}
+ * </pre>
+ * All times are in microseconds, start and time since the epoch. The file is
+ * flushed whenever a trace's outermost span ends.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class JsonLinesTracer implements Tracer, Closeable {
+    private static final Logger logger = Logger.getLogger("de.vxart.zipupdate");
+
+    private final Writer out;
+    private final boolean entryTracing;
+    private final AtomicLong spanIds = new AtomicLong();
+
+
+    /**
+     * Creates a new JsonLinesTracer appending to the given file.
+     *
+     * @param file         the file to append to
+     * @param entryTracing whether to record an event for every entry
+     * @throws IOException if the file can't be opened
+     */
+    public JsonLinesTracer(File file, boolean entryTracing)
+            throws IOException {
+        this(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), entryTracing);
+    }
+
+    /**
+     * Creates a new JsonLinesTracer writing to the given writer.
+     *
+     * @param out          the writer to write to
+     * @param entryTracing whether to record an event for every entry
+     */
+    public JsonLinesTracer(Writer out, boolean entryTracing) {
+        this.out = new BufferedWriter(out);
+        this.entryTracing = entryTracing;
+    }
+
+    public Span start(String name, Span parent) {
+        JsonSpan parentSpan = parent instanceof JsonSpan ? (JsonSpan) parent : null;
+
+        String trace = parentSpan != null
+                ? parentSpan.trace
+                : Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+        return new JsonSpan(trace, Long.toHexString(spanIds.incrementAndGet()), parentSpan, name);
+    }
+
+    public boolean isEntryTracing() {
+        return entryTracing;
+    }
+
+    public void close()
+            throws IOException {
+        synchronized (out) {
+            out.close();
+        }
+    }
+
+    private void write(StringBuilder line, boolean flush) {
+        line.append('\n');
+
+        synchronized (out) {
+            try {
+                out.write(line.toString());
+                if (flush)
+                    out.flush();
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Failed to write trace", ex);
+            }
+        }
+    }
+
+    private static long micros() {
+        return System.currentTimeMillis() * 1000;
+    }
+
+    private static void quote(StringBuilder line, String value) {
+        line.append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+            }
+        }
+
+        line.append('"');
+    }
+
+    private class JsonSpan implements Span {
+        final String trace;
+        final String id;
+        final JsonSpan parent;
+        final String name;
+        final long start;
+        final long startNanos;
+        final StringBuilder attributes = new StringBuilder();
+
+        JsonSpan(String trace, String id, JsonSpan parent, String name) {
+            this.trace = trace;
+            this.id = id;
+            this.parent = parent;
+            this.name = name;
+            this.start = micros();
+            this.startNanos = System.nanoTime();
+        }
+
+        public boolean isRecording() {
+            return true;
+        }
+
+        public synchronized Span attribute(String key, String value) {
+            separate();
+            quote(attributes, key);
+            attributes.append(':');
+            if (value == null)
+                attributes.append("null");
+            else
+                quote(attributes, value);
+            return this;
+        }
+
+        public synchronized Span attribute(String key, long value) {
+            separate();
+            quote(attributes, key);
+            attributes.append(':').append(value);
+            return this;
+        }
+
+        private void separate() {
+            if (attributes.length() > 0)
+                attributes.append(',');
+        }
+
+        public void event(String name, String key, String value) {
+            StringBuilder line = head();
+            line.append(",\"event\":");
+            quote(line, name);
+            line.append(",\"time\":").append(micros());
+            line.append(",\"attributes\":{");
+            quote(line, key);
+            line.append(':');
+            quote(line, value);
+            line.append("}}");
+
+            write(line, false);
+        }
+
+        public void end() {
+            long duration = (System.nanoTime() - startNanos) / 1000;
+
+            StringBuilder line = head();
+            if (parent != null) {
+                line.append(",\"parent\":");
+                quote(line, parent.id);
+            }
+            line.append(",\"name\":");
+            quote(line, name);
+            line.append(",\"start\":").append(start);
+            line.append(",\"duration\":").append(duration);
+            synchronized (this) {
+                line.append(",\"attributes\":{").append(attributes).append("}}");
+            }
+
+            write(line, parent == null);
+        }
+
+        private StringBuilder head() {
+            StringBuilder line = new StringBuilder(128);
+            line.append("{\"trace\":");
+            quote(line, trace);
+            line.append(",\"span\":");
+            quote(line, id);
+            return line;
+        }
+    }
+}
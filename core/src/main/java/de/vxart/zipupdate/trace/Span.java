@@ -0,0 +1,84 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate.trace;
+
+/**
+ * A timed operation recorded by a {@link Tracer}, annotated with
+ * attributes and point-in-time events.
+ * <p>
+ * Callers building attribute values or events that are expensive to create
+ * (e.g. one per ZIP entry) should check {@link #isRecording()} first.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public interface Span {
+    /**
+     * A span that records nothing at all.
+     */
+    Span NOOP = new Span() {
+        public boolean isRecording() {
+            return false;
+        }
+
+        public Span attribute(String key, String value) {
+            return this;
+        }
+
+        public Span attribute(String key, long value) {
+            return this;
+        }
+
+        public void event(String name, String key, String value) {
+        }
+
+        public void end() {
+        }
+    };
+
+    /**
+     * Returns whether this span actually records anything.
+     */
+    boolean isRecording();
+
+    /**
+     * Sets an attribute of this span.
+     *
+     * @return this span
+     */
+    Span attribute(String key, String value);
+
+    /**
+     * Sets a numeric attribute of this span.
+     *
+     * @return this span
+     */
+    Span attribute(String key, long value);
+
+    /**
+     * Records an event happening now within this span
+     * with a single attribute describing it.
+     *
+     * @param name  the name of the event
+     * @param key   the name of the attribute
+     * @param value the value of the attribute
+     */
+    void event(String name, String key, String value);
+
+    /**
+     * Ends this span; it must not be used anymore afterwards.
+     */
+    void end();
+}
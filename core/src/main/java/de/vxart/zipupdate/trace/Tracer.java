@@ -0,0 +1,56 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate.trace;
+
+/**
+ * Records spans of work done while updating archives.
+ * <p>
+ * Implementations can be plugged in by calling
+ * <code>UpdateEngine.setTracer()</code> or as a service provider
+ * (listed in <code>META-INF/services/de.vxart.zipupdate.trace.Tracer</code>),
+ * see {@link Tracers#getDefault()}.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public interface Tracer {
+    /**
+     * A tracer that records nothing at all.
+     */
+    Tracer NOOP = new Tracer() {
+        public Span start(String name, Span parent) {
+            return Span.NOOP;
+        }
+
+        public boolean isEntryTracing() {
+            return false;
+        }
+    };
+
+    /**
+     * Starts a new span.
+     *
+     * @param name   the name of the span
+     * @param parent the span enclosing the new one, or null for a new trace
+     * @return the span started, {@link Span#NOOP} if not recording
+     */
+    Span start(String name, Span parent);
+
+    /**
+     * Returns whether an event should be recorded for every single entry
+     * patched, which is usually too much detail.
+     */
+    boolean isEntryTracing();
+}
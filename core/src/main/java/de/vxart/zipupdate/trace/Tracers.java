@@ -0,0 +1,77 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.ServiceLoader;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provides the default Tracer used by UpdateEngines.
+ * <p>
+ * Use the <code>de.vxart.zipupdate.trace.Tracers.file</code> system property
+ * to write traces as JSON lines to the given file (see {@link JsonLinesTracer})
+ * and <code>de.vxart.zipupdate.trace.Tracers.entries</code> to record an
+ * event for every entry patched as well.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class Tracers {
+    private static final Logger logger = Logger.getLogger("de.vxart.zipupdate");
+
+    private static Tracer defaultTracer;
+
+
+    private Tracers() {
+        // Empty private constructor
+    }
+
+    /**
+     * Returns the default Tracer: a JsonLinesTracer if a trace file is
+     * configured, otherwise the first service provider found, otherwise
+     * {@link Tracer#NOOP}. The default is only looked up once.
+     */
+    public static synchronized Tracer getDefault() {
+        if (defaultTracer == null)
+            defaultTracer = lookup();
+
+        return defaultTracer;
+    }
+
+    private static Tracer lookup() {
+        String file = System.getProperty("de.vxart.zipupdate.trace.Tracers.file");
+        if (file != null) {
+            try {
+                return new JsonLinesTracer(new File(file), Boolean.getBoolean("de.vxart.zipupdate.trace.Tracers.entries"));
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Failed to open trace file: " + file, ex);
+            }
+        }
+
+        try {
+            Iterator<Tracer> providers = ServiceLoader.load(Tracer.class).iterator();
+            if (providers.hasNext())
+                return providers.next();
+        } catch (RuntimeException | LinkageError ex) {
+            logger.log(Level.WARNING, "Failed to load Tracer service provider", ex);
+        }
+
+        return Tracer.NOOP;
+    }
+}
@@ -0,0 +1,522 @@
+/*
+ * Created 2005 by Philipp Reichart, philipp.reichart@vxart.de
+ *
+ * The contents of this file are donated to Mojang Specifications.
+ * All rights by the original author dismissed.
+ * Use, distribute and flavor at will :)
+ */
+package de.vxart.wurm;
+
+import de.vxart.zipupdate.DirectoryManifest;
+import de.vxart.zipupdate.Preflight;
+import de.vxart.zipupdate.ProgressListener;
+import de.vxart.zipupdate.ProgressListenerManager;
+import de.vxart.zipupdate.UpdateEngine;
+import de.vxart.zipupdate.UpdateLocation;
+import de.vxart.zipupdate.ui.MultiProgressDialog;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A wrapper for JZIPUpdate to easily update Wurm Online pack files.
+ * <p>
+ * Packs are only updated if they changed upstream: the state file
+ * (<code>packs.state</code> next to the packs, or wherever the
+ * <code>de.vxart.wurm.PackUpdateEngine.state</code> system property says)
+ * remembers the descriptor version and the checksum of the index of every
+ * pack last updated from a directory with a {@link DirectoryManifest}.
+ * Packs matching it are skipped without any further request, the others
+ * are checked with a {@link Preflight} and the outdated ones updated
+ * concurrently, those with the smallest download first, each shown in a
+ * progress panel of its own. The state file also keeps the descriptor of
+ * every pack along with its size and modification time, so packs not
+ * modified since aren't even opened.
+ * <p>
+ * The <code>de.vxart.wurm.PackUpdateEngine.urlMapping</code> system
+ * property rewrites the URLs from the pack descriptors, as a list of
+ * <code>from=to</code> replacements separated by commas; it defaults to
+ * mapping www.wurmonline.com to wurm.vxart.de. Use
+ * <code>de.vxart.wurm.PackUpdateEngine.threads</code> to set the number
+ * of packs updated at once (default 4) and
+ * <code>de.vxart.wurm.PackUpdateEngine.preflightTimeout</code> to set how
+ * many milliseconds to spend checking the packs (default 10000).
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class PackUpdateEngine {
+    private static Logger logger = Logger.getLogger(PackUpdateEngine.class.getName());
+
+    public final static String PACK_DESCRIPTOR = "pack.txt";
+    public final static String STATE_FILE = "packs.state";
+
+    private final static String DESCRIPTOR_SUFFIX = ".descriptor";
+    private final static String URL_SUFFIX = ".url";
+    private final static String DESCRIPTION_SUFFIX = ".description";
+
+    private final static String URL_MAPPING = System.getProperty(
+            "de.vxart.wurm.PackUpdateEngine.urlMapping", "www.wurmonline.com=wurm.vxart.de");
+    private final static int THREADS = Integer.getInteger("de.vxart.wurm.PackUpdateEngine.threads", 4);
+    private final static long PREFLIGHT_TIMEOUT = Long.getLong("de.vxart.wurm.PackUpdateEngine.preflightTimeout", 10000);
+
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: java de.vxart.wurm.PackUpdateEngine <pack file | directory>");
+            System.exit(1);
+        }
+
+        File input = new File(args[0]);
+
+        File[] files = null;
+
+        if (input.isFile()) {
+            logger.log(Level.INFO, "Generating index for " + input);
+            files = new File[1];
+            files[0] = input;
+        } else if (input.isDirectory()) {
+            files = input.listFiles((dir, name) -> {
+                name = name.toLowerCase();
+                return name.endsWith(".zip") || name.endsWith(".jar");
+            });
+        } else {
+            logger.log(Level.WARNING, "Neither directory nor ZIP/JAR file: " + input);
+            System.exit(2);
+        }
+
+        try {
+            update(files);
+        } catch (Exception ex) {
+            logger.log(Level.SEVERE, "Failed to update packs", ex);
+        }
+    }
+
+    public static void update(File[] files)
+            throws IOException, IllegalArgumentException {
+        if (files.length < 1)
+            return;
+
+        String stateProperty = System.getProperty("de.vxart.wurm.PackUpdateEngine.state");
+        File stateFile = stateProperty != null
+                ? new File(stateProperty)
+                : new File(files[0].getAbsoluteFile().getParentFile(), STATE_FILE);
+        Properties state = loadState(stateFile);
+
+        Map<String, String> urlMapping = parseUrlMapping(URL_MAPPING);
+        Map<URL, DirectoryManifest> manifests = new HashMap<>();
+
+        /*
+         * Skip packs whose index is the one they were last updated
+         * from, as far as the manifests of their directories tell.
+         */
+        List<Pack> packs = new ArrayList<>();
+
+        /*
+         * Keep going after a pack that can't be checked,
+         * the others may well be updated successfully.
+         */
+        IOException failure = null;
+        int failed = 0;
+
+        try {
+            for (File file : files) {
+                Pack pack;
+                try {
+                    pack = getPack(file, state, urlMapping, manifests);
+                } catch (IOException ex) {
+                    logger.log(Level.SEVERE, "Skipping pack: " + file, ex);
+                    if (failure == null)
+                        failure = new IOException("Failed to check " + file, ex);
+                    failed++;
+                    continue;
+                }
+
+                if (pack != null)
+                    packs.add(pack);
+            }
+
+            /*
+             * Find out which of the rest are outdated and how
+             * much they'll download; unknown ones go last.
+             */
+            if (!packs.isEmpty()) {
+                File[] archives = new File[packs.size()];
+                UpdateLocation[] locations = new UpdateLocation[packs.size()];
+                for (int i = 0; i < archives.length; i++) {
+                    archives[i] = packs.get(i).file;
+                    locations[i] = packs.get(i).location;
+                }
+
+                List<Preflight.Verdict> verdicts;
+                try {
+                    verdicts = Preflight.check(archives, locations, PREFLIGHT_TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while checking packs", ex);
+                }
+
+                List<Pack> outdated = new ArrayList<>();
+                for (int i = 0; i < archives.length; i++) {
+                    Pack pack = packs.get(i);
+                    Preflight.Verdict verdict = verdicts.get(i);
+
+                    if (Preflight.CURRENT.equals(verdict.getStatus())) {
+                        if (pack.indexChecksum != null)
+                            state.setProperty(pack.name, pack.getState());
+                        continue;
+                    }
+
+                    pack.downloadSize = Preflight.OUTDATED.equals(verdict.getStatus())
+                            ? verdict.getDownloadSize()
+                            : Long.MAX_VALUE;
+                    outdated.add(pack);
+                }
+
+                outdated.sort(Comparator.comparingLong(pack -> pack.downloadSize));
+                packs = outdated;
+            }
+
+            if (packs.isEmpty()) {
+                logger.log(Level.INFO, "All " + (files.length - failed) + " packs checked are up to date");
+            } else {
+                try {
+                    update(packs, state);
+                } catch (IOException ex) {
+                    if (failure != null)
+                        ex.addSuppressed(failure);
+                    throw ex;
+                }
+            }
+        } finally {
+            saveState(stateFile, state);
+        }
+
+        if (failure != null) {
+            if (failed > 1)
+                failure.addSuppressed(new IOException((failed - 1) + " more packs failed to be checked"));
+            throw failure;
+        }
+    }
+
+    /**
+     * Reads what the descriptor of a pack and the manifest of its
+     * directory say about it.
+     *
+     * @return the pack or null if it's unchanged upstream since it was
+     * last updated
+     * @throws IOException if the pack or its descriptor can't be read
+     */
+    private static Pack getPack(File file, Properties state, Map<String, String> urlMapping,
+                                Map<URL, DirectoryManifest> manifests)
+            throws IOException {
+        Pack pack = new Pack(file, getPackDescriptor(file, state), urlMapping);
+
+        URL base = new URL(pack.url, ".");
+        if (!manifests.containsKey(base))
+            manifests.put(base, fetchManifest(base));
+
+        DirectoryManifest manifest = manifests.get(base);
+        if (manifest != null && manifest.contains(pack.remoteName)) {
+            pack.indexChecksum = Long.toHexString(manifest.getIndexChecksum(pack.remoteName));
+            pack.location = manifest.getLocation(pack.remoteName);
+
+            if (pack.getState().equals(state.getProperty(pack.name))) {
+                logger.log(Level.FINE, "Pack unchanged upstream: " + pack.name);
+                return null;
+            }
+        } else {
+            pack.location = new UpdateLocation(pack.url);
+        }
+
+        return pack;
+    }
+
+    /**
+     * Updates the given packs concurrently in the given order,
+     * recording the ones updated successfully in the state.
+     */
+    private static void update(List<Pack> packs, Properties state)
+            throws IOException {
+        int threads = Math.min(Math.max(1, THREADS), packs.size());
+
+        /*
+         * Every pack updated at once gets a panel of its own,
+         * taken from the ones not in use by another pack.
+         */
+        MultiProgressDialog dialog = new MultiProgressDialog(threads);
+        BlockingQueue<ProgressListener> panels = new ArrayBlockingQueue<>(threads);
+        for (int i = 0; i < threads; i++) {
+            panels.add(dialog.getProgressListener(i));
+        }
+
+        ProgressListenerManager overall = new ProgressListenerManager();
+        overall.add(dialog.getOverallProgressListener());
+        overall.init("Updating " + packs.size() + " packs...", 0, packs.size());
+
+        AtomicInteger done = new AtomicInteger();
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService updaters = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "PackUpdateEngine-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<Future<?>> updates = new ArrayList<>(packs.size());
+        for (Pack pack : packs) {
+            updates.add(updaters.submit(() -> {
+                overall.label(pack.description);
+
+                UpdateEngine engine = new UpdateEngine();
+                ProgressListener panel = panels.take();
+                engine.addProgressListener(panel);
+
+                try (ZipFile archive = new ZipFile(pack.file)) {
+                    engine.update(archive, pack.location);
+                } finally {
+                    panels.add(panel);
+                }
+
+                /*
+                 * The pack changed, so its descriptor is read again.
+                 */
+                pack.version = getVersion(getPackDescriptor(pack.file, state));
+
+                if (pack.indexChecksum != null) {
+                    synchronized (state) {
+                        state.setProperty(pack.name, pack.getState());
+                    }
+                }
+
+                overall.update(done.incrementAndGet());
+                return null;
+            }));
+        }
+        updaters.shutdown();
+
+        /*
+         * Keep going after a failed pack, the others
+         * may well be updated successfully.
+         */
+        IOException failure = null;
+        int failed = 0;
+
+        for (int i = 0; i < updates.size(); i++) {
+            try {
+                updates.get(i).get();
+            } catch (ExecutionException ex) {
+                logger.log(Level.SEVERE, "Failed to update " + packs.get(i).file, ex.getCause());
+                if (failure == null)
+                    failure = new IOException("Failed to update " + packs.get(i).file, ex.getCause());
+                failed++;
+            } catch (InterruptedException ex) {
+                updaters.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while updating packs", ex);
+            }
+        }
+
+        overall.finish();
+
+        if (failure != null) {
+            if (failed > 1)
+                failure.addSuppressed(new IOException((failed - 1) + " more packs failed to update"));
+            throw failure;
+        }
+    }
+
+    private static DirectoryManifest fetchManifest(URL base) {
+        try {
+            return DirectoryManifest.fetch(base);
+        } catch (IOException ex) {
+            logger.log(Level.FINE, "No directory manifest at " + base + ", checking every pack", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Parses a list of <code>from=to</code> replacements separated by commas.
+     */
+    static Map<String, String> parseUrlMapping(String mapping) {
+        Map<String, String> replacements = new LinkedHashMap<>();
+
+        for (String replacement : mapping.split(",")) {
+            replacement = replacement.trim();
+            if (replacement.isEmpty())
+                continue;
+
+            int equals = replacement.indexOf('=');
+            if (equals < 1)
+                throw new IllegalArgumentException("Illegal URL mapping: " + replacement);
+
+            replacements.put(replacement.substring(0, equals), replacement.substring(equals + 1));
+        }
+
+        return replacements;
+    }
+
+    /**
+     * Returns the descriptor of the given pack as kept in the state if the
+     * pack wasn't modified since, reading it from the pack and keeping it
+     * in the state otherwise.
+     */
+    private static Properties getPackDescriptor(File file, Properties state)
+            throws IOException {
+        String name = file.getName();
+        String stamp = file.length() + "," + file.lastModified() + ",";
+
+        synchronized (state) {
+            String kept = state.getProperty(name + DESCRIPTOR_SUFFIX);
+            String url = state.getProperty(name + URL_SUFFIX);
+
+            if (kept != null && kept.startsWith(stamp) && url != null) {
+                Properties descriptor = new Properties();
+                descriptor.setProperty("version", kept.substring(stamp.length()));
+                descriptor.setProperty("url", url);
+
+                String description = state.getProperty(name + DESCRIPTION_SUFFIX);
+                if (description != null)
+                    descriptor.setProperty("description", description);
+
+                return descriptor;
+            }
+        }
+
+        Properties descriptor = getPackDescriptor(file);
+
+        String url = descriptor.getProperty("url");
+        if (url != null) {
+            synchronized (state) {
+                state.setProperty(name + DESCRIPTOR_SUFFIX, stamp + getVersion(descriptor));
+                state.setProperty(name + URL_SUFFIX, url);
+
+                String description = descriptor.getProperty("description");
+                if (description != null)
+                    state.setProperty(name + DESCRIPTION_SUFFIX, description);
+                else
+                    state.remove(name + DESCRIPTION_SUFFIX);
+            }
+        }
+
+        return descriptor;
+    }
+
+    private static Properties getPackDescriptor(File file)
+            throws IOException {
+        try (ZipFile archive = new ZipFile(file)) {
+            ZipEntry entry = archive.getEntry(PACK_DESCRIPTOR);
+            if (entry == null)
+                throw new IOException("No " + PACK_DESCRIPTOR + " in pack: " + file);
+
+            Properties packDescriptor = new Properties();
+            try (InputStream stream = archive.getInputStream(entry)) {
+                packDescriptor.load(stream);
+            }
+
+            return packDescriptor;
+        }
+    }
+
+    private static String getVersion(Properties descriptor) {
+        return descriptor.getProperty("version", "");
+    }
+
+    private static Properties loadState(File file) {
+        Properties state = new Properties();
+
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                state.load(in);
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Ignoring unreadable state file: " + file, ex);
+                state.clear();
+            }
+        }
+
+        return state;
+    }
+
+    private static void saveState(File file, Properties state) {
+        File tmp = new File(file.getPath() + ".tmp");
+
+        try {
+            synchronized (state) {
+                try (OutputStream out = new FileOutputStream(tmp)) {
+                    state.store(out, "Pack descriptors and the indexes the packs were last updated from");
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Failed to write state file: " + file, ex);
+        }
+    }
+
+    /**
+     * A pack file and what its descriptor says about it.
+     */
+    private static class Pack {
+        final File file;
+        final String name;
+        final String description;
+        final URL url;
+        final String remoteName;
+
+        String version;
+        UpdateLocation location;
+        String indexChecksum;
+        long downloadSize;
+
+        Pack(File file, Properties descriptor, Map<String, String> urlMapping)
+                throws IOException {
+            this.file = file;
+            this.name = file.getName();
+            this.version = getVersion(descriptor);
+            this.description = descriptor.getProperty("description", name);
+
+            String urlString = descriptor.getProperty("url");
+            if (urlString == null)
+                throw new IOException("No url in " + PACK_DESCRIPTOR + " of pack: " + file);
+
+            for (Map.Entry<String, String> replacement : urlMapping.entrySet()) {
+                urlString = urlString.replace(replacement.getKey(), replacement.getValue());
+            }
+
+            this.url = new URL(urlString);
+
+            String path = url.getPath();
+            this.remoteName = path.substring(path.lastIndexOf('/') + 1);
+        }
+
+        /**
+         * Describes this pack as updated from the current index.
+         */
+        String getState() {
+            return version + "," + indexChecksum + "," + file.length() + "," + file.lastModified();
+        }
+    }
+}
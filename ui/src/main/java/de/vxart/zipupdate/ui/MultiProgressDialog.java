@@ -22,18 +22,50 @@ import javax.swing.*;
 import java.awt.*;
 
 /**
+ * Shows the overall progress of several updates above the progress of
+ * the current one, or of each of several updates running concurrently
+ * (see {@link #getProgressListener(int)}).
+ *
  * @author Philipp Reichart, philipp.reichart@vxart.de
  */
-public class MultiProgressDialog implements MultiProgressListener {
+public class MultiProgressDialog implements MultiProgressListener, SwingProgressListener {
     private ProgressPanel overallProgress;
+    private ProgressPanel[] panels;
     private ProgressPanel panel;
     private JOptionPane pane;
     JDialog dialog;
 
     public MultiProgressDialog() {
+        this(1);
+    }
+
+    /**
+     * Creates a dialog with the given number of panels below the overall
+     * progress, e.g. one for every update running at the same time.
+     */
+    public MultiProgressDialog(int count) {
         super();
 
-        panel = new ProgressPanel();
+        if (count < 1)
+            throw new IllegalArgumentException("Illegal number of progress panels: " + count);
+
+        panels = new ProgressPanel[count];
+        for (int i = 0; i < count; i++) {
+            panels[i] = new ProgressPanel() {
+                @Override
+                public void init(String message) {
+                    super.init(message);
+                    dialog.setVisible(true);
+                }
+
+                @Override
+                public void init(String message, int min, int max) {
+                    super.init(message, min, max);
+                    dialog.setVisible(true);
+                }
+            };
+        }
+        panel = panels[0];
 
         overallProgress = new ProgressPanel() {
             @Override
@@ -48,7 +80,9 @@ public class MultiProgressDialog implements MultiProgressListener {
 
         Box multiPanel = new Box(BoxLayout.Y_AXIS);
         multiPanel.add(overallProgress);
-        multiPanel.add(panel);
+        for (ProgressPanel progress : panels) {
+            multiPanel.add(progress);
+        }
 
         pane = new JOptionPane(
                 multiPanel, // message
@@ -68,12 +102,10 @@ public class MultiProgressDialog implements MultiProgressListener {
 
     public void init(String message) {
         panel.init(message);
-        dialog.setVisible(true);
     }
 
     public void init(String message, int min, int max) {
         panel.init(message, min, max);
-        dialog.setVisible(true);
     }
 
     public void update(int value) {
@@ -95,4 +127,19 @@ public class MultiProgressDialog implements MultiProgressListener {
     public ProgressListener getOverallProgressListener() {
         return overallProgress;
     }
+
+    /**
+     * Returns the listener showing progress in the panel with the given
+     * index; the dialog itself shows it in the first one.
+     */
+    public ProgressListener getProgressListener(int index) {
+        return panels[index];
+    }
+
+    /**
+     * Returns the number of panels below the overall progress.
+     */
+    public int getProgressListenerCount() {
+        return panels.length;
+    }
 }
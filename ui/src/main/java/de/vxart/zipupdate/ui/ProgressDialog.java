@@ -15,7 +15,6 @@
  */
 package de.vxart.zipupdate.ui;
 
-import de.vxart.zipupdate.ProgressListener;
 
 import javax.swing.*;
 import java.awt.*;
@@ -23,7 +22,7 @@ import java.awt.*;
 /**
  * @author Philipp Reichart, philipp.reichart@vxart.de
  */
-public class ProgressDialog implements ProgressListener {
+public class ProgressDialog implements SwingProgressListener {
     private ProgressPanel panel;
     private JOptionPane pane;
     private JDialog dialog;
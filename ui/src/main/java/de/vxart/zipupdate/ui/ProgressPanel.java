@@ -15,14 +15,12 @@
  */
 package de.vxart.zipupdate.ui;
 
-import de.vxart.zipupdate.ProgressListener;
-
 import javax.swing.*;
 
 /**
  * @author Philipp Reichart, philipp.reichart@vxart.de
  */
-public class ProgressPanel extends Box implements ProgressListener {
+public class ProgressPanel extends Box implements SwingProgressListener {
     private JProgressBar progressBar;
     private JLabel message;
     private JLabel leftDetail, rightDetail;
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate.ui;
+
+import de.vxart.zipupdate.ConfinedProgressListener;
+
+import javax.swing.SwingUtilities;
+import java.util.concurrent.Executor;
+
+/**
+ * Marks ProgressListeners updating Swing components, which will only
+ * be called on the event dispatch thread.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public interface SwingProgressListener extends ConfinedProgressListener {
+    /**
+     * Returns an Executor running everything on the event dispatch thread.
+     */
+    @Override
+    default Executor getExecutor() {
+        return SwingUtilities::invokeLater;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2005 Philipp Reichart <philipp.reichart@vxart.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.vxart.zipupdate.ui;
+
+import de.vxart.zipupdate.UpdateEngine;
+import de.vxart.zipupdate.UpdateLocation;
+
+import javax.swing.UIManager;
+import java.io.File;
+import java.net.URL;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipFile;
+
+/**
+ * Provides a basic stand-alone way to update archives
+ * showing the progress in Swing dialogs.
+ *
+ * @author Philipp Reichart, philipp.reichart@vxart.de
+ */
+public class SwingUpdater {
+    private static final Logger logger = Logger.getLogger("de.vxart.zipupdate");
+
+
+    private SwingUpdater() {
+        // Empty private constructor
+    }
+
+    public static void main(String[] args)
+            throws Exception {
+        if (args.length < 2) {
+            System.err.println(
+                    "Usage: java de.vxart.zipupdate.ui.SwingUpdater" +
+                            " <ZIP file> <update URL>");
+            System.err.println(
+                    "   or: java de.vxart.zipupdate.ui.SwingUpdater" +
+                            " <directory> <update base URL>");
+            System.exit(1);
+        }
+
+        /*
+         * Use native LAF if possible
+         */
+        try {
+            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+        } catch (Exception ex) {
+            logger.log(Level.WARNING, "Failed to enable native LAF: " + ex.getMessage());
+        }
+
+        /*
+         * Parse arguments
+         */
+        File input = new File(args[0]);
+
+        URL url = null;
+        try {
+            url = new URL(args[1]);
+        } catch (Exception ex) {
+            logger.log(Level.SEVERE, "Invalid URL: " + args[1]);
+            System.exit(2);
+        }
+
+        /*
+         * Create update engine and register graphical listener
+         */
+        UpdateEngine engine = new UpdateEngine();
+
+        if (input.isDirectory()) {
+            /*
+             * Filter out anything but ZIP and JAR files
+             */
+            File[] files = input.listFiles(
+                    (dir, name) -> {
+                        name = name.toLowerCase();
+                        return name.endsWith(".zip") || name.endsWith(".jar");
+                    });
+
+            if (files.length < 1) {
+                logger.log(Level.WARNING, "No ZIP/JAR files found at " + input.getAbsolutePath());
+                System.exit(3);
+            }
+
+            MultiProgressDialog mpd = new MultiProgressDialog();
+            mpd.init("Monkeys!");
+            engine.addProgressListener(mpd);
+
+            ZipFile[] archives = new ZipFile[files.length];
+            UpdateLocation[] locations = new UpdateLocation[files.length];
+            String[] messages = new String[files.length];
+
+            for (int i = 0; i < files.length; i++) {
+                try {
+                    archives[i] = new ZipFile(files[i]);
+                    locations[i] = new UpdateLocation(new URL(url, files[i].getName()));
+                    messages[i] = files[i].getName();
+                } catch (Exception ex) {
+                    logger.log(Level.SEVERE, "Failed to initialize arguments for: " + files[i].getAbsolutePath());
+                    System.exit(4);
+                }
+            }
+
+            engine.update(archives, locations, messages);
+        } else {
+            ZipFile archive = UpdateEngine.openArchive(input);
+            engine.addProgressListener(new ProgressDialog());
+            engine.update(archive, new UpdateLocation(url));
+        }
+    }
+}